@@ -0,0 +1,62 @@
+package comun;
+
+import org.openjdk.jmh.annotations.*;
+import protocolos.EventoCarrera;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste para el hilo que registra de la línea por evento del servidor: con el
+ * nivel desactivado (depuración con nivel info), activado (el anillo hacia un
+ * fichero; si el escritor no da abasto parte de las líneas se descartan) y
+ * como se hacía antes, concatenando y con println bajo el cerrojo de un
+ * PrintStream que no escribe en ningún sitio.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Dcamellos.log.nivel=info", "-Dcamellos.log.fichero=target/registro-bench.log",
+        "-Dcamellos.log.rotar.mb=16", "-Dcamellos.log.ficheros=1"})
+@State(Scope.Benchmark)
+public class RegistroBenchmark {
+
+    private final PrintStream salidaNula = new PrintStream(OutputStream.nullOutputStream());
+    private final EventoCarrera.TipoEvento tipo = EventoCarrera.TipoEvento.PASO;
+    private final String idCliente = "Jugador1";
+    private int pos = 300;
+
+    @Benchmark
+    public void desactivado() {
+        Registro.depuracion("[SERVIDOR] Evento {} de '{}' pos={}", tipo, idCliente, pos);
+    }
+
+    @Benchmark
+    public void activado() {
+        Registro.info("[SERVIDOR] Evento {} de '{}' pos={}", tipo, idCliente, pos);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void activado4Hilos() {
+        Registro.info("[SERVIDOR] Evento {} de '{}' pos={}", tipo, idCliente, pos);
+    }
+
+    @Benchmark
+    public void concatenacionPrintStream() {
+        salidaNula.println("[SERVIDOR] Evento " + tipo + " de '" + idCliente + "' pos=" + pos);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void concatenacionPrintStream4Hilos() {
+        salidaNula.println("[SERVIDOR] Evento " + tipo + " de '" + idCliente + "' pos=" + pos);
+    }
+
+    @TearDown
+    public void informar() {
+        System.out.println("líneas descartadas: " + Registro.descartadas());
+    }
+}
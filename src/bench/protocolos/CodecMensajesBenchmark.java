@@ -0,0 +1,96 @@
+package protocolos;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coste de codificar y decodificar una trama de cada mensaje de protocolos,
+ * en formato Java (serialización estándar) y binario. Se mide el estado
+ * estable de una conexión: los DEF_ID ya se han enviado y recibido.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecMensajesBenchmark {
+
+    @Param({"SolicitudConexion", "AsignacionGrupo", "EventoCarrera", "Heartbeat",
+            "FinCarrera", "ErrorProtocolo", "EstadoJugador", "InstantaneaCarrera",
+            "ClasificacionParcial"})
+    public String mensaje;
+
+    @Param({"java", "binario"})
+    public String formato;
+
+    private Object objeto;
+    private CodecMensajes codificador;
+    private CodecMensajes decodificador;
+    private final ByteBuffer buffer = ByteBuffer.allocate(Tramas.MAX_TRAMA);
+    private byte[] trama;
+
+    @Setup
+    public void preparar() throws IOException, ClassNotFoundException {
+        objeto = crear(mensaje);
+        byte fmt = "java".equals(formato) ? CodecMensajes.FORMATO_JAVA : CodecMensajes.FORMATO_BINARIO;
+        codificador = new CodecMensajes(fmt);
+        decodificador = new CodecMensajes(fmt);
+
+        // Primera codificación: lleva los DEF_ID, que el decodificador tiene que ver una vez
+        codificador.codificar(objeto, buffer);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            int longitud = buffer.getInt();
+            decodificador.decodificar(buffer.array(), buffer.position(), longitud);
+            buffer.position(buffer.position() + longitud);
+        }
+
+        buffer.clear();
+        codificador.codificar(objeto, buffer);
+        trama = Arrays.copyOfRange(buffer.array(), 4, buffer.position());
+    }
+
+    @Benchmark
+    public int codificar() throws IOException {
+        buffer.clear();
+        codificador.codificar(objeto, buffer);
+        return buffer.position();
+    }
+
+    @Benchmark
+    public Object decodificar() throws IOException, ClassNotFoundException {
+        return decodificador.decodificar(trama, 0, trama.length);
+    }
+
+    static Object crear(String mensaje) {
+        switch (mensaje) {
+            case "SolicitudConexion":
+                return new SolicitudConexion("Jugador1", CodecMensajes.FORMATO_BINARIO);
+            case "AsignacionGrupo":
+                return new AsignacionGrupo(7, "239.0.0.1", 6000, 4, 1234567890123L, false, true);
+            case "EventoCarrera":
+                return new EventoCarrera(EventoCarrera.TipoEvento.PASO, "Jugador1", 1700000000000L, 240);
+            case "Heartbeat":
+                return new Heartbeat("Jugador1", 1700000000000L);
+            case "FinCarrera":
+                return new FinCarrera(7, Arrays.asList("Jugador3", "Jugador1", "Jugador4", "Jugador2"));
+            case "ErrorProtocolo":
+                return new ErrorProtocolo(400, "Mensaje inesperado");
+            case "EstadoJugador":
+                return new EstadoJugador("Jugador1", false);
+            case "InstantaneaCarrera":
+                return new InstantaneaCarrera(7, 120, true, Arrays.asList("Jugador1", "Jugador2", "Jugador3", "Jugador4"),
+                        new int[]{240, 300, 180, 420});
+            case "ClasificacionParcial":
+                return new ClasificacionParcial(7, 16, 9, 310, Arrays.asList("Jugador4", "Jugador2", "Jugador1"),
+                        new int[]{420, 300, 240});
+            default:
+                throw new IllegalArgumentException(mensaje);
+        }
+    }
+}
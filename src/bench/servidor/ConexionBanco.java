@@ -0,0 +1,77 @@
+package servidor;
+
+import protocolos.CodecMensajes;
+import protocolos.ColaSalida;
+import protocolos.TablaIds;
+import protocolos.TramaCompartida;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Conexión sin socket para los benchmarks: codifica en una ColaSalida de
+ * verdad y, cuando se llena, la vacía como haría el escritor.
+ */
+class ConexionBanco implements Conexion {
+    private final ColaSalida cola = new ColaSalida(new CodecMensajes(CodecMensajes.FORMATO_BINARIO), ColaSalida.CAPACIDAD);
+
+    @Override
+    public boolean enviar(Object mensaje) throws IOException {
+        if (!cola.encolar(mensaje)) {
+            vaciar();
+            cola.encolar(mensaje);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean enviar(TramaCompartida trama) throws IOException {
+        if (!cola.encolar(trama)) {
+            vaciar();
+            cola.encolar(trama);
+        }
+        return true;
+    }
+
+    private void vaciar() {
+        ByteBuffer b;
+        while ((b = cola.tomar()) != null) {
+            b.position(b.limit());
+        }
+    }
+
+    @Override
+    public void usarFormato(byte formato) {
+        cola.usarFormato(formato);
+    }
+
+    @Override
+    public void usarTabla(TablaIds tabla) {
+        cola.usarTabla(tabla);
+    }
+
+    @Override
+    public boolean saturada() {
+        return false;
+    }
+
+    @Override
+    public boolean pausarLectura(long nanos) {
+        return false;
+    }
+
+    @Override
+    public void rechazar(String detalle) {
+        cerrar();
+    }
+
+    @Override
+    public void cerrar() {
+        cola.cerrar();
+    }
+
+    @Override
+    public String remoto() {
+        return "banco";
+    }
+}
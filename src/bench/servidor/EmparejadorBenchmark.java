@@ -0,0 +1,82 @@
+package servidor;
+
+import org.openjdk.jmh.annotations.*;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Altas en la sala de espera del Emparejador (por orden de llegada) desde
+ * varios hilos a la vez. El anuncio del grupo se sustituye por devolver el
+ * slot y el grupo a la reserva, así que solo se mide el emparejamiento; el
+ * coste de enviar AsignacionGrupo está en RedistribucionBenchmark y las
+ * esperas de cada motor, en EsperaEmparejamientoBenchmark.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmparejadorBenchmark {
+
+    static class ServidorBanco extends ServidorEmparejamiento {
+        ServidorBanco() throws IOException {
+            super(Modo.NIO);
+        }
+
+        @Override
+        void asignarGrupo(Grupo g, int slot) {
+            reservaGrupos.liberarSlot(slot);
+            g.estado.set(Grupo.Estado.LIBERADO);
+            reservaGrupos.reciclar(g);
+        }
+    }
+
+    @Param({"2", "4", "16"})
+    public int tamGrupo;
+
+    private Emparejador emparejador;
+    private final AtomicInteger siguienteId = new AtomicInteger();
+    private final Conexion conexion = new ConexionBanco();
+    private PrintStream salida;
+
+    @Setup
+    public void preparar() throws IOException {
+        salida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        ServidorBanco servidor = new ServidorBanco();
+        emparejador = new Emparejador(servidor, servidor.reservaGrupos, tamGrupo);
+    }
+
+    @TearDown
+    public void terminar() {
+        System.setOut(salida);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void unirse1Hilo() {
+        unirse();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void unirse4Hilos() {
+        unirse();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void unirse16Hilos() {
+        unirse();
+    }
+
+    private void unirse() {
+        emparejador.unirse(new ClienteInfo("J" + siguienteId.incrementAndGet(), conexion));
+    }
+}
@@ -0,0 +1,166 @@
+package servidor;
+
+import comun.Histograma;
+import org.openjdk.jmh.annotations.*;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reproduce una traza sintética de llegadas con cada motor de emparejamiento
+ * en tiempo virtual: un proceso de Poisson de llegadasPorSegundo durante
+ * DURACION_S, con una ida y vuelta de una de tres poblaciones (cerca, lejos
+ * y muy lejos) y una puntuación normal alrededor de la inicial. Las pasadas
+ * del motor por lotes se hacen cada PERIODO_MS del reloj virtual, y al final
+ * se sigue hasta que vence el llenado de los últimos.
+ *
+ * JMH mide lo que cuesta reproducir la traza entera; al terminar cada
+ * configuración se imprimen los percentiles de la espera virtual (de la
+ * llegada a la asignación), el tamaño medio de los grupos, lo que se separan
+ * de media dentro de un grupo la ida y vuelta y la puntuación (lo que se
+ * gana esperando más) y cuántos jugadores se quedaron sin grupo.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dcamellos.log.nivel=aviso")
+@State(Scope.Benchmark)
+public class EsperaEmparejamientoBenchmark {
+    private static final int DURACION_S = 300;
+    private static final long ESPERA_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long PERIODO_NANOS = TimeUnit.MILLISECONDS.toNanos(EmparejadorPorLotes.PERIODO_MS.valor());
+
+    static class ServidorTraza extends ServidorEmparejamiento {
+        long ahora;  // Reloj virtual
+        Histograma esperas = new Histograma();
+        long grupos;
+        long sumaDispersionIdaVuelta;  // ns
+        long sumaDispersionPuntuacion;
+        int[] puntuaciones;  // De la traza, por índice del id
+
+        ServidorTraza() throws IOException {
+            super(Modo.NIO);
+        }
+
+        @Override
+        void asignarGrupo(Grupo g, int slot) {
+            long minIdaVuelta = Long.MAX_VALUE, maxIdaVuelta = Long.MIN_VALUE;
+            int minPuntuacion = Integer.MAX_VALUE, maxPuntuacion = Integer.MIN_VALUE;
+            for (int i = 0; i < g.tamGrupo; i++) {
+                ClienteInfo info = g.miembros.get(i);
+                esperas.registrar(ahora - info.llegada);
+                int puntuacion = puntuaciones[Integer.parseInt(info.id.substring(1))];
+                minIdaVuelta = Math.min(minIdaVuelta, info.idaVuelta);
+                maxIdaVuelta = Math.max(maxIdaVuelta, info.idaVuelta);
+                minPuntuacion = Math.min(minPuntuacion, puntuacion);
+                maxPuntuacion = Math.max(maxPuntuacion, puntuacion);
+            }
+            grupos++;
+            sumaDispersionIdaVuelta += maxIdaVuelta - minIdaVuelta;
+            sumaDispersionPuntuacion += maxPuntuacion - minPuntuacion;
+            reservaGrupos.liberarSlot(slot);
+            g.estado.set(Grupo.Estado.LIBERADO);
+            reservaGrupos.reciclar(g);
+        }
+    }
+
+    @Param({"lotes", "fifo"})
+    public String motor;
+
+    @Param({"1", "20", "500"})
+    public double llegadasPorSegundo;
+
+    @Param({"2", "4"})
+    public int maximo;
+
+    private ServidorTraza servidor;
+    private final Conexion conexion = new ConexionBanco();
+    private PrintStream salida;
+
+    // La traza, por orden de llegada
+    private String[] ids;
+    private long[] llegadas;
+    private long[] idasVuelta;
+    private int[] puntuaciones;
+
+    @Setup
+    public void preparar() throws IOException {
+        salida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        servidor = new ServidorTraza();
+
+        Random azar = new Random(42);
+        int n = (int) (llegadasPorSegundo * DURACION_S);
+        ids = new String[n];
+        llegadas = new long[n];
+        idasVuelta = new long[n];
+        puntuaciones = new int[n];
+        long t = 0;
+        for (int i = 0; i < n; i++) {
+            t += (long) (-Math.log(1 - azar.nextDouble()) / llegadasPorSegundo * 1e9);
+            ids[i] = "J" + i;
+            llegadas[i] = t;
+            double poblacion = azar.nextDouble();
+            double mediaMs = poblacion < 0.6 ? 15 : poblacion < 0.9 ? 70 : 250;
+            idasVuelta[i] = (long) (mediaMs * (0.7 + 0.6 * azar.nextDouble()) * 1_000_000);
+            puntuaciones[i] = (int) (EmparejadorPorLotes.PUNTUACION_INICIAL + 200 * azar.nextGaussian());
+        }
+        servidor.puntuaciones = puntuaciones;
+    }
+
+    @TearDown
+    public void terminar() {
+        System.setOut(salida);
+        Histograma esperas = servidor.esperas;
+        long asignados = esperas.total();
+        long grupos = Math.max(1, servidor.grupos);
+        System.out.printf("%n[%s, %.0f llegadas/s, máximo %d] espera p90=%.1fms %s%n"
+                        + "  %.2f jugadores por grupo, dispersión media ida y vuelta %.1fms y puntuación %d; %d sin grupo%n",
+                motor, llegadasPorSegundo, maximo, esperas.percentil(90) / 1e6, esperas.resumen(1_000_000, "ms"),
+                (double) asignados / grupos, servidor.sumaDispersionIdaVuelta / 1e6 / grupos,
+                servidor.sumaDispersionPuntuacion / grupos, ids.length - asignados);
+    }
+
+    @Benchmark
+    public Histograma reproducir() {
+        servidor.esperas = new Histograma();
+        servidor.grupos = 0;
+        servidor.sumaDispersionIdaVuelta = 0;
+        servidor.sumaDispersionPuntuacion = 0;
+        EmparejadorPorLotes lotes = null;
+        MotorEmparejamiento m;
+        if (motor.equals("lotes")) {
+            m = lotes = new EmparejadorPorLotes(servidor, servidor.reservaGrupos, 1, maximo, ESPERA_NANOS);
+        } else {
+            m = new Emparejador(servidor, servidor.reservaGrupos, maximo);
+        }
+
+        long siguientePasada = PERIODO_NANOS;
+        for (int i = 0; i < ids.length; i++) {
+            if (lotes != null) {
+                for (; siguientePasada <= llegadas[i]; siguientePasada += PERIODO_NANOS) {
+                    servidor.ahora = siguientePasada;
+                    lotes.pasada(siguientePasada);
+                }
+                lotes.fijarPuntuacion(ids[i], puntuaciones[i]);
+            }
+            servidor.ahora = llegadas[i];
+            ClienteInfo info = new ClienteInfo(ids[i], conexion, llegadas[i]);
+            info.idaVuelta = idasVuelta[i];
+            m.unirse(info);
+        }
+        if (lotes != null && ids.length > 0) {
+            long fin = llegadas[ids.length - 1] + ESPERA_NANOS + PERIODO_NANOS;
+            for (; siguientePasada <= fin; siguientePasada += PERIODO_NANOS) {
+                servidor.ahora = siguientePasada;
+                lotes.pasada(siguientePasada);
+            }
+        }
+        return servidor.esperas;
+    }
+}
@@ -0,0 +1,62 @@
+package servidor;
+
+import comun.Clasificacion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ranking de un grupo: ordenándolo desde cero (calcularRanking) frente a
+ * leerlo de la Clasificacion, y lo que cuesta a cada paso mantenerla en orden
+ * y preguntar el puesto del que avanza.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RankingBenchmark {
+
+    @Param({"2", "4", "16", "64"})
+    public int jugadores;
+
+    private String[] ids;
+    private int[] posiciones;
+    private Clasificacion clasificacion;
+    private Random random;
+
+    @Setup
+    public void preparar() {
+        random = new Random(42);
+        ids = new String[jugadores];
+        posiciones = new int[jugadores];
+        clasificacion = new Clasificacion(jugadores);
+        for (int i = 0; i < jugadores; i++) {
+            ids[i] = "Jugador" + i;
+            posiciones[i] = random.nextInt(650);
+            clasificacion.fijar(i, posiciones[i]);
+        }
+    }
+
+    @Benchmark
+    public List<String> calcularRanking() {
+        return ServidorEmparejamiento.calcularRanking(ids, posiciones);
+    }
+
+    @Benchmark
+    public int[] leerClasificacion() {
+        return clasificacion.orden();
+    }
+
+    // Un paso de 1 a 3 de un carril cualquiera; al llegar a la meta vuelve a la salida
+    @Benchmark
+    public int pasoYPuesto() {
+        int carril = random.nextInt(jugadores);
+        int pos = clasificacion.posicion(carril) + 1 + random.nextInt(3);
+        clasificacion.fijar(carril, pos >= 650 ? 0 : pos);
+        return clasificacion.puesto(carril);
+    }
+}
@@ -0,0 +1,70 @@
+package servidor;
+
+import org.openjdk.jmh.annotations.*;
+import protocolos.CodecMensajes;
+import protocolos.EventoCarrera;
+import protocolos.SolicitudConexion;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Un PASO recibido y reenviado al resto del grupo (procesarMensaje →
+ * redistribuirEvento), con grupos de 2 a 64 jugadores. Las conexiones
+ * codifican en una ColaSalida real; no hay sockets.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RedistribucionBenchmark {
+
+    @Param({"2", "4", "8", "16", "32", "64"})
+    public int tamGrupo;
+
+    private ServidorEmparejamiento servidor;
+    private ClienteInfo emisor;
+    private EventoCarrera evento;
+    private PrintStream salida;
+
+    @Setup
+    public void preparar() throws IOException {
+        // Los logs por evento van a System.out; se miden pero no se escriben
+        salida = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+
+        // Por orden de llegada el grupo se forma al registrar al último, sin esperar a una
+        // pasada; sin cuenta atrás ni clasificación periódica no hace falta arrancar el servidor
+        System.setProperty("camellos.emparejamiento", "fifo");
+        System.setProperty("camellos.cuenta.atras.ms", "0");
+        System.setProperty("camellos.clasificacion.hz", "0");
+        System.setProperty("camellos.grupo.tam", String.valueOf(tamGrupo));
+        servidor = new ServidorEmparejamiento(ServidorEmparejamiento.Modo.NIO);
+        for (int i = 0; i < tamGrupo; i++) {
+            ClienteInfo info = servidor.registrarCliente(new ConexionBanco(),
+                    new SolicitudConexion("Jugador" + i, CodecMensajes.FORMATO_BINARIO));
+            if (i == 0) emisor = info;
+        }
+        evento = new EventoCarrera(EventoCarrera.TipoEvento.PASO, emisor.id, 0, 100);
+    }
+
+    @TearDown
+    public void terminar() {
+        System.setOut(salida);
+        System.clearProperty("camellos.grupo.tam");
+        System.clearProperty("camellos.emparejamiento");
+        System.clearProperty("camellos.cuenta.atras.ms");
+        System.clearProperty("camellos.clasificacion.hz");
+    }
+
+    @Benchmark
+    public void redistribuir() {
+        evento.tMarca++;
+        servidor.procesarMensaje(emisor, evento);
+    }
+}
@@ -0,0 +1,296 @@
+package cliente;
+
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Histograma;
+import comun.Registro;
+import protocolos.ClasificacionParcial;
+import protocolos.EventoCarrera;
+import protocolos.FinCarrera;
+import protocolos.InstantaneaCarrera;
+
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generador de carga sin interfaz: cada bot es un jugador que se une, hace
+ * clic al ritmo pedido hasta acabar la carrera y vuelve a empezar con otra
+ * sesión. Todos corren en el mismo proceso, así que quien recibe un PASO
+ * busca cuándo lo envió el rival (por id y posición) y mide la latencia de
+ * reenvío con nanoTime. En carrera autoritativa además se mide la ida y
+ * vuelta de cada clic propio hasta que aparece en una InstantaneaCarrera.
+ *
+ * <pre>
+ * java cliente.BotCarrera --sesiones=1000 --clics=5 --rampa=200 --duracion=60
+ *                         [--servidor=localhost:5000] [--caos=0.001] [--mudos=0.01] [--cortes=0.001]
+ * </pre>
+ * <ul>
+ *   <li>sesiones: jugadores simultáneos</li>
+ *   <li>clics: clics por segundo de cada jugador (llegadas de Poisson)</li>
+ *   <li>rampa: jugadores nuevos por segundo al arrancar</li>
+ *   <li>duracion: segundos de prueba</li>
+ *   <li>caos: probabilidad por clic de cortar la conexión de golpe</li>
+ *   <li>mudos: probabilidad por sesión de dejar de enviar heartbeats tras unirse</li>
+ *   <li>cortes: probabilidad por clic de cerrar el socket sin cerrar la sesión, que reanuda</li>
+ * </ul>
+ * Por defecto usa hilos virtuales (-Dcamellos.hilos para cambiarlo).
+ */
+public class BotCarrera {
+
+    // Lo que comparten todos los bots del proceso
+    private static final Map<String, long[]> envios = new ConcurrentHashMap<>();  // id de sesión -> nanoTime por posición
+    private static final Histograma latenciaUnion = new Histograma();
+    private static final Histograma latenciaReenvio = new Histograma();
+    private static final Histograma idaVuelta = new Histograma();
+    private static final AtomicLong clics = new AtomicLong();
+    private static final AtomicLong recibidos = new AtomicLong();
+    private static final AtomicLong carreras = new AtomicLong();
+    private static final AtomicLong caidas = new AtomicLong();
+    private static final AtomicLong cortes = new AtomicLong();
+    private static final AtomicLong reanudadas = new AtomicLong();
+    private static final AtomicLong errores = new AtomicLong();
+    private static final AtomicInteger conectados = new AtomicInteger();
+
+    private final int numero;
+    private final String ip;
+    private final int puerto;
+    private final double clicsPorSegundo;
+    private final double probCaos;
+    private final double probMudo;
+    private final double probCorte;
+    private final long finNanos;
+
+    BotCarrera(int numero, String ip, int puerto, double clicsPorSegundo, double probCaos, double probMudo,
+               double probCorte, long finNanos) {
+        this.numero = numero;
+        this.ip = ip;
+        this.puerto = puerto;
+        this.clicsPorSegundo = clicsPorSegundo;
+        this.probCaos = probCaos;
+        this.probMudo = probMudo;
+        this.probCorte = probCorte;
+        this.finNanos = finNanos;
+    }
+
+    void ejecutar() {
+        int ronda = 0;
+        while (System.nanoTime() < finNanos) {
+            String id = "Bot" + numero + "-" + ronda++;
+            try {
+                jugar(id);
+            } catch (Exception e) {
+                errores.incrementAndGet();
+                dormir(1000);  // No machacar al servidor si está caído
+            } finally {
+                envios.remove(id);
+            }
+        }
+    }
+
+    private void jugar(String id) throws Exception {
+        long[] misEnvios = new long[SesionCarrera.META + 1];
+        envios.put(id, misEnvios);
+        Sesion oyente = new Sesion(id, misEnvios);
+        SesionCarrera sesion = new SesionCarrera(id, oyente, false);
+
+        long inicio = System.nanoTime();
+        sesion.conectar(ip, puerto);
+        latenciaUnion.registrar(System.nanoTime() - inicio);
+        conectados.incrementAndGet();
+
+        try {
+            ThreadLocalRandom azar = ThreadLocalRandom.current();
+            if (azar.nextDouble() < probMudo) {
+                // Colgado: sin clics ni heartbeats hasta que el servidor lo expulse
+                sesion.silenciar();
+                while (!oyente.perdida && System.nanoTime() < finNanos) {
+                    dormir(500);
+                }
+                return;
+            }
+
+            // Los clics antes de la salida no cuentan
+            dormir(sesion.msHastaSalida());
+            while (!sesion.isCarreraTerminada() && !oyente.perdida && System.nanoTime() < finNanos) {
+                dormir((long) (-Math.log(1 - azar.nextDouble()) * 1000 / clicsPorSegundo));
+                if (azar.nextDouble() < probCaos) {
+                    caidas.incrementAndGet();
+                    return;
+                }
+                if (azar.nextDouble() < probCorte) {
+                    cortes.incrementAndGet();
+                    sesion.cortar();
+                }
+                if (!sesion.enMeta()) {
+                    sesion.avanzar();
+                    clics.incrementAndGet();
+                }
+            }
+        } finally {
+            conectados.decrementAndGet();
+            sesion.cerrar();
+        }
+    }
+
+    // Oyente de una sesión concreta
+    private static final class Sesion implements SesionCarrera.Oyente {
+        final String id;
+        final long[] misEnvios;
+        volatile boolean perdida = false;
+
+        Sesion(String id, long[] misEnvios) {
+            this.id = id;
+            this.misEnvios = misEnvios;
+        }
+
+        @Override
+        public void enviando(EventoCarrera.TipoEvento tipo, int pos) {
+            misEnvios[pos] = System.nanoTime();
+        }
+
+        @Override
+        public void eventoRival(EventoCarrera evento) {
+            recibidos.incrementAndGet();
+            registrarReenvio(evento.idCliente, evento.pos, System.nanoTime());
+        }
+
+        @Override
+        public void instantanea(InstantaneaCarrera instantanea) {
+            recibidos.incrementAndGet();
+            long ahora = System.nanoTime();
+            for (int i = 0; i < instantanea.ids.size(); i++) {
+                String otro = instantanea.ids.get(i);
+                int pos = instantanea.posiciones[i];
+                if (otro.equals(id)) {
+                    // Las completas repiten posiciones: cada clic propio se cuenta una vez
+                    long enviado = misEnvios[pos];
+                    if (enviado != 0) {
+                        idaVuelta.registrar(ahora - enviado);
+                        misEnvios[pos] = 0;
+                    }
+                } else if (!instantanea.completa) {
+                    registrarReenvio(otro, pos, ahora);
+                }
+            }
+        }
+
+        @Override
+        public void clasificacion(ClasificacionParcial clasificacion) {
+            recibidos.incrementAndGet();
+        }
+
+        @Override
+        public void finCarrera(FinCarrera fin) {
+            carreras.incrementAndGet();
+        }
+
+        @Override
+        public void reanudada() {
+            reanudadas.incrementAndGet();
+        }
+
+        @Override
+        public void conexionPerdida(Exception causa) {
+            perdida = true;
+        }
+
+        private static void registrarReenvio(String emisor, int pos, long ahora) {
+            long[] suyos = envios.get(emisor);
+            if (suyos != null && pos >= 0 && pos < suyos.length && suyos[pos] != 0) {
+                latenciaReenvio.registrar(ahora - suyos[pos]);
+            }
+        }
+    }
+
+    private static void dormir(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static String opcion(String[] args, String nombre, String porDefecto) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + nombre + "=")) {
+                return arg.substring(nombre.length() + 3);
+            }
+        }
+        return porDefecto;
+    }
+
+    public static void main(String[] args) {
+        // Miles de sesiones con varios hilos bloqueantes cada una: hilos virtuales salvo que se pida otra cosa
+        args = Configuracion.cargar(args);
+        if (Configuracion.texto("camellos.hilos", null) == null) {
+            Configuracion.fijar("camellos.hilos", "virtuales");
+        }
+
+        int sesiones = Integer.parseInt(opcion(args, "sesiones", "100"));
+        double clicsPorSegundo = Double.parseDouble(opcion(args, "clics", "5"));
+        double rampa = Double.parseDouble(opcion(args, "rampa", "50"));
+        int duracion = Integer.parseInt(opcion(args, "duracion", "30"));
+        double caos = Double.parseDouble(opcion(args, "caos", "0"));
+        double mudos = Double.parseDouble(opcion(args, "mudos", "0"));
+        double cortesPorClic = Double.parseDouble(opcion(args, "cortes", "0"));
+        InetSocketAddress servidor = SesionCarrera.direccion(opcion(args, "servidor",
+                Configuracion.texto("camellos.servidor", SesionCarrera.SERVIDOR_POR_DEFECTO)));
+        String ip = servidor.getHostString();
+        int puerto = servidor.getPort();
+
+        Registro.info("[BOT] {} sesiones contra {}:{}, {} clics/s, rampa {}/s, {} s, caos={} mudos={} cortes={}, hilos {}",
+                sesiones, ip, puerto, clicsPorSegundo, rampa, duracion, caos, mudos, cortesPorClic, Hilos.MODO);
+
+        long inicio = System.nanoTime();
+        long fin = inicio + TimeUnit.SECONDS.toNanos(duracion);
+
+        Hilos.lanzarPlataforma("bot-informe", "bot-informe", () -> informar(inicio, fin));
+
+        for (int i = 0; i < sesiones && System.nanoTime() < fin; i++) {
+            BotCarrera bot = new BotCarrera(i, ip, puerto, clicsPorSegundo, caos, mudos, cortesPorClic, fin);
+            Hilos.lanzar("bot", "bot-" + i, bot::ejecutar);
+            dormir((long) (1000 / rampa));
+        }
+
+        while (System.nanoTime() < fin) {
+            dormir(100);
+        }
+        dormir(500);  // Últimos mensajes en vuelo
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        Registro.info("[BOT] ========================================");
+        Registro.info(String.format("[BOT] %.1f s: %d clics (%.0f/s), %d mensajes recibidos (%.0f/s), %d carreras, %d caídas, %d errores",
+                segundos, clics.get(), clics.get() / segundos, recibidos.get(), recibidos.get() / segundos,
+                carreras.get(), caidas.get(), errores.get()));
+        if (cortes.get() > 0) {
+            Registro.info("[BOT] {} cortes, {} sesiones reanudadas", cortes.get(), reanudadas.get());
+        }
+        Registro.info("[BOT] Unión a grupo:     {}", latenciaUnion.resumen(1_000_000, "ms"));
+        Registro.info("[BOT] Reenvío de PASO:   {}", latenciaReenvio.resumen(1_000, "µs"));
+        if (idaVuelta.total() > 0) {
+            Registro.info("[BOT] Clic→instantánea: {}", idaVuelta.resumen(1_000, "µs"));
+        }
+        Registro.info("[BOT] ========================================");
+        System.exit(0);
+    }
+
+    private static void informar(long inicio, long fin) {
+        long clicsAntes = 0;
+        long recibidosAntes = 0;
+        while (System.nanoTime() < fin) {
+            dormir(5000);
+            long c = clics.get();
+            long r = recibidos.get();
+            Registro.info(String.format("[BOT] t=%ds conectados=%d clics/s=%.0f recibidos/s=%.0f reenvío p99=%.1fms",
+                    (System.nanoTime() - inicio) / 1_000_000_000L, conectados.get(),
+                    (c - clicsAntes) / 5.0, (r - recibidosAntes) / 5.0, latenciaReenvio.percentil(99) / 1e6));
+            clicsAntes = c;
+            recibidosAntes = r;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package cliente;
+
+import comun.Hilos;
+import comun.Registro;
+import protocolos.AsignacionGrupo;
+import protocolos.DatagramaPosicion;
+import protocolos.EventoCarrera;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Plano de datos UDP de una carrera: envía los PASO/CAIDA propios al grupo
+ * multicast de la AsignacionGrupo y entrega los de los rivales. Como cada
+ * datagrama lleva la posición absoluta, basta con aplicar el más reciente de
+ * cada emisor: los atrasados se descartan y los huecos solo se cuentan.
+ */
+class CanalMulticast {
+    private final DatagramChannel canal;
+    private final InetSocketAddress destino;
+    private final int idGrupo;
+    private final String idCliente;
+    private final Consumer<EventoCarrera> alRecibir;
+
+    private final ByteBuffer salida = ByteBuffer.allocate(DatagramaPosicion.TAM_MAX);
+    private final DatagramaPosicion datagramaSalida = new DatagramaPosicion();
+    private int secuencia = 0;
+
+    private final Map<String, Integer> ultimaSecuencia = new HashMap<>();  // Solo la usa el hilo receptor
+    private volatile long huecos = 0;
+    private volatile long desordenados = 0;
+    private volatile boolean cerrado = false;
+
+    CanalMulticast(AsignacionGrupo asignacion, String idCliente, Consumer<EventoCarrera> alRecibir) throws IOException {
+        this.canal = DatagramaPosicion.abrirCanal(asignacion.ipMulticast, asignacion.puerto);
+        this.destino = new InetSocketAddress(asignacion.ipMulticast, asignacion.puerto);
+        this.idGrupo = asignacion.idGrupo;
+        this.idCliente = idCliente;
+        this.alRecibir = alRecibir;
+
+        datagramaSalida.idGrupo = idGrupo;
+        datagramaSalida.idCliente = idCliente;
+
+        Hilos.lanzar("receptor-multicast", "multicast-" + idCliente, this::recibir);
+        Registro.info("[CLIENTE MC] Unido a {}", destino);
+    }
+
+    synchronized void enviar(EventoCarrera.TipoEvento tipo, long tMarca, int pos) throws IOException {
+        datagramaSalida.secuencia = ++secuencia;
+        datagramaSalida.tipo = tipo;
+        datagramaSalida.tMarca = tMarca;
+        datagramaSalida.pos = pos;
+
+        salida.clear();
+        datagramaSalida.escribir(salida);
+        salida.flip();
+        canal.send(salida, destino);
+    }
+
+    private void recibir() {
+        ByteBuffer entrada = ByteBuffer.allocate(DatagramaPosicion.TAM_MAX);
+        DatagramaPosicion d = new DatagramaPosicion();
+
+        while (!cerrado) {
+            try {
+                entrada.clear();
+                canal.receive(entrada);
+                entrada.flip();
+                d.leer(entrada);
+
+                if (d.idGrupo != idGrupo || idCliente.equals(d.idCliente)) continue;
+
+                Integer anterior = ultimaSecuencia.get(d.idCliente);
+                if (anterior != null) {
+                    if (d.secuencia <= anterior) {
+                        desordenados++;
+                        continue;
+                    }
+                    if (d.secuencia > anterior + 1) {
+                        huecos += d.secuencia - anterior - 1;
+                        Registro.aviso("[CLIENTE MC] Hueco de {} datagramas de '{}' (total {})",
+                                d.secuencia - anterior - 1, d.idCliente, huecos);
+                    }
+                }
+                ultimaSecuencia.put(d.idCliente, d.secuencia);
+
+                alRecibir.accept(new EventoCarrera(d.tipo, d.idCliente, d.tMarca, d.pos));
+            } catch (IOException e) {
+                if (!cerrado) {
+                    Registro.error("[CLIENTE MC ERROR] {}", e.getMessage());
+                }
+            }
+        }
+    }
+
+    long getHuecos() {
+        return huecos;
+    }
+
+    long getDesordenados() {
+        return desordenados;
+    }
+
+    void cerrar() {
+        cerrado = true;
+        try {
+            canal.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
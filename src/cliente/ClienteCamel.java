@@ -1,43 +1,43 @@
 package cliente;
 
+import comun.Clasificacion;
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Registro;
 import protocolos.*;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.io.*;
-import java.net.*;
+import java.net.InetSocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class ClienteCamel extends JFrame {
+public class ClienteCamel extends JFrame implements SesionCarrera.Oyente {
     private String idCliente;
-    private int idGrupo;
-    private Socket socketServidor;
-    private ObjectOutputStream oosServidor;
-    private ObjectInputStream oisServidor;
+    private final SesionCarrera sesion;  // Toda la parte de red
 
-    private int miPosicion = 0;
-    private final int META = 650;
-    private boolean carreraTerminada = false;
+    private final int META = SesionCarrera.META;
 
-    private JPanel panelPista;
+    private PanelPista panelPista;
     private JButton btnAvanzar;
     private JLabel lblPosicion;
     private JLabel lblEstado;
-
-    private final int numeroJugadores = 4;
-    private ConcurrentHashMap<String, Integer> posiciones;
-    private LinkedHashMap<String, Integer> carriles;  // Carriles secuenciales
+    private JLabel lblCabeza;
+
+    // Carriles secuenciales: el mío es el 0 y los rivales por orden de aparición
+    private final Map<String, Integer> carriles = new ConcurrentHashMap<>();
+    private volatile String[] nombres;              // Id por carril
+    private volatile Clasificacion clasificacion;   // Posición por carril y puesto en vivo
+    private volatile Interpolador interpolador;     // Por dónde pintar a los rivales
+    private volatile ClasificacionParcial ultimaParcial;  // La del servidor, si la envía; manda sobre la local
     private Image camelImage;
 
-    private static final Color COLOR_CALLE = new Color(204, 153, 102);
-    private static final Color COLOR_LINEA_FIN = Color.BLACK;
-
     public ClienteCamel(String idCliente) {
         this.idCliente = idCliente;
-        posiciones = new ConcurrentHashMap<>();
-        carriles = new LinkedHashMap<>();  // Mantiene orden de inserción
+        this.sesion = new SesionCarrera(idCliente, this, true);
+        asignarCarriles(1);  // Hasta la asignación solo está mi camello
         cargarImagen();
         initGUI();
     }
@@ -46,7 +46,7 @@ public class ClienteCamel extends JFrame {
         try {
             camelImage = ImageIO.read(new File("camel.png"));
         } catch (IOException e) {
-            System.out.println("[CLIENTE] No se pudo cargar camel.png");
+            Registro.aviso("[CLIENTE] No se pudo cargar camel.png");
             camelImage = null;
         }
     }
@@ -57,68 +57,21 @@ public class ClienteCamel extends JFrame {
         setDefaultCloseOperation(EXIT_ON_CLOSE);
         setLayout(new BorderLayout());
 
-        JPanel panelInfo = new JPanel(new GridLayout(2, 1));
+        JPanel panelInfo = new JPanel(new GridLayout(3, 1));
         lblEstado = new JLabel("Estado: Esperando conexión...", SwingConstants.CENTER);
         lblPosicion = new JLabel("Tu posición: 0 / " + META, SwingConstants.CENTER);
         lblEstado.setFont(new Font("Arial", Font.BOLD, 14));
         lblPosicion.setFont(new Font("Arial", Font.PLAIN, 12));
+        lblCabeza = new JLabel(" ", SwingConstants.CENTER);
+        lblCabeza.setFont(new Font("Arial", Font.PLAIN, 12));
         panelInfo.add(lblEstado);
         panelInfo.add(lblPosicion);
+        panelInfo.add(lblCabeza);
         add(panelInfo, BorderLayout.NORTH);
 
-        panelPista = new JPanel() {
-            @Override
-            protected void paintComponent(Graphics g) {
-                super.paintComponent(g);
-                int yEspacio = 60;
-                int padding = 20;
-                int pistaAlto = yEspacio - 10;
-                int anchoFinish = 5;
-                int finishX = META + 50;
-
-                g.setColor(COLOR_CALLE);
-                g.fillRect(0, padding/2, getWidth(), getHeight());
-
-                // Dibujar carriles
-                for (int i = 0; i < numeroJugadores; i++) {
-                    int y = padding + i * yEspacio;
-                    g.setColor(new Color(200, 180, 150));
-                    g.fillRect(0, y - 5, getWidth(), pistaAlto);
-                    g.setColor(Color.DARK_GRAY);
-                    g.drawLine(0, y + pistaAlto/2, getWidth(), y + pistaAlto/2);
-                }
-
-                // Línea de meta
-                g.setColor(COLOR_LINEA_FIN);
-                g.fillRect(finishX, padding/2, anchoFinish, numeroJugadores * yEspacio);
-
-                // Dibujar todos los camellos
-                for (Map.Entry<String, Integer> p : posiciones.entrySet()) {
-                    String nombre = p.getKey();
-                    int pos = p.getValue();
-                    Integer carril = carriles.get(nombre);
-
-                    if (carril == null) carril = 0;
-
-                    int y = padding + carril * yEspacio;
-                    int x = pos;
-
-                    if (camelImage != null) {
-                        g.drawImage(camelImage, x, y, 50, 40, this);
-                    } else {
-                        g.setColor(Color.RED);
-                        g.fillOval(x, y + 10, 40, 20);
-                    }
-
-                    g.setColor(Color.BLACK);
-                    g.setFont(new Font("Arial", Font.BOLD, 12));
-                    g.drawString(nombre, x, y + 9);
-                }
-            }
-        };
-
-        panelPista.setPreferredSize(new Dimension(700, 300));
-        panelPista.setBackground(Color.WHITE);
+        // Se repinta a ritmo fijo y solo donde se mueve algo; el texto de posición va al mismo ritmo
+        panelPista = new PanelPista(camelImage, META, sesion.getReloj(), this::actualizarPosicion);
+        panelPista.mostrar(nombres, clasificacion, interpolador);
         add(panelPista, BorderLayout.CENTER);
 
         JPanel panelControl = new JPanel();
@@ -135,130 +88,164 @@ public class ClienteCamel extends JFrame {
     public void conectarServidor(String ipServidor, int puertoServidor) {
         try {
             lblEstado.setText("Estado: Conectando...");
-            System.out.println("[CLIENTE] Conectando a " + ipServidor + ":" + puertoServidor);
 
-            socketServidor = new Socket(ipServidor, puertoServidor);
-            oosServidor = new ObjectOutputStream(socketServidor.getOutputStream());
-            oosServidor.flush();
-            oisServidor = new ObjectInputStream(socketServidor.getInputStream());
+            AsignacionGrupo asignacion = sesion.conectar(ipServidor, puertoServidor);
 
-            SolicitudConexion solicitud = new SolicitudConexion(idCliente);
-            oosServidor.writeObject(solicitud);
-            oosServidor.flush();
+            SwingUtilities.invokeLater(() -> cuentaAtras(asignacion.idGrupo));
 
-            AsignacionGrupo asignacion = (AsignacionGrupo) oisServidor.readObject();
-            this.idGrupo = asignacion.idGrupo;
-
-            System.out.println("[CLIENTE] Asignado a grupo " + idGrupo);
+        } catch (Exception e) {
+            e.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Error: " + e.getMessage());
+        }
+    }
 
-            posiciones.put(idCliente, 0);
-            carriles.put(idCliente, 0);  // Mi camello siempre es el primero en llegar
+    // En el hilo de Swing: "Salida en N..." hasta la hora de salida del servidor, y entonces el botón
+    private void cuentaAtras(int idGrupo) {
+        long falta = sesion.msHastaSalida();
+        if (falta <= 0) {
+            lblEstado.setText("En carrera - Grupo " + idGrupo);
+            if (!sesion.isCarreraTerminada()) btnAvanzar.setEnabled(true);
+            return;
+        }
+        lblEstado.setText("Grupo " + idGrupo + " - Salida en " + (falta + 999) / 1000 + "...");
+        // Se despierta en el siguiente cambio de segundo
+        javax.swing.Timer siguiente = new javax.swing.Timer((int) ((falta - 1) % 1000) + 1, e -> cuentaAtras(idGrupo));
+        siguiente.setRepeats(false);
+        siguiente.start();
+    }
 
-            // Thread heartbeat
-            iniciarHeartbeat();
+    @Override
+    public void asignado(AsignacionGrupo asignacion) {
+        asignarCarriles(asignacion.tamGrupo);
+    }
 
-            // Thread receptor
-            iniciarReceptor();
+    private void asignarCarriles(int tamGrupo) {
+        String[] nuevos = new String[Math.max(1, tamGrupo)];
+        nuevos[0] = idCliente;  // Mi camello siempre es el primero en llegar
+        carriles.clear();
+        carriles.put(idCliente, 0);
+        clasificacion = new Clasificacion(nuevos.length);
+        // Todos parten de la salida ahora, para que el primer paso de cada uno también se interpole
+        Interpolador nuevo = new Interpolador(nuevos.length);
+        long ahora = sesion.getReloj().ahora();
+        for (int carril = 0; carril < nuevos.length; carril++) nuevo.anotar(carril, ahora, 0);
+        interpolador = nuevo;
+        nombres = nuevos;
+        if (panelPista != null) panelPista.mostrar(nuevos, clasificacion, nuevo);
+    }
 
-            lblEstado.setText("En carrera - Grupo " + idGrupo);
-            btnAvanzar.setEnabled(true);
+    // Carril del camello; a uno nuevo se le asigna el siguiente libre (-1 si el grupo ya está lleno)
+    private int carril(String id) {
+        Integer carril = carriles.get(id);
+        if (carril != null) return carril;
+        int nuevoCarril = carriles.size();
+        if (nuevoCarril >= nombres.length) return -1;
+        carriles.put(id, nuevoCarril);
+        nombres[nuevoCarril] = id;
+        panelPista.carrilAsignado();
+        Registro.info("[CLIENTE] Carril asignado a '{}': {}", id, nuevoCarril);
+        return nuevoCarril;
+    }
 
-            SwingUtilities.invokeLater(this::repaint);
+    @Override
+    public void eventoRival(EventoCarrera evento) {
+        int carril = carril(evento.idCliente);
+        if (carril < 0) return;
+        clasificacion.fijar(carril, evento.pos);
+        // Un tMarca del futuro solo puede ser un reloj mal estimado en el emisor: se toma como recién ocurrido
+        interpolador.anotar(carril, Math.min(evento.tMarca, sesion.getReloj().ahora()), evento.pos);
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
-            JOptionPane.showMessageDialog(this, "Error: " + e.getMessage());
+    @Override
+    public void instantanea(InstantaneaCarrera instantanea) {
+        long ahora = sesion.getReloj().ahora();
+        for (int i = 0; i < instantanea.ids.size(); i++) {
+            String id = instantanea.ids.get(i);
+            if (id.equals(idCliente)) continue;
+
+            int carril = carril(id);
+            if (carril >= 0) {
+                clasificacion.fijar(carril, instantanea.posiciones[i]);
+                // Las instantáneas no llevan hora: cuentan desde que llegan
+                interpolador.anotar(carril, ahora, instantanea.posiciones[i]);
+            }
+        }
+        // La propia la rebasa la sesión sobre la del servidor
+        clasificacion.fijar(0, sesion.getMiPosicion());
+        if (sesion.enMeta()) {
+            SwingUtilities.invokeLater(() -> {
+                btnAvanzar.setEnabled(false);
+                lblEstado.setText("¡HAS LLEGADO A LA META!");
+            });
         }
     }
 
-    private void iniciarHeartbeat() {
-        new Thread(() -> {
-            while (!carreraTerminada) {
-                try {
-                    Heartbeat hb = new Heartbeat(idCliente, System.currentTimeMillis());
-                    oosServidor.writeObject(hb);
-                    oosServidor.flush();
-                    Thread.sleep(3000);
-                } catch (Exception e) {
-                    if (!carreraTerminada) {
-                        System.err.println("[CLIENTE HB ERROR] " + e.getMessage());
-                    }
-                    break;
-                }
+    @Override
+    public void clasificacion(ClasificacionParcial parcial) {
+        ultimaParcial = parcial;
+        SwingUtilities.invokeLater(() -> {
+            StringBuilder cabeza = new StringBuilder("Cabeza:");
+            for (int i = 0; i < parcial.primeros.size(); i++) {
+                cabeza.append(i == 0 ? " " : " · ").append(i + 1).append("º ")
+                        .append(parcial.primeros.get(i)).append(" (").append(parcial.posiciones[i]).append(")");
             }
-        }).start();
+            lblCabeza.setText(cabeza.toString());
+            actualizarPosicion();
+        });
     }
 
-    private void iniciarReceptor() {
-        new Thread(() -> {
-            while (!carreraTerminada) {
-                try {
-                    Object obj = oisServidor.readObject();
-
-                    if (obj instanceof EventoCarrera) {
-                        EventoCarrera evento = (EventoCarrera) obj;
-                        System.out.println("[CLIENTE RX] Evento de '" + evento.idCliente + "' pos=" + evento.pos);
-
-                        posiciones.put(evento.idCliente, evento.pos);
+    @Override
+    public void jugadorDesconectado(String id) {
+        Integer carril = carriles.get(id);
+        if (carril != null) panelPista.desconectado(carril);
+    }
 
-                        // Si es un nuevo camello, asignarle el siguiente carril disponible
-                        if (!carriles.containsKey(evento.idCliente)) {
-                            int nuevoCarril = carriles.size();
-                            carriles.put(evento.idCliente, nuevoCarril);
-                            System.out.println("[CLIENTE] Carril asignado a '" + evento.idCliente + "': " + nuevoCarril);
-                        }
+    @Override
+    public void jugadorReconectado(String id) {
+        Integer carril = carriles.get(id);
+        if (carril != null) panelPista.reconectado(carril);
+    }
 
-                        SwingUtilities.invokeLater(this::repaint);
+    @Override
+    public void reconectando() {
+        SwingUtilities.invokeLater(() -> {
+            btnAvanzar.setEnabled(false);
+            lblEstado.setText("Conexión perdida - Reconectando...");
+        });
+    }
 
-                    } else if (obj instanceof FinCarrera) {
-                        carreraTerminada = true;
-                        FinCarrera fin = (FinCarrera) obj;
-                        SwingUtilities.invokeLater(() -> mostrarPodio(fin));
-                    }
+    @Override
+    public void reanudada() {
+        SwingUtilities.invokeLater(() -> cuentaAtras(sesion.getIdGrupo()));
+    }
 
-                } catch (EOFException e) {
-                    System.err.println("[CLIENTE] Servidor cerró conexión");
-                    break;
-                } catch (Exception e) {
-                    if (!carreraTerminada) {
-                        System.err.println("[CLIENTE RX ERROR] " + e.getMessage());
-                    }
-                    break;
-                }
-            }
-        }).start();
+    @Override
+    public void finCarrera(FinCarrera fin) {
+        SwingUtilities.invokeLater(() -> mostrarPodio(fin));
     }
 
     private void avanzarCamello() {
-        if (carreraTerminada) return;
+        if (sesion.isCarreraTerminada()) return;
 
-        Random r = new Random();
-        int pasos = r.nextInt(3) + 1;
-        miPosicion += pasos * 20;
+        int miPosicion = sesion.avanzar();
 
-        if (miPosicion >= META) {
-            miPosicion = META;
-            enviarEvento(EventoCarrera.TipoEvento.META, miPosicion);
+        if (sesion.enMeta()) {
             btnAvanzar.setEnabled(false);
             lblEstado.setText("¡HAS LLEGADO A LA META!");
-        } else {
-            enviarEvento(EventoCarrera.TipoEvento.PASO, miPosicion);
         }
 
-        posiciones.put(idCliente, miPosicion);
-        lblPosicion.setText("Tu posición: " + miPosicion + " / " + META);
-        SwingUtilities.invokeLater(this::repaint);
+        clasificacion.fijar(0, miPosicion);
+        actualizarPosicion();
     }
 
-    private void enviarEvento(EventoCarrera.TipoEvento tipo, int pos) {
-        try {
-            EventoCarrera evento = new EventoCarrera(tipo, idCliente, System.currentTimeMillis(), pos);
-            oosServidor.writeObject(evento);
-            oosServidor.flush();
-            System.out.println("[CLIENTE TX] Evento " + tipo + " pos=" + pos);
-        } catch (Exception e) {
-            System.err.println("[CLIENTE TX ERROR] " + e.getMessage());
-        }
+    // En el hilo de Swing: mi posición y puesto actuales
+    private void actualizarPosicion() {
+        Clasificacion clasificacion = this.clasificacion;
+        ClasificacionParcial parcial = ultimaParcial;
+        int puesto = parcial != null ? parcial.puesto : clasificacion.puesto(0);
+        int participantes = parcial != null ? parcial.participantes : carriles.size();
+        lblPosicion.setText("Tu posición: " + clasificacion.posicion(0) + " / " + META
+                + " (" + puesto + "º de " + participantes + ")");
     }
 
     private void mostrarPodio(FinCarrera fin) {
@@ -423,14 +410,16 @@ public class ClienteCamel extends JFrame {
 
 
     public static void main(String[] args) {
+        // java cliente.ClienteCamel [host:puerto] [--config=ruta] [--clave=valor...]; si no, camellos.servidor
+        String[] resto = Configuracion.cargar(args);
+        InetSocketAddress servidor = SesionCarrera.direccion(resto.length > 0 ? resto[0]
+                : Configuracion.texto("camellos.servidor", SesionCarrera.SERVIDOR_POR_DEFECTO));
         SwingUtilities.invokeLater(() -> {
             String id = JOptionPane.showInputDialog("Ingrese su ID:");
             if (id == null || id.trim().isEmpty()) System.exit(0);
             ClienteCamel cliente = new ClienteCamel(id.trim());
             cliente.setVisible(true);
-            new Thread(() -> {
-                cliente.conectarServidor("localhost", 5000);
-            }).start();
+            Hilos.lanzar("conexion", null, () -> cliente.conectarServidor(servidor.getHostString(), servidor.getPort()));
         });
     }
 }
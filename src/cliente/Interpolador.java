@@ -0,0 +1,82 @@
+package cliente;
+
+import comun.Configuracion;
+
+/**
+ * Posiciones de los rivales para pintar, con RETARDO ms de retraso sobre
+ * sus tMarca (hora del servidor): a esa hora casi siempre ya han llegado el
+ * evento anterior y el siguiente, y el camello se mueve en línea recta entre
+ * ambos en vez de saltar cuando llega cada uno. Un retraso mayor que el
+ * jitter de la red lo oculta entero; si se acaban los eventos, el camello se
+ * queda en el último.
+ *
+ * Por carril guarda las últimas MUESTRAS en un anillo; los que llegan
+ * desordenados (más viejos que el último) se descartan. Escriben los hilos de
+ * red y lee el de Swing.
+ */
+public class Interpolador {
+    public static final long RETARDO = Configuracion.largo("camellos.interpolacion.ms", 100);
+    private static final int MUESTRAS = 16;
+
+    private final long[][] instantes;
+    private final int[][] posiciones;
+    private final int[] cuentas;  // Muestras anotadas por carril; la última está en (cuenta - 1) % MUESTRAS
+
+    public Interpolador(int carriles) {
+        instantes = new long[carriles][MUESTRAS];
+        posiciones = new int[carriles][MUESTRAS];
+        cuentas = new int[carriles];
+    }
+
+    public int carriles() {
+        return cuentas.length;
+    }
+
+    /** Posición del carril en el instante dado (hora del servidor). */
+    public synchronized void anotar(int carril, long instante, int pos) {
+        int n = cuentas[carril];
+        if (n > 0 && instante < instantes[carril][(n - 1) % MUESTRAS]) return;
+        int i = n % MUESTRAS;
+        instantes[carril][i] = instante;
+        posiciones[carril][i] = pos;
+        cuentas[carril] = n + 1;
+    }
+
+    /**
+     * Posición a pintar para el carril cuando en el servidor es ahora; sin
+     * muestras devuelve porDefecto.
+     */
+    public synchronized int posicion(int carril, long ahora, int porDefecto) {
+        int n = cuentas[carril];
+        if (n == 0) return porDefecto;
+        long t = ahora - RETARDO;
+        long[] ts = instantes[carril];
+        int[] ps = posiciones[carril];
+
+        int ultima = (n - 1) % MUESTRAS;
+        if (t >= ts[ultima]) return ps[ultima];
+        // De la más nueva hacia atrás hasta la primera anterior a t
+        int disponibles = Math.min(n, MUESTRAS);
+        int siguiente = ultima;
+        for (int k = 1; k < disponibles; k++) {
+            int i = (ultima - k + MUESTRAS) % MUESTRAS;
+            if (ts[i] <= t) {
+                long tramo = ts[siguiente] - ts[i];
+                if (tramo <= 0) return ps[siguiente];
+                return ps[i] + (int) ((ps[siguiente] - ps[i]) * (t - ts[i]) / tramo);
+            }
+            siguiente = i;
+        }
+        return ps[siguiente];  // t es anterior a todo lo guardado
+    }
+
+    /** Algún carril aún no ha alcanzado su última muestra: hay que seguir pintando. */
+    public synchronized boolean enMovimiento(long ahora) {
+        long t = ahora - RETARDO;
+        for (int carril = 0; carril < cuentas.length; carril++) {
+            int n = cuentas[carril];
+            if (n > 0 && t < instantes[carril][(n - 1) % MUESTRAS]) return true;
+        }
+        return false;
+    }
+}
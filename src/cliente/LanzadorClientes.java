@@ -1,19 +1,27 @@
 package cliente;
 
+import comun.Configuracion;
+import comun.Hilos;
+
+import java.net.InetSocketAddress;
+
 
 public class LanzadorClientes {
     public static void main(String[] args) {
-        String servidorIp = "localhost";
-        int puertoServidor = 5000;
+        Configuracion.cargar(args);
+        InetSocketAddress servidor = SesionCarrera.direccion(
+                Configuracion.texto("camellos.servidor", SesionCarrera.SERVIDOR_POR_DEFECTO));
+        String servidorIp = servidor.getHostString();
+        int puertoServidor = servidor.getPort();
 
         // Crear 4 clientes con IDs Jugador1 a Jugador4
         for (int i = 1; i <= 2; i++) {
             String idCliente = "Jugador" + i;
-            new Thread(() -> {
+            Hilos.lanzar("lanzador", "lanzador-" + idCliente, () -> {
                 ClienteCamel cliente = new ClienteCamel(idCliente);
                 cliente.setVisible(true);
                 cliente.conectarServidor(servidorIp, puertoServidor);
-            }).start();
+            });
 
             // Pequeña pausa para evitar conflicto de GUI al iniciar casi simultáneamente
             try { Thread.sleep(500); } catch (InterruptedException e) {}
@@ -0,0 +1,262 @@
+package cliente;
+
+import comun.Clasificacion;
+import comun.Configuracion;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Pista de la carrera. Lo que no se mueve (calle, carriles, línea de meta)
+ * se dibuja una vez en una imagen compatible con la pantalla y se rehace
+ * solo si cambia el tamaño; el camello se escala una vez al cargarlo.
+ *
+ * Los hilos de red solo actualizan la Clasificacion: un Timer de Swing a
+ * FPS fotogramas por segundo compara las posiciones con las pintadas y pide
+ * repintar únicamente los rectángulos de los camellos que se han movido, así
+ * que una ráfaga de eventos cuesta como mucho un repintado por fotograma.
+ * Los rivales se pintan donde diga el Interpolador; el camello propio, en
+ * su posición predicha, sin retraso.
+ */
+class PanelPista extends JPanel {
+    static final int FPS = Configuracion.entero("camellos.fps", 60);
+
+    private static final int Y_ESPACIO = 60;
+    private static final int PADDING = 20;
+    private static final int PISTA_ALTO = Y_ESPACIO - 10;
+    private static final int ANCHO_META = 5;
+    private static final int ANCHO_CAMELLO = 50;
+    private static final int ALTO_CAMELLO = 40;
+    private static final int MIN_CARRILES = 4;
+
+    private static final Color COLOR_CALLE = new Color(204, 153, 102);
+    private static final Color COLOR_CARRIL = new Color(200, 180, 150);
+    private static final Color COLOR_LINEA_FIN = Color.BLACK;
+    private static final Font FUENTE_NOMBRE = new Font("Arial", Font.BOLD, 12);
+
+    private final int meta;
+    private final BufferedImage sprite;
+    private final Timer fotogramas;
+    private final Runnable alCambiar;  // En el hilo de Swing, tras detectar movimiento
+    private final RelojServidor reloj;
+
+    private BufferedImage fondo;
+
+    // Lo que escriben los hilos de red
+    private volatile String[] nombres = new String[0];
+    private volatile Clasificacion clasificacion;
+    private volatile Interpolador interpolador;  // null: se pinta la posición tal cual
+    private volatile boolean[] desconectados = new boolean[0];
+    private volatile boolean sucio = true;  // Nombres o desconexiones cambiados
+
+    // Lo pintado, solo en el hilo de Swing
+    private String[] nombresPintados = new String[0];
+    private boolean[] desconectadosPintados = new boolean[0];
+    private int[] posicionesPintadas = new int[0];
+    private int[] posiciones = new int[0];
+    private int[] orden = new int[0];
+    private int cambiosPintados = -1;
+
+    PanelPista(Image camello, int meta, RelojServidor reloj, Runnable alCambiar) {
+        this.meta = meta;
+        this.reloj = reloj;
+        this.alCambiar = alCambiar;
+        this.sprite = escalar(camello);
+        this.fotogramas = new Timer(1000 / FPS, e -> fotograma());
+        this.fotogramas.setCoalesce(true);
+        setPreferredSize(new Dimension(700, 300));
+        setBackground(Color.WHITE);
+        setOpaque(true);
+    }
+
+    /** Camellos a dibujar: id por carril (null si no hay), su clasificación y cómo suavizar a los rivales. */
+    void mostrar(String[] nombres, Clasificacion clasificacion, Interpolador interpolador) {
+        this.clasificacion = clasificacion;
+        this.interpolador = interpolador;
+        this.desconectados = new boolean[nombres.length];
+        this.nombres = nombres;
+        sucio = true;
+    }
+
+    /** El carril ha cambiado de nombre (un rival nuevo): se vuelve a pintar en el siguiente fotograma. */
+    void carrilAsignado() {
+        sucio = true;
+    }
+
+    void desconectado(int carril) {
+        marcarDesconectado(carril, true);
+    }
+
+    void reconectado(int carril) {
+        marcarDesconectado(carril, false);
+    }
+
+    private void marcarDesconectado(int carril, boolean desconectado) {
+        boolean[] d = desconectados;
+        if (carril >= 0 && carril < d.length) {
+            d[carril] = desconectado;
+            sucio = true;
+        }
+    }
+
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        fotogramas.start();
+    }
+
+    @Override
+    public void removeNotify() {
+        fotogramas.stop();
+        super.removeNotify();
+    }
+
+    private static BufferedImage escalar(Image camello) {
+        BufferedImage img = new BufferedImage(ANCHO_CAMELLO, ALTO_CAMELLO, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        if (camello != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(camello, 0, 0, ANCHO_CAMELLO, ALTO_CAMELLO, null);
+        } else {
+            g.setColor(Color.RED);
+            g.fillOval(0, 10, 40, 20);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private int carrilesVisibles() {
+        return Math.max(MIN_CARRILES, nombres.length);
+    }
+
+    // Calle, carriles y meta en una imagen del tamaño actual del panel
+    private BufferedImage fondo() {
+        int ancho = Math.max(1, getWidth()), alto = Math.max(1, getHeight());
+        if (fondo != null && fondo.getWidth() == ancho && fondo.getHeight() == alto) return fondo;
+
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        fondo = gc != null ? gc.createCompatibleImage(ancho, alto)
+                : new BufferedImage(ancho, alto, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = fondo.createGraphics();
+        g.setColor(getBackground());
+        g.fillRect(0, 0, ancho, alto);
+        g.setColor(COLOR_CALLE);
+        g.fillRect(0, PADDING / 2, ancho, alto);
+
+        int carriles = carrilesVisibles();
+        for (int i = 0; i < carriles; i++) {
+            int y = PADDING + i * Y_ESPACIO;
+            g.setColor(COLOR_CARRIL);
+            g.fillRect(0, y - 5, ancho, PISTA_ALTO);
+            g.setColor(Color.DARK_GRAY);
+            g.drawLine(0, y + PISTA_ALTO / 2, ancho, y + PISTA_ALTO / 2);
+        }
+
+        g.setColor(COLOR_LINEA_FIN);
+        g.fillRect(meta + 50, PADDING / 2, ANCHO_META, carriles * Y_ESPACIO);
+        g.dispose();
+        return fondo;
+    }
+
+    // Zona que ocupa el camello del carril en x: sprite y nombre encima
+    private Rectangle zona(int carril, int x, String nombre, boolean desconectado) {
+        FontMetrics fm = getFontMetrics(FUENTE_NOMBRE);
+        int anchoTexto = nombre == null ? 0 : fm.stringWidth(etiqueta(nombre, desconectado));
+        int y = PADDING + carril * Y_ESPACIO;
+        int arriba = y + 9 - fm.getAscent();
+        return new Rectangle(x, arriba, Math.max(ANCHO_CAMELLO, anchoTexto) + 1, y + ALTO_CAMELLO - arriba + 1);
+    }
+
+    private static String etiqueta(String nombre, boolean desconectado) {
+        return desconectado ? nombre + " (desconectado)" : nombre;
+    }
+
+    // En el hilo de Swing, FPS veces por segundo
+    private void fotograma() {
+        String[] n = nombres;
+        Clasificacion c = clasificacion;
+        Interpolador interp = interpolador;
+        // mostrar() a medias: el siguiente fotograma lo verá completo
+        if (c == null || c.carriles() != n.length || (interp != null && interp.carriles() != n.length)) return;
+        boolean cambioCarriles = sucio;
+        int cambios = c.cambios();
+        long ahora = reloj.ahora();
+        boolean moviendo = interp != null && interp.enMovimiento(ahora);
+        if (!cambioCarriles && cambios == cambiosPintados && !moviendo) return;
+        sucio = false;
+        cambiosPintados = cambios;
+
+        if (n.length != nombresPintados.length) {
+            // Grupo nuevo: otro número de carriles, se repinta todo
+            nombresPintados = new String[n.length];
+            desconectadosPintados = new boolean[n.length];
+            posicionesPintadas = new int[n.length];
+            posiciones = new int[n.length];
+            orden = new int[n.length];
+            fondo = null;
+            copiarPosiciones(c, interp, ahora);
+            actualizarPintado(n);
+            repaint();
+            alCambiar.run();
+            return;
+        }
+
+        copiarPosiciones(c, interp, ahora);
+        boolean[] d = desconectados;
+        for (int carril = 0; carril < n.length; carril++) {
+            boolean desc = carril < d.length && d[carril];
+            if (posiciones[carril] == posicionesPintadas[carril] && n[carril] == nombresPintados[carril]
+                    && desc == desconectadosPintados[carril]) {
+                continue;
+            }
+            Rectangle sucia = zona(carril, posicionesPintadas[carril], nombresPintados[carril], desconectadosPintados[carril]);
+            sucia.add(zona(carril, posiciones[carril], n[carril], desc));
+            repaint(sucia);
+        }
+        actualizarPintado(n);
+        alCambiar.run();
+    }
+
+    // Carril 0 (el propio) tal cual; el resto, interpolado
+    private void copiarPosiciones(Clasificacion c, Interpolador interp, long ahora) {
+        c.copiar(orden, posiciones);
+        if (interp == null) return;
+        for (int carril = 1; carril < posiciones.length; carril++) {
+            posiciones[carril] = interp.posicion(carril, ahora, posiciones[carril]);
+        }
+    }
+
+    private void actualizarPintado(String[] n) {
+        boolean[] d = desconectados;
+        for (int carril = 0; carril < n.length; carril++) {
+            nombresPintados[carril] = n[carril];
+            desconectadosPintados[carril] = carril < d.length && d[carril];
+            posicionesPintadas[carril] = posiciones[carril];
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        BufferedImage f = fondo();
+        g.drawImage(f, clip.x, clip.y, clip.x + clip.width, clip.y + clip.height,
+                clip.x, clip.y, clip.x + clip.width, clip.y + clip.height, null);
+
+        // Solo lo ya detectado por el fotograma, para que la zona sucia y lo pintado coincidan
+        g.setFont(FUENTE_NOMBRE);
+        for (int carril = 0; carril < nombresPintados.length; carril++) {
+            String nombre = nombresPintados[carril];
+            if (nombre == null) continue;
+            int x = posicionesPintadas[carril];
+            boolean desc = desconectadosPintados[carril];
+            if (!clip.intersects(zona(carril, x, nombre, desc))) continue;
+
+            int y = PADDING + carril * Y_ESPACIO;
+            g.drawImage(sprite, x, y, null);
+            g.setColor(desc ? Color.GRAY : Color.BLACK);
+            g.drawString(etiqueta(nombre, desc), x, y + 9);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cliente;
+
+/**
+ * Desfase entre el reloj local y el del servidor, estimado con los ecos de
+ * Heartbeat: la ida y vuelta se mide con nanoTime (el pulso lleva el de
+ * salida y el eco lo devuelve) y el servidor puso su hora ts a mitad de
+ * camino, así que iba ts - (ahora - idaVuelta / 2) por delante, con un error
+ * de como mucho la mitad de la ida y vuelta. De las últimas MUESTRAS se usa
+ * la de menor ida y vuelta, que es la que menos cola ha sufrido.
+ *
+ * Con él los tMarca se envían en hora del servidor y los de otras máquinas se
+ * pueden comparar con la propia.
+ */
+public class RelojServidor {
+    private static final int MUESTRAS = 8;
+
+    private final long[] desfases = new long[MUESTRAS];
+    private final long[] idasVueltas = new long[MUESTRAS];
+    private int muestras;
+
+    private volatile long desfase;    // ms que el servidor va por delante
+    private volatile long idaVuelta = -1;  // ns, de la muestra elegida; -1 sin muestras
+
+    /**
+     * Eco recibido: t0 y t3 son nanoTime de salida y llegada, ts la hora del
+     * servidor en ms y ahora la hora local en ms al llegar.
+     */
+    public synchronized void muestra(long t0, long t3, long ts, long ahora) {
+        long rtt = t3 - t0;
+        if (rtt < 0) return;
+        int i = muestras++ % MUESTRAS;
+        desfases[i] = ts - (ahora - rtt / 2_000_000);
+        idasVueltas[i] = rtt;
+
+        int mejor = 0;
+        int n = Math.min(muestras, MUESTRAS);
+        for (int j = 1; j < n; j++) {
+            if (idasVueltas[j] < idasVueltas[mejor]) mejor = j;
+        }
+        desfase = desfases[mejor];
+        idaVuelta = idasVueltas[mejor];
+    }
+
+    public boolean sincronizado() {
+        return idaVuelta >= 0;
+    }
+
+    public long desfase() {
+        return desfase;
+    }
+
+    /** Ida y vuelta en ns de la muestra que da el desfase; -1 si aún no hay. */
+    public long idaVuelta() {
+        return idaVuelta;
+    }
+
+    public long aServidor(long local) {
+        return local + desfase;
+    }
+
+    public long aLocal(long servidor) {
+        return servidor - desfase;
+    }
+
+    /** Hora actual del servidor según la estimación. */
+    public long ahora() {
+        return System.currentTimeMillis() + desfase;
+    }
+}
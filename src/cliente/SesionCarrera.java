@@ -0,0 +1,516 @@
+package cliente;
+
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Registro;
+import protocolos.*;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sesión de un jugador con el servidor, sin nada de Swing: conexión,
+ * heartbeat, recepción y envío de eventos. ClienteCamel la pinta y BotCarrera
+ * la usa para generar carga. Lo que llega del servidor se notifica al Oyente
+ * desde el hilo receptor (o el de multicast).
+ */
+public class SesionCarrera {
+    // Tiene que ser la misma que la del servidor: se leen de la misma configuración
+    public static final int META = Configuracion.entero("camellos.meta", 650);
+    public static final String SERVIDOR_POR_DEFECTO = "localhost:5000";
+    private static final int RAFAGA_PULSOS = 5;
+    // Por debajo de camellos.heartbeat.timeout.ms del servidor; se puede cambiar en caliente
+    private static final Configuracion.Ajuste INTERVALO_HEARTBEAT_MS = Configuracion.ajuste("camellos.heartbeat.ms",
+            3000, 100, 600_000);
+    private static final int MAX_REDIRECCIONES = 3;
+    // Tras un corte en plena carrera: intentos de reanudar, con una pausa creciente desde PAUSA_REANUDAR_MS
+    private static final int INTENTOS_REANUDAR = Configuracion.entero("camellos.reanudar.intentos", 5);
+    private static final long PAUSA_REANUDAR_MS = 200;
+    // Un clic sin confirmar tras este plazo se da por perdido (cuenta atrás, cola llena en el servidor, corte)
+    private static final long PLAZO_CONFIRMACION_NANOS = TimeUnit.MILLISECONDS.toNanos(
+            Configuracion.entero("camellos.confirmacion.ms", 2000));
+
+    public interface Oyente {
+        // Con la asignación leída y antes de que pueda llegar ningún evento
+        default void asignado(AsignacionGrupo asignacion) {
+        }
+
+        default void eventoRival(EventoCarrera evento) {
+        }
+
+        default void instantanea(InstantaneaCarrera instantanea) {
+        }
+
+        default void jugadorDesconectado(String idCliente) {
+        }
+
+        default void jugadorReconectado(String idCliente) {
+        }
+
+        default void clasificacion(ClasificacionParcial clasificacion) {
+        }
+
+        default void finCarrera(FinCarrera fin) {
+        }
+
+        // Se ha cortado la conexión y se está intentando reanudar; si no se consigue llega conexionPerdida
+        default void reconectando() {
+        }
+
+        // Sesión reanudada en el mismo grupo y carril; a continuación llega la instantánea con las posiciones
+        default void reanudada() {
+        }
+
+        default void conexionPerdida(Exception causa) {
+        }
+
+        // Justo antes de encolar un evento propio (para medir latencias)
+        default void enviando(EventoCarrera.TipoEvento tipo, int pos) {
+        }
+    }
+
+    private final String idCliente;
+    private final Oyente oyente;
+    private final RelojServidor reloj = new RelojServidor();  // Para poner los tMarca en hora del servidor
+    private final boolean trazas;  // Logs por evento; el bot los apaga
+
+    private Socket socketServidor;
+    private String hostServidor;  // Al que se está conectado (tras las redirecciones), para reanudar
+    private int puertoServidor;
+    private long token;           // De AsignacionGrupo; 0 hasta tenerlo
+    private volatile CanalTramas canalServidor;  // Cambia si el enrutador redirige a un servidor de carreras
+    private CanalMulticast canalMulticast;  // Solo si el servidor activa el plano de datos multicast
+    private DadoCarrera dado;
+    private volatile long inicioCarrera;    // Hora del servidor de la salida; 0: sin cuenta atrás
+    private boolean carreraAutoritativa;    // Las posiciones las decide el servidor (InstantaneaCarrera)
+    private int idGrupo;
+
+    private int miPosicion = 0;
+    // Carrera autoritativa: la posición es la del servidor más los clics que aún no ha confirmado
+    private int posicionServidor = 0;
+    private int[] acumulado = new int[32];  // acumulado[k]: posición tras k tiradas del dado
+    private int tiradas = 0;                // Entradas calculadas en acumulado
+    private int confirmados = 0;            // Clics que el servidor ya ha aplicado
+    private int enviados = 0;
+    private final ArrayDeque<Long> sinConfirmar = new ArrayDeque<>();  // nanoTime de cada clic pendiente
+    private volatile boolean carreraTerminada = false;
+    private volatile boolean callada = false;
+    private volatile boolean perdida = false;  // Cortada sin poder reanudar
+
+    /** "host:puerto" (o solo "host", al 5000), p. ej. de camellos.servidor; sin resolver. */
+    public static InetSocketAddress direccion(String texto) {
+        int dosPuntos = texto.lastIndexOf(':');
+        if (dosPuntos < 0) return InetSocketAddress.createUnresolved(texto, 5000);
+        return InetSocketAddress.createUnresolved(texto.substring(0, dosPuntos),
+                Integer.parseInt(texto.substring(dosPuntos + 1)));
+    }
+
+    public SesionCarrera(String idCliente, Oyente oyente, boolean trazas) {
+        this.idCliente = idCliente;
+        this.oyente = oyente;
+        this.trazas = trazas;
+    }
+
+    /**
+     * Se conecta y espera a que el servidor asigne grupo. El heartbeat arranca
+     * antes de esperar y el receptor después de la asignación.
+     */
+    public AsignacionGrupo conectar(String ipServidor, int puertoServidor) throws IOException, ClassNotFoundException {
+        if (trazas) Registro.info("[CLIENTE] Conectando a {}:{}", ipServidor, puertoServidor);
+
+        abrir(ipServidor, puertoServidor);
+
+        // Heartbeat también mientras se espera grupo: el servidor expulsa a quien pase su timeout callado
+        iniciarHeartbeat();
+
+        // Mientras se espera solo pueden llegar los ecos de los heartbeats, que ya sirven para el reloj,
+        // o, si se ha conectado a un Enrutador, la Redireccion al servidor de carreras
+        Object recibido;
+        int redirecciones = 0;
+        while (true) {
+            recibido = canalServidor.leer();
+            if (recibido instanceof Heartbeat) {
+                anotarEco((Heartbeat) recibido);
+            } else if (recibido instanceof Redireccion && redirecciones++ < MAX_REDIRECCIONES) {
+                Redireccion r = (Redireccion) recibido;
+                if (trazas) Registro.info("[CLIENTE] Redirigido a {}:{}", r.host, r.puerto);
+                cerrarConexion();
+                abrir(r.host, r.puerto);
+            } else {
+                break;
+            }
+        }
+        if (recibido instanceof ErrorProtocolo) {
+            throw new IOException("Rechazado por el servidor: " + ((ErrorProtocolo) recibido).detalle);
+        }
+        AsignacionGrupo asignacion = (AsignacionGrupo) recibido;
+        this.idGrupo = asignacion.idGrupo;
+
+        this.dado = new DadoCarrera(asignacion.semillaCarrera, idCliente);
+        this.carreraAutoritativa = asignacion.autoritativa;
+        this.inicioCarrera = asignacion.inicioCarrera;
+        this.token = asignacion.token;
+
+        if (trazas) {
+            Registro.info("[CLIENTE] Asignado a grupo {}{}", idGrupo, carreraAutoritativa ? " (carrera autoritativa)" : "");
+        }
+        oyente.asignado(asignacion);
+
+        if (asignacion.multicast) {
+            canalMulticast = new CanalMulticast(asignacion, idCliente, this::aplicarEvento);
+        }
+
+        iniciarReceptor();
+        return asignacion;
+    }
+
+    // Conexión nueva con el servidor y su SolicitudConexion
+    private void abrir(String ipServidor, int puertoServidor) throws IOException {
+        socketServidor = new Socket(ipServidor, puertoServidor);
+        // Formato binario por defecto; -Dcamellos.formato=java para comparar con la serialización estándar
+        byte formato = "java".equalsIgnoreCase(Configuracion.texto("camellos.formato", null))
+                ? CodecMensajes.FORMATO_JAVA : CodecMensajes.FORMATO_BINARIO;
+        // Los mensajes se agrupan en la cola de salida (-Dcamellos.lote.ms); Nagle solo añadiría retardo
+        socketServidor.setTcpNoDelay(true);
+        CanalTramas canal = new CanalTramas(socketServidor.getInputStream(), socketServidor.getOutputStream(),
+                new CodecMensajes(formato), new CodecMensajes(formato), idCliente);
+        SolicitudConexion solicitud = new SolicitudConexion(idCliente, formato);
+        if (token != 0) {
+            solicitud.token = token;
+            solicitud.idGrupo = idGrupo;
+        }
+        canal.enviar(solicitud);
+        hostServidor = ipServidor;
+        this.puertoServidor = puertoServidor;
+        canalServidor = canal;
+    }
+
+    /**
+     * En el hilo receptor, al cortarse la conexión con la carrera en marcha:
+     * vuelve a conectar al mismo servidor con el token de la asignación para
+     * seguir en el mismo grupo y carril. Lo que llegue antes de la nueva
+     * AsignacionGrupo se ignora; la instantánea que sigue lo pone al día. Si la
+     * carrera ya ha acabado llega directamente el FinCarrera.
+     */
+    private boolean reanudar() {
+        if (token == 0 || callada || carreraTerminada) return false;
+        oyente.reconectando();
+        for (int intento = 1; intento <= INTENTOS_REANUDAR && !carreraTerminada; intento++) {
+            cerrarConexion();
+            try {
+                Thread.sleep(PAUSA_REANUDAR_MS * intento);
+                abrir(hostServidor, puertoServidor);
+                Object recibido;
+                do {
+                    recibido = canalServidor.leer();
+                    if (recibido instanceof Heartbeat) anotarEco((Heartbeat) recibido);
+                } while (!(recibido instanceof AsignacionGrupo) && !(recibido instanceof FinCarrera)
+                        && !(recibido instanceof ErrorProtocolo));
+                if (recibido instanceof ErrorProtocolo) {
+                    Registro.aviso("[CLIENTE] No se puede reanudar: {}", ((ErrorProtocolo) recibido).detalle);
+                    return false;
+                }
+                if (recibido instanceof FinCarrera) {
+                    // Ha acabado mientras estaba cortada
+                    carreraTerminada = true;
+                    if (canalMulticast != null) canalMulticast.cerrar();
+                    oyente.finCarrera((FinCarrera) recibido);
+                    return true;
+                }
+                if (trazas) Registro.info("[CLIENTE] Sesión reanudada en el grupo {} (intento {})", idGrupo, intento);
+                oyente.reanudada();
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } catch (Exception e) {
+                Registro.depuracion("[CLIENTE] Intento {} de reanudar fallido: {}", intento, e.getMessage());
+            }
+        }
+        return false;
+    }
+
+    private void iniciarHeartbeat() {
+        Hilos.lanzar("heartbeat", "heartbeat-" + idCliente, () -> {
+            int pulsos = 0;
+            CanalTramas anterior = null;
+            while (!carreraTerminada && !callada && !perdida) {
+                CanalTramas canal = canalServidor;
+                // Con cada servidor nuevo, otra ráfaga para su reloj
+                if (canal != anterior) pulsos = 0;
+                anterior = canal;
+                try {
+                    Heartbeat hb = new Heartbeat(idCliente, System.nanoTime());
+                    if (reloj.sincronizado()) {
+                        hb.idaVuelta = reloj.idaVuelta();
+                        hb.desfase = reloj.desfase();
+                    }
+                    canal.enviar(hb);
+                    // Unos cuantos seguidos al conectar para tener el reloj afinado antes de la salida
+                    Thread.sleep(++pulsos < RAFAGA_PULSOS ? 100 : INTERVALO_HEARTBEAT_MS.valor());
+                } catch (Exception e) {
+                    // Redirigido mientras tanto: se sigue con la conexión nueva
+                    if (canal != canalServidor) continue;
+                    if (token != 0 && !perdida) {
+                        // Corte en plena carrera: el receptor está reanudando o a punto de hacerlo
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException ie) {
+                            break;
+                        }
+                        continue;
+                    }
+                    if (!carreraTerminada) {
+                        Registro.error("[CLIENTE HB ERROR] {}", e.getMessage());
+                    }
+                    break;
+                }
+            }
+        });
+    }
+
+    private void iniciarReceptor() {
+        Hilos.lanzar("receptor", "receptor-" + idCliente, () -> {
+            while (!carreraTerminada) {
+                try {
+                    Object obj = canalServidor.leer();
+
+                    if (obj instanceof EventoCarrera) {
+                        aplicarEvento((EventoCarrera) obj);
+
+                    } else if (obj instanceof InstantaneaCarrera) {
+                        aplicarInstantanea((InstantaneaCarrera) obj);
+
+                    } else if (obj instanceof Heartbeat) {
+                        anotarEco((Heartbeat) obj);
+
+                    } else if (obj instanceof ClasificacionParcial) {
+                        oyente.clasificacion((ClasificacionParcial) obj);
+
+                    } else if (obj instanceof EstadoJugador) {
+                        EstadoJugador estado = (EstadoJugador) obj;
+                        if (!estado.listo) {
+                            if (trazas) Registro.info("[CLIENTE RX] '{}' se ha desconectado", estado.idCliente);
+                            oyente.jugadorDesconectado(estado.idCliente);
+                        } else {
+                            if (trazas) Registro.info("[CLIENTE RX] '{}' ha vuelto", estado.idCliente);
+                            oyente.jugadorReconectado(estado.idCliente);
+                        }
+
+                    } else if (obj instanceof FinCarrera) {
+                        carreraTerminada = true;
+                        if (canalMulticast != null) canalMulticast.cerrar();
+                        oyente.finCarrera((FinCarrera) obj);
+                    }
+
+                } catch (EOFException e) {
+                    if (!carreraTerminada) {
+                        if (reanudar()) continue;
+                        perdida = true;
+                        Registro.error("[CLIENTE] Servidor cerró conexión");
+                        oyente.conexionPerdida(e);
+                    }
+                    break;
+                } catch (Exception e) {
+                    if (!carreraTerminada) {
+                        if (reanudar()) continue;
+                        perdida = true;
+                        Registro.error("[CLIENTE RX ERROR] {}", e.getMessage());
+                        oyente.conexionPerdida(e);
+                    }
+                    break;
+                }
+            }
+        });
+    }
+
+    private void anotarEco(Heartbeat eco) {
+        if (eco.tEco != 0) reloj.muestra(eco.tEco, System.nanoTime(), eco.tMarca, System.currentTimeMillis());
+    }
+
+    // Evento de un rival, llegue por el servidor o por multicast
+    private void aplicarEvento(EventoCarrera evento) {
+        if (trazas && Registro.activo(Registro.Nivel.DEPURACION)) {
+            Registro.depuracion("[CLIENTE RX] Evento de '{}' pos={}", evento.idCliente, evento.pos);
+        }
+        oyente.eventoRival(evento);
+    }
+
+    // La posición propia que diga el servidor manda: se rebasa sobre ella y se
+    // vuelven a aplicar los clics que aún no ha confirmado.
+    private void aplicarInstantanea(InstantaneaCarrera instantanea) {
+        int i = instantanea.ids.indexOf(idCliente);
+        if (i >= 0) {
+            synchronized (this) {
+                if (carreraAutoritativa) {
+                    rebasar(instantanea.posiciones[i]);
+                } else if (instantanea.posiciones[i] > miPosicion) {
+                    miPosicion = instantanea.posiciones[i];
+                }
+            }
+        }
+        oyente.instantanea(instantanea);
+    }
+
+    /**
+     * Cada tirada suma, así que la posición del servidor dice cuántos clics ha
+     * aplicado: el k con acumulado[k] igual a ella (o el primero que llega a
+     * la meta, donde el servidor se planta). Los pendientes que pasen del
+     * plazo se dan por perdidos, para que la predicción no se quede por
+     * delante con el dado desfasado del servidor.
+     */
+    private void rebasar(int pos) {
+        posicionServidor = pos;
+        int k = confirmados;
+        while (k < enviados && acumulado(k) < Math.min(pos, META)) k++;
+        if (acumulado(k) != pos && !(pos >= META && acumulado(k) >= META)) {
+            // No cuadra con nuestro dado: nos quedamos con lo que diga el servidor
+            Registro.depuracion("[CLIENTE] Posición {} del servidor fuera de la secuencia del dado", pos);
+            miPosicion = pos;
+            return;
+        }
+        for (int aplicados = k - confirmados; aplicados > 0 && !sinConfirmar.isEmpty(); aplicados--) {
+            sinConfirmar.removeFirst();
+        }
+        confirmados = k;
+        long limite = System.nanoTime() - PLAZO_CONFIRMACION_NANOS;
+        while (!sinConfirmar.isEmpty() && sinConfirmar.peekFirst() - limite < 0) {
+            sinConfirmar.removeFirst();
+        }
+        miPosicion = pos >= META ? META : prediccion();
+    }
+
+    private int prediccion() {
+        return Math.min(META, acumulado(confirmados + sinConfirmar.size()));
+    }
+
+    // Posición tras k tiradas, calculando con el dado las que falten
+    private int acumulado(int k) {
+        while (tiradas <= k) {
+            if (tiradas == acumulado.length) acumulado = Arrays.copyOf(acumulado, tiradas * 2);
+            acumulado[tiradas] = tiradas == 0 ? 0 : acumulado[tiradas - 1] + dado.tirar();
+            tiradas++;
+        }
+        return acumulado[k];
+    }
+
+    /**
+     * Un clic: tira el dado y envía PASO (o META al llegar). Devuelve la nueva
+     * posición; si la carrera ya terminó no hace nada.
+     */
+    public synchronized int avanzar() {
+        // Antes de la salida el servidor no acepta pasos
+        if (carreraTerminada || enMeta() || msHastaSalida() > 0) return miPosicion;
+
+        if (carreraAutoritativa) {
+            // Solo es una entrada para el servidor; se sigue enviando hasta que él nos ponga en la meta
+            enviados++;
+            sinConfirmar.addLast(System.nanoTime());
+            miPosicion = prediccion();
+            enviarEvento(miPosicion >= META ? EventoCarrera.TipoEvento.META : EventoCarrera.TipoEvento.PASO, miPosicion);
+            return miPosicion;
+        }
+
+        miPosicion += dado.tirar();
+
+        if (miPosicion >= META) {
+            miPosicion = META;
+            enviarEvento(EventoCarrera.TipoEvento.META, miPosicion);
+        } else {
+            enviarEvento(EventoCarrera.TipoEvento.PASO, miPosicion);
+        }
+        return miPosicion;
+    }
+
+    private void enviarEvento(EventoCarrera.TipoEvento tipo, int pos) {
+        try {
+            long tMarca = reloj.ahora();
+            oyente.enviando(tipo, pos);
+            if (canalMulticast != null && tipo != EventoCarrera.TipoEvento.META) {
+                // PASO/CAIDA por UDP; META sigue por el servidor para el ranking y FinCarrera
+                canalMulticast.enviar(tipo, tMarca, pos);
+                if (trazas) Registro.depuracion("[CLIENTE TX] Evento {} pos={} (multicast)", tipo, pos);
+                return;
+            }
+
+            EventoCarrera evento = new EventoCarrera(tipo, idCliente, tMarca, pos);
+            if (canalServidor.enviar(evento)) {
+                if (trazas) Registro.depuracion("[CLIENTE TX] Evento {} pos={}", tipo, pos);
+            } else {
+                Registro.aviso("[CLIENTE TX ERROR] Cola de salida llena, evento {} descartado", tipo);
+            }
+        } catch (Exception e) {
+            Registro.error("[CLIENTE TX ERROR] {}", e.getMessage());
+        }
+    }
+
+    /** Deja de enviar heartbeats, como un cliente colgado; el servidor acabará expulsándolo. */
+    public void silenciar() {
+        callada = true;
+    }
+
+    public void cerrar() {
+        carreraTerminada = true;
+        if (canalMulticast != null) canalMulticast.cerrar();
+        cerrarConexion();
+    }
+
+    /**
+     * Corta la conexión con el servidor sin cerrar la sesión, como haría un
+     * fallo de red: el receptor intentará reanudar. Para probar con BotCarrera.
+     */
+    public void cortar() {
+        try {
+            if (socketServidor != null) socketServidor.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void cerrarConexion() {
+        if (canalServidor != null) canalServidor.cerrar();
+        try {
+            if (socketServidor != null) socketServidor.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    public String getIdCliente() {
+        return idCliente;
+    }
+
+    public int getIdGrupo() {
+        return idGrupo;
+    }
+
+    /** Cuánto falta para la salida según el reloj del servidor; 0 si ya se ha dado. */
+    public long msHastaSalida() {
+        long inicio = inicioCarrera;
+        return inicio == 0 ? 0 : Math.max(0, inicio - reloj.ahora());
+    }
+
+    public RelojServidor getReloj() {
+        return reloj;
+    }
+
+    public synchronized int getMiPosicion() {
+        return miPosicion;
+    }
+
+    /** Si ya no hay que hacer clic: en carrera autoritativa lo decide la posición del servidor, no la predicción. */
+    public synchronized boolean enMeta() {
+        return (carreraAutoritativa ? posicionServidor : miPosicion) >= META;
+    }
+
+    public boolean isCarreraTerminada() {
+        return carreraTerminada;
+    }
+
+    public boolean isCarreraAutoritativa() {
+        return carreraAutoritativa;
+    }
+}
@@ -0,0 +1,136 @@
+package comun;
+
+/**
+ * Clasificación en vivo de un grupo: la posición de cada carril como int y el
+ * orden de los carriles (el más adelantado primero; a igual posición, el
+ * carril menor) mantenido a cada paso, así que el puesto de un jugador, los
+ * primeros K o el ranking completo se leen en cualquier momento sin ordenar.
+ *
+ * Al cambiar una posición el nuevo hueco se busca por búsqueda binaria
+ * (O(log n)) y solo se desplazan los carriles adelantados, que en una carrera
+ * de pasos cortos son uno o ninguno. Los métodos están sincronizados: en el
+ * servidor escriben a la vez los hilos de todos los miembros del grupo.
+ */
+public final class Clasificacion {
+    private final int[] posiciones;  // Por carril
+    private final int[] orden;       // Carriles del primero al último
+    private final int[] puestos;     // Índice de cada carril en orden
+    private int cambios;             // Posiciones cambiadas desde que se creó
+
+    public Clasificacion(int carriles) {
+        posiciones = new int[carriles];
+        orden = new int[carriles];
+        puestos = new int[carriles];
+        reiniciar();
+    }
+
+    /** Todos en la salida, en orden de carril. */
+    public synchronized void reiniciar() {
+        for (int i = 0; i < orden.length; i++) {
+            posiciones[i] = 0;
+            orden[i] = i;
+            puestos[i] = i;
+        }
+    }
+
+    public int carriles() {
+        return orden.length;
+    }
+
+    public synchronized int posicion(int carril) {
+        return posiciones[carril];
+    }
+
+    /** Puesto del carril, empezando en 1. */
+    public synchronized int puesto(int carril) {
+        return puestos[carril] + 1;
+    }
+
+    /** Carril que va en el puesto dado, empezando en 1. */
+    public synchronized int carrilEnPuesto(int puesto) {
+        return orden[puesto - 1];
+    }
+
+    /** Pone el carril en la posición, adelante o atrás, y lo recoloca. */
+    public synchronized void fijar(int carril, int pos) {
+        int anterior = posiciones[carril];
+        if (pos == anterior) return;
+        posiciones[carril] = pos;
+        cambios++;
+        if (pos > anterior) {
+            subir(carril);
+        } else {
+            bajar(carril);
+        }
+    }
+
+    /** Como fijar, pero sin retroceder nunca; devuelve la posición resultante. */
+    public synchronized int avanzar(int carril, int pos) {
+        if (pos > posiciones[carril]) {
+            posiciones[carril] = pos;
+            cambios++;
+            subir(carril);
+        }
+        return posiciones[carril];
+    }
+
+    /** Crece con cada cambio de posición: si no ha variado, la clasificación tampoco. */
+    public synchronized int cambios() {
+        return cambios;
+    }
+
+    /** Copia a la vez el orden y las posiciones por carril, coherentes entre sí. */
+    public synchronized void copiar(int[] orden, int[] posiciones) {
+        System.arraycopy(this.orden, 0, orden, 0, this.orden.length);
+        System.arraycopy(this.posiciones, 0, posiciones, 0, this.posiciones.length);
+    }
+
+    /** Copia en destino los carriles de los primeros puestos; devuelve cuántos. */
+    public synchronized int primeros(int[] destino) {
+        int n = Math.min(destino.length, orden.length);
+        System.arraycopy(orden, 0, destino, 0, n);
+        return n;
+    }
+
+    /** Carriles del primero al último. */
+    public synchronized int[] orden() {
+        return orden.clone();
+    }
+
+    /** Posiciones por carril en un momento dado. */
+    public synchronized int[] posiciones() {
+        return posiciones.clone();
+    }
+
+    private boolean vaDelante(int a, int b) {
+        return posiciones[a] > posiciones[b] || (posiciones[a] == posiciones[b] && a < b);
+    }
+
+    // orden[0, i) sigue ordenado: primer índice al que el carril adelanta
+    private void subir(int carril) {
+        int i = puestos[carril];
+        int bajo = 0, alto = i;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (vaDelante(carril, orden[medio])) alto = medio; else bajo = medio + 1;
+        }
+        if (bajo == i) return;
+        System.arraycopy(orden, bajo, orden, bajo + 1, i - bajo);
+        orden[bajo] = carril;
+        for (int j = bajo; j <= i; j++) puestos[orden[j]] = j;
+    }
+
+    // orden(i, n) sigue ordenado: último índice de los que siguen delante del carril
+    private void bajar(int carril) {
+        int i = puestos[carril];
+        int bajo = i, alto = orden.length - 1;
+        while (bajo < alto) {
+            int medio = (bajo + alto + 1) >>> 1;
+            if (vaDelante(orden[medio], carril)) bajo = medio; else alto = medio - 1;
+        }
+        if (bajo == i) return;
+        System.arraycopy(orden, i + 1, orden, i, bajo - i);
+        orden[bajo] = carril;
+        for (int j = i; j <= bajo; j++) puestos[orden[j]] = j;
+    }
+}
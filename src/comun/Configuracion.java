@@ -0,0 +1,279 @@
+package comun;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Configuración compartida por servidor, enrutador y clientes. Cada clave
+ * (camellos.grupo.max, camellos.lote.ms...) se busca, por este orden, en:
+ * <ol>
+ *   <li>los argumentos {@code --clave=valor} del main (con o sin el prefijo
+ *       "camellos."; solo cuentan los que llevan un punto en la clave);</li>
+ *   <li>las propiedades del sistema ({@code -Dclave=valor});</li>
+ *   <li>el fichero de propiedades: {@code --config=ruta}, {@code -Dcamellos.config}
+ *       o camellos.properties en el directorio de trabajo, si existe;</li>
+ *   <li>el valor por defecto de quien la lee.</li>
+ * </ol>
+ *
+ * El fichero se lee al cargarse la clase, así que vale también para lo que se
+ * lee en campos static antes de llegar al main; los argumentos se añaden en
+ * cargar(). Los Ajuste son las claves que se pueden cambiar en caliente: un
+ * hilo mira cada camellos.config.recarga.ms si el fichero ha cambiado y, si
+ * todos los Ajuste que trae son válidos, los aplica a la vez; si alguno no lo
+ * es no aplica ninguno. Un Ajuste fijado por argumento o -D no lo cambia el
+ * fichero, y del resto de claves solo se avisa de que hace falta reiniciar.
+ */
+public final class Configuracion {
+    private static final String PREFIJO = "camellos.";
+    private static final String FICHERO_POR_DEFECTO = "camellos.properties";
+
+    private static final Map<String, String> argumentos = new ConcurrentHashMap<>();
+    private static final Map<String, Ajuste> ajustes = new ConcurrentHashMap<>();
+    private static volatile Properties fichero = new Properties();
+    private static volatile Path ruta = Paths.get(System.getProperty(PREFIJO + "config", FICHERO_POR_DEFECTO));
+    private static long modificado = -2;  // Del fichero ya leído; -1 si no existe, -2 sin leer
+    private static ScheduledExecutorService vigilante;
+
+    static {
+        // Aún no se puede registrar nada: Registro también se configura desde aquí
+        try {
+            leerFichero();
+        } catch (IOException e) {
+            System.err.println("[CONFIG ERROR] No se pudo leer " + ruta + ": " + e.getMessage());
+        }
+    }
+
+    /** Una clave entera que se puede cambiar en caliente, entre minimo y maximo. */
+    public static final class Ajuste {
+        private final String clave;
+        private final int porDefecto;
+        private final int minimo;
+        private final int maximo;
+        private volatile int valor;
+        private final List<Runnable> oyentes = new CopyOnWriteArrayList<>();
+
+        private Ajuste(String clave, int porDefecto, int minimo, int maximo) {
+            this.clave = clave;
+            this.porDefecto = porDefecto;
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.valor = validar(texto(clave, null));
+        }
+
+        public int valor() {
+            return valor;
+        }
+
+        public String clave() {
+            return clave;
+        }
+
+        /** Se ejecuta tras cada cambio, en el hilo que recarga. */
+        public void alCambiar(Runnable oyente) {
+            oyentes.add(oyente);
+        }
+
+        private int validar(String texto) {
+            if (texto == null) return porDefecto;
+            int n = entero(clave, texto);
+            if (n < minimo || n > maximo) {
+                throw new IllegalArgumentException(clave + " fuera de rango [" + minimo + ", " + maximo + "]: " + n);
+            }
+            return n;
+        }
+
+        private boolean fijado() {
+            return argumentos.containsKey(clave) || System.getProperty(clave) != null;
+        }
+    }
+
+    private Configuracion() {
+    }
+
+    /**
+     * Lee los argumentos de configuración del main, relee el fichero si cambia
+     * con --config y arranca la recarga en caliente. Devuelve el resto de
+     * argumentos, en el mismo orden.
+     */
+    public static synchronized String[] cargar(String[] args) {
+        List<String> resto = new ArrayList<>();
+        for (String arg : args) {
+            int igual = arg.indexOf('=');
+            String clave = arg.startsWith("--") && igual > 2 ? arg.substring(2, igual) : null;
+            if ("config".equals(clave)) {
+                ruta = Paths.get(arg.substring(igual + 1));
+                modificado = -2;
+            } else if (clave != null && clave.indexOf('.') > 0) {
+                argumentos.put(clave.startsWith(PREFIJO) ? clave : PREFIJO + clave, arg.substring(igual + 1));
+            } else {
+                resto.add(arg);
+            }
+        }
+        try {
+            leerFichero();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No se pudo leer " + ruta + ": " + e.getMessage(), e);
+        }
+        // Los Ajuste de campos static ya se crearon sin los argumentos
+        for (Ajuste a : ajustes.values()) {
+            fijarValor(a, a.validar(texto(a.clave, null)));
+        }
+
+        int recargaMs = entero(PREFIJO + "config.recarga.ms", 2000);
+        if (modificado >= 0) {
+            Registro.info("[CONFIG] {} ({} claves){}", ruta, fichero.size(),
+                    recargaMs > 0 ? ", recarga cada " + recargaMs + " ms" : "");
+        }
+        if (recargaMs > 0 && vigilante == null) {
+            // Sin Hilos: su modo también se configura y aún puede cambiarlo quien llama
+            vigilante = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread hilo = new Thread(r, "configuracion");
+                hilo.setDaemon(true);
+                return hilo;
+            });
+            vigilante.scheduleWithFixedDelay(Configuracion::recargarSiCambia, recargaMs, recargaMs, TimeUnit.MILLISECONDS);
+        }
+        return resto.toArray(new String[0]);
+    }
+
+    public static String texto(String clave, String porDefecto) {
+        String valor = argumentos.get(clave);
+        if (valor == null) valor = System.getProperty(clave);
+        if (valor == null) valor = fichero.getProperty(clave);
+        return valor != null ? valor.trim() : porDefecto;
+    }
+
+    public static int entero(String clave, int porDefecto) {
+        String valor = texto(clave, null);
+        return valor != null ? entero(clave, valor) : porDefecto;
+    }
+
+    public static long largo(String clave, long porDefecto) {
+        String valor = texto(clave, null);
+        if (valor == null) return porDefecto;
+        try {
+            return Long.parseLong(valor);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(clave + " no es un número: " + valor);
+        }
+    }
+
+    public static boolean booleano(String clave) {
+        return Boolean.parseBoolean(texto(clave, "false"));
+    }
+
+    /** Fija una clave como si viniera por argumento (p. ej. un valor por defecto propio de un main). */
+    public static void fijar(String clave, String valor) {
+        argumentos.put(clave, valor);
+    }
+
+    /** El Ajuste de la clave; si ya lo había pedido otra clase, el mismo. */
+    public static Ajuste ajuste(String clave, int porDefecto, int minimo, int maximo) {
+        return ajustes.computeIfAbsent(clave, c -> new Ajuste(c, porDefecto, minimo, maximo));
+    }
+
+    private static int entero(String clave, String valor) {
+        try {
+            return Integer.parseInt(valor.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(clave + " no es un número: " + valor);
+        }
+    }
+
+    // Lee el fichero si ha cambiado; devuelve las propiedades anteriores o null si no ha cambiado
+    private static Properties leerFichero() throws IOException {
+        long m;
+        try {
+            m = Files.getLastModifiedTime(ruta).toMillis();
+        } catch (NoSuchFileException e) {
+            m = -1;
+        }
+        if (m == modificado) return null;
+        Properties nuevo = new Properties();
+        if (m >= 0) {
+            try (Reader r = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+                nuevo.load(r);
+            }
+        }
+        Properties anterior = fichero;
+        fichero = nuevo;
+        modificado = m;
+        return anterior;
+    }
+
+    private static synchronized void recargarSiCambia() {
+        Properties anterior = fichero;
+        long modificadoAntes = modificado;
+        try {
+            if (leerFichero() == null) return;
+        } catch (IOException e) {
+            Registro.aviso("[CONFIG] No se pudo releer {}: {}", ruta, e.getMessage());
+            return;
+        }
+
+        // Primero se validan todos: o se aplican todos los cambios o ninguno
+        Map<Ajuste, Integer> cambios = new HashMap<>();
+        for (Ajuste a : ajustes.values()) {
+            if (a.fijado()) continue;
+            try {
+                int nuevo = a.validar(fichero.getProperty(a.clave));
+                if (nuevo != a.valor) cambios.put(a, nuevo);
+            } catch (IllegalArgumentException e) {
+                Registro.aviso("[CONFIG] Recarga de {} descartada: {}", ruta, e.getMessage());
+                // Se conserva lo anterior, pero sin volver a intentarlo hasta que se corrija el fichero
+                fichero = anterior;
+                return;
+            }
+        }
+
+        Set<String> claves = new HashSet<>(anterior.stringPropertyNames());
+        claves.addAll(fichero.stringPropertyNames());
+        for (String clave : claves) {
+            Ajuste a = ajustes.get(clave);
+            if (a != null && a.fijado()) {
+                Registro.aviso("[CONFIG] {} cambiado en {}, pero manda el de argumentos o -D", clave, ruta);
+            } else if (a == null && !Objects.equals(anterior.getProperty(clave), fichero.getProperty(clave))) {
+                Registro.aviso("[CONFIG] {} cambiado en {}: hace falta reiniciar para aplicarlo", clave, ruta);
+            }
+        }
+
+        for (Map.Entry<Ajuste, Integer> cambio : cambios.entrySet()) {
+            Ajuste a = cambio.getKey();
+            Registro.info("[CONFIG] {} = {} (antes {})", a.clave, cambio.getValue(), a.valor);
+            fijarValor(a, cambio.getValue());
+        }
+        if (modificadoAntes < 0) {
+            Registro.info("[CONFIG] {} creado ({} claves)", ruta, fichero.size());
+        }
+    }
+
+    private static void fijarValor(Ajuste a, int valor) {
+        if (valor == a.valor) return;
+        a.valor = valor;
+        for (Runnable oyente : a.oyentes) {
+            try {
+                oyente.run();
+            } catch (RuntimeException e) {
+                Registro.error("[CONFIG ERROR] Al aplicar {}: {}", a.clave, e.toString());
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package comun;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Punto único para arrancar los hilos de servidor y cliente. Según
+ * -Dcamellos.hilos las tareas bloqueantes (lector y escritor por conexión,
+ * heartbeat, receptor...) corren en:
+ * <ul>
+ *   <li>virtuales: un hilo virtual por tarea (Java 21), pensado para decenas de miles de clientes;</li>
+ *   <li>plataforma: un hilo del sistema por tarea, como hasta ahora (por defecto);</li>
+ *   <li>pool: un pool acotado de hilos del sistema por categoría (-Dcamellos.hilos.pool). Las
+ *       tareas por conexión no acaban hasta que se va el cliente, así que una que no cabe no
+ *       espera turno: lanzar() lanza RejectedExecutionException y quien acepta la conexión
+ *       la cierra.</li>
+ * </ul>
+ * Los bucles de selector y demás hilos que nunca se bloquean en E/S de un
+ * cliente concreto se lanzan siempre como hilos de plataforma.
+ */
+public final class Hilos {
+    public enum Modo { PLATAFORMA, VIRTUALES, POOL }
+
+    public static final Modo MODO = Modo.valueOf(Configuracion.texto("camellos.hilos", "plataforma").toUpperCase());
+    private static final int TAM_POOL = Configuracion.entero("camellos.hilos.pool", 256);
+
+    private static final Map<String, ExecutorService> ejecutores = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicInteger> activos = new ConcurrentHashMap<>();
+    private static volatile boolean apagando = false;
+
+    private Hilos() {
+    }
+
+    /**
+     * Lanza una tarea de la categoría dada con el modo configurado; el hilo se llama
+     * nombre mientras dura. En modo pool, RejectedExecutionException si no queda hilo libre.
+     */
+    public static void lanzar(String categoria, String nombre, Runnable tarea) {
+        ejecutor(categoria, MODO).execute(contada(categoria, nombre, tarea));
+    }
+
+    /** Lanza una tarea siempre en un hilo de plataforma propio (bucles de selector, monitores). */
+    public static void lanzarPlataforma(String categoria, String nombre, Runnable tarea) {
+        ejecutor(categoria, Modo.PLATAFORMA).execute(contada(categoria, nombre, tarea));
+    }
+
+    /** Planificador con hilos de plataforma para tareas periódicas cortas (ticks, temporizadores). */
+    public static ScheduledExecutorService planificador(String categoria, int hilos) {
+        AtomicInteger n = new AtomicInteger();
+        ScheduledExecutorService planificador = Executors.newScheduledThreadPool(hilos, r -> {
+            Thread hilo = new Thread(r, categoria + "-" + n.getAndIncrement());
+            hilo.setDaemon(true);
+            return hilo;
+        });
+        ejecutores.put(categoria, planificador);
+        return planificador;
+    }
+
+    private static ExecutorService ejecutor(String categoria, Modo modo) {
+        if (apagando) throw new RejectedExecutionException("Apagando");
+        return ejecutores.computeIfAbsent(categoria, c -> {
+            switch (modo) {
+                case VIRTUALES:
+                    return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(c + "-", 0).factory());
+                case POOL:
+                    // Sin cola: con todos los hilos ocupados se rechaza en vez de dejarla esperando
+                    return new ThreadPoolExecutor(TAM_POOL, TAM_POOL, 0, TimeUnit.MILLISECONDS, new SynchronousQueue<>(),
+                            Thread.ofPlatform().daemon(true).name(c + "-", 0).factory());
+                default:
+                    return Executors.newThreadPerTaskExecutor(Thread.ofPlatform().daemon(true).name(c + "-", 0).factory());
+            }
+        });
+    }
+
+    private static Runnable contada(String categoria, String nombre, Runnable tarea) {
+        AtomicInteger contador = activos.computeIfAbsent(categoria, c -> new AtomicInteger());
+        return () -> {
+            Thread actual = Thread.currentThread();
+            String nombreOriginal = actual.getName();
+            if (nombre != null) actual.setName(nombre);
+            contador.incrementAndGet();
+            try {
+                tarea.run();
+            } finally {
+                contador.decrementAndGet();
+                if (nombre != null) actual.setName(nombreOriginal);
+            }
+        };
+    }
+
+    /** Tareas en ejecución por categoría. */
+    public static Map<String, Integer> activos() {
+        Map<String, Integer> resultado = new TreeMap<>();
+        activos.forEach((categoria, n) -> resultado.put(categoria, n.get()));
+        return resultado;
+    }
+
+    public static int totalActivos() {
+        int total = 0;
+        for (AtomicInteger n : activos.values()) total += n.get();
+        return total;
+    }
+
+    /** Deja de aceptar tareas, interrumpe las que quedan y espera hasta espera ms a que terminen. */
+    public static void apagar(long espera) {
+        apagando = true;
+        for (ExecutorService e : ejecutores.values()) {
+            e.shutdownNow();
+        }
+        long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(espera);
+        for (ExecutorService e : ejecutores.values()) {
+            try {
+                e.awaitTermination(Math.max(0, limite - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package comun;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma log-lineal al estilo HdrHistogram para latencias: cada potencia
+ * de 2 se parte en 64 cubetas, así que el error relativo es menor del 1,6%
+ * en todo el rango de long sin reservar memoria al registrar. Se puede
+ * registrar desde varios hilos a la vez.
+ */
+public final class Histograma {
+    private static final int BITS_SUB = 7;
+    private static final int SUB = 1 << BITS_SUB;   // Valores exactos por debajo de SUB
+    private static final int MITAD = SUB >> 1;       // Cubetas por potencia de 2 a partir de ahí
+    private static final int CUBETAS = SUB + (64 - BITS_SUB) * MITAD;
+
+    private final AtomicLongArray cuentas = new AtomicLongArray(CUBETAS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong suma = new AtomicLong();
+    private final AtomicLong maximo = new AtomicLong();
+
+    public void registrar(long valor) {
+        if (valor < 0) valor = 0;
+        cuentas.incrementAndGet(indice(valor));
+        total.incrementAndGet();
+        suma.addAndGet(valor);
+        long max;
+        while (valor > (max = maximo.get()) && !maximo.compareAndSet(max, valor)) {
+        }
+    }
+
+    private static int indice(long valor) {
+        if (valor < SUB) return (int) valor;
+        int desplazamiento = (63 - Long.numberOfLeadingZeros(valor)) - (BITS_SUB - 1);
+        return SUB + (desplazamiento - 1) * MITAD + (int) ((valor >>> desplazamiento) - MITAD);
+    }
+
+    // Mayor valor que cae en la cubeta
+    private static long valorMaximo(int indice) {
+        if (indice < SUB) return indice;
+        int desplazamiento = (indice - SUB) / MITAD + 1;
+        long sub = (indice - SUB) % MITAD + MITAD;
+        return ((sub + 1) << desplazamiento) - 1;
+    }
+
+    /** Valor por debajo del cual queda el porcentaje p (0-100) de las muestras. */
+    public long percentil(double p) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long objetivo = Math.max(1, (long) Math.ceil(n * p / 100.0));
+        long acumulado = 0;
+        for (int i = 0; i < CUBETAS; i++) {
+            acumulado += cuentas.get(i);
+            if (acumulado >= objetivo) {
+                return Math.min(valorMaximo(i), maximo.get());
+            }
+        }
+        return maximo.get();
+    }
+
+    /** Suma las muestras de otro histograma a este. */
+    public void sumar(Histograma otro) {
+        for (int i = 0; i < CUBETAS; i++) {
+            long c = otro.cuentas.get(i);
+            if (c != 0) cuentas.addAndGet(i, c);
+        }
+        total.addAndGet(otro.total.get());
+        suma.addAndGet(otro.suma.get());
+        long max;
+        long otroMax = otro.maximo.get();
+        while (otroMax > (max = maximo.get()) && !maximo.compareAndSet(max, otroMax)) {
+        }
+    }
+
+    public long total() {
+        return total.get();
+    }
+
+    /** Suma de todas las muestras registradas. */
+    public long suma() {
+        return suma.get();
+    }
+
+    public long maximo() {
+        return maximo.get();
+    }
+
+    public double media() {
+        long n = total.get();
+        return n == 0 ? 0 : (double) suma.get() / n;
+    }
+
+    /** "n=... p50=... p99=... p99.9=... max=..." con los valores divididos por escala. */
+    public String resumen(long escala, String unidad) {
+        return String.format("n=%d p50=%.1f%s p99=%.1f%s p99.9=%.1f%s max=%.1f%s",
+                total(),
+                percentil(50) / (double) escala, unidad,
+                percentil(99) / (double) escala, unidad,
+                percentil(99.9) / (double) escala, unidad,
+                maximo() / (double) escala, unidad);
+    }
+}
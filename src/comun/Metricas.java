@@ -0,0 +1,227 @@
+package comun;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro de métricas del proceso: contadores, medidores y histogramas de
+ * latencia. Cada clase pide las suyas al cargarse (campos static final) y
+ * registrar una muestra no toma cerrojos.
+ *
+ * exportar() las publica en texto de Prometheus por HTTP en la interfaz local
+ * (GET /metrics) y como atributos del MBean comun:type=Metricas. Los
+ * histogramas se registran en nanosegundos y se exportan en segundos como
+ * summary con cuantiles 0.5, 0.99 y 0.999.
+ */
+public final class Metricas {
+
+    public static final class Contador {
+        private final LongAdder valor = new LongAdder();
+
+        public void incrementar() {
+            valor.increment();
+        }
+
+        public void sumar(long n) {
+            valor.add(n);
+        }
+
+        public long valor() {
+            return valor.sum();
+        }
+    }
+
+    private static final double[] CUANTILES = {0.5, 0.99, 0.999};
+
+    private static final class Entrada {
+        final String nombre;
+        final String ayuda;
+        final Object metrica;  // Contador, LongSupplier o Histograma
+
+        Entrada(String nombre, String ayuda, Object metrica) {
+            this.nombre = nombre;
+            this.ayuda = ayuda;
+            this.metrica = metrica;
+        }
+    }
+
+    private static final Map<String, Entrada> metricas = new ConcurrentSkipListMap<>();
+    private static HttpServer servidorHttp;
+
+    private Metricas() {
+    }
+
+    public static Contador contador(String nombre, String ayuda) {
+        return (Contador) registrar(nombre, ayuda, new Contador());
+    }
+
+    /** Valor instantáneo que se lee al exportar (conexiones abiertas, grupos activos...). */
+    public static void medidor(String nombre, String ayuda, LongSupplier valor) {
+        registrar(nombre, ayuda, valor);
+    }
+
+    /** Histograma de duraciones en nanosegundos; el nombre debería acabar en _segundos. */
+    public static Histograma histograma(String nombre, String ayuda) {
+        return (Histograma) registrar(nombre, ayuda, new Histograma());
+    }
+
+    private static Object registrar(String nombre, String ayuda, Object metrica) {
+        return metricas.computeIfAbsent(nombre, n -> new Entrada(n, ayuda, metrica)).metrica;
+    }
+
+    // ========== EXPORTACIÓN ==========
+
+    public static String textoPrometheus() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Entrada e : metricas.values()) {
+            sb.append("# HELP ").append(e.nombre).append(' ').append(e.ayuda).append('\n');
+            if (e.metrica instanceof Contador) {
+                sb.append("# TYPE ").append(e.nombre).append(" counter\n");
+                sb.append(e.nombre).append(' ').append(((Contador) e.metrica).valor()).append('\n');
+            } else if (e.metrica instanceof LongSupplier) {
+                sb.append("# TYPE ").append(e.nombre).append(" gauge\n");
+                sb.append(e.nombre).append(' ').append(((LongSupplier) e.metrica).getAsLong()).append('\n');
+            } else {
+                Histograma h = (Histograma) e.metrica;
+                sb.append("# TYPE ").append(e.nombre).append(" summary\n");
+                for (double q : CUANTILES) {
+                    sb.append(e.nombre).append("{quantile=\"").append(q).append("\"} ")
+                            .append(segundos(h.percentil(q * 100))).append('\n');
+                }
+                sb.append(e.nombre).append("_sum ").append(segundos(h.suma())).append('\n');
+                sb.append(e.nombre).append("_count ").append(h.total()).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String segundos(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1e9);
+    }
+
+    /**
+     * Arranca el endpoint HTTP en 127.0.0.1:puerto (0 = sin HTTP) y registra
+     * el MBean. Si el puerto está ocupado se avisa y se sigue sin HTTP.
+     */
+    public static synchronized void exportar(int puerto) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MBean(), new ObjectName("comun:type=Metricas"));
+        } catch (InstanceAlreadyExistsException ignored) {
+        } catch (JMException e) {
+            Registro.aviso("[METRICAS] No se pudo registrar el MBean: {}", e.getMessage());
+        }
+
+        if (puerto <= 0 || servidorHttp != null) return;
+        try {
+            servidorHttp = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+            servidorHttp.createContext("/metrics", intercambio -> {
+                byte[] cuerpo = textoPrometheus().getBytes(StandardCharsets.UTF_8);
+                intercambio.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                intercambio.sendResponseHeaders(200, cuerpo.length);
+                try (OutputStream salida = intercambio.getResponseBody()) {
+                    salida.write(cuerpo);
+                }
+            });
+            // Un hilo basta: Prometheus consulta cada pocos segundos
+            servidorHttp.start();
+            Registro.info("[METRICAS] Prometheus en http://127.0.0.1:{}/metrics, JMX en comun:type=Metricas", puerto);
+        } catch (IOException e) {
+            Registro.aviso("[METRICAS] No se pudo abrir el puerto {}: {}", puerto, e.getMessage());
+        }
+    }
+
+    public static synchronized void detener() {
+        if (servidorHttp != null) {
+            servidorHttp.stop(0);
+            servidorHttp = null;
+        }
+    }
+
+    /**
+     * Vista JMX: un atributo por contador/medidor y, por histograma,
+     * nombre_p50 / _p99 / _p999 / _max (en segundos) y nombre_count.
+     */
+    private static final class MBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String atributo) throws AttributeNotFoundException {
+            for (Entrada e : metricas.values()) {
+                if (e.metrica instanceof Histograma) {
+                    Histograma h = (Histograma) e.metrica;
+                    if (!atributo.startsWith(e.nombre + "_")) continue;
+                    switch (atributo.substring(e.nombre.length() + 1)) {
+                        case "p50": return h.percentil(50) / 1e9;
+                        case "p99": return h.percentil(99) / 1e9;
+                        case "p999": return h.percentil(99.9) / 1e9;
+                        case "max": return h.maximo() / 1e9;
+                        case "count": return h.total();
+                        default: break;
+                    }
+                } else if (e.nombre.equals(atributo)) {
+                    return e.metrica instanceof Contador
+                            ? ((Contador) e.metrica).valor()
+                            : ((LongSupplier) e.metrica).getAsLong();
+                }
+            }
+            throw new AttributeNotFoundException(atributo);
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] atributos) {
+            AttributeList lista = new AttributeList();
+            for (String a : atributos) {
+                try {
+                    lista.add(new Attribute(a, getAttribute(a)));
+                } catch (AttributeNotFoundException ignored) {
+                }
+            }
+            return lista;
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> atributos = new ArrayList<>();
+            for (Entrada e : metricas.values()) {
+                if (e.metrica instanceof Histograma) {
+                    for (String sufijo : new String[]{"p50", "p99", "p999", "max"}) {
+                        atributos.add(new MBeanAttributeInfo(e.nombre + "_" + sufijo, "double", e.ayuda, true, false, false));
+                    }
+                    atributos.add(new MBeanAttributeInfo(e.nombre + "_count", "long", e.ayuda, true, false, false));
+                } else {
+                    atributos.add(new MBeanAttributeInfo(e.nombre, "long", e.ayuda, true, false, false));
+                }
+            }
+            return new MBeanInfo(Metricas.class.getName(), "Métricas de CarreraCamellos",
+                    atributos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+
+        @Override
+        public void setAttribute(Attribute atributo) throws AttributeNotFoundException {
+            throw new AttributeNotFoundException("Solo lectura: " + atributo.getName());
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList atributos) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String accion, Object[] params, String[] firma) throws MBeanException {
+            throw new MBeanException(new UnsupportedOperationException(accion));
+        }
+    }
+}
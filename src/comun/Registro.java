@@ -0,0 +1,405 @@
+package comun;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Log por niveles con escritura en segundo plano. Quien registra comprueba el
+ * nivel, reserva un hueco en un anillo de tamaño fijo con un CAS y deja ahí la
+ * plantilla y los argumentos tal cual; un único hilo escritor formatea e
+ * imprime. No hay cerrojos ni se construye ningún String en el hilo que
+ * registra, y con el nivel desactivado la llamada se queda en una comparación.
+ * Si el anillo está lleno la línea se descarta (se cuenta en descartadas())
+ * antes que frenar a un lector de red.
+ *
+ * Los mensajes usan {} como hueco para cada argumento. Hay sobrecargas de 0 a
+ * 3 argumentos para no crear el array de varargs. Como el formateo es
+ * diferido, los argumentos deberían ser valores que no cambien (ids, números,
+ * enums, mensajes de excepción).
+ *
+ * Configuración:
+ * <ul>
+ *   <li>-Dcamellos.log.nivel: depuracion, info (por defecto), aviso o error</li>
+ *   <li>-Dcamellos.log.fichero=ruta: escribe en fichero en vez de por consola</li>
+ *   <li>-Dcamellos.log.formato=texto|json: en fichero, una línea de texto con
+ *       fecha, nivel e hilo, o un objeto JSON por línea</li>
+ *   <li>-Dcamellos.log.rotar.mb (64) y -Dcamellos.log.ficheros (5): al pasar
+ *       del tamaño el fichero se renombra a ruta.1, ruta.1 a ruta.2...</li>
+ * </ul>
+ * Por consola AVISO y ERROR van a System.err y el resto a System.out, sin
+ * fecha, como se imprimía antes.
+ */
+public final class Registro {
+    public enum Nivel { DEPURACION, INFO, AVISO, ERROR }
+
+    private static final int CAPACIDAD = 1 << 14;  // Potencia de 2
+    private static final int MASCARA = CAPACIDAD - 1;
+
+    private static volatile int umbral = Nivel.valueOf(
+            Configuracion.texto("camellos.log.nivel", "info").toUpperCase()).ordinal();
+
+    // Un hueco del anillo. secuencia == posición: libre para esa vuelta;
+    // posición + 1: publicado y pendiente de escribir.
+    private static final class Hueco {
+        volatile long secuencia;
+        Nivel nivel;
+        long milis;
+        String hilo;
+        String mensaje;
+        int aridad;  // -1: argumentos en resto
+        Object a1, a2, a3;
+        Object[] resto;
+
+        Hueco(long secuencia) {
+            this.secuencia = secuencia;
+        }
+    }
+
+    private static final Hueco[] anillo = new Hueco[CAPACIDAD];
+    private static final AtomicLong cola = new AtomicLong();  // Siguiente posición a reservar
+    private static long cabeza;                                // Siguiente a escribir; solo la toca el escritor
+    private static final AtomicLong descartadas = new AtomicLong();
+
+    private static final Salida salida = Salida.crear();
+    private static final Thread escritor;
+    private static volatile boolean apagando = false;
+
+    static {
+        for (int i = 0; i < CAPACIDAD; i++) {
+            anillo[i] = new Hueco(i);
+        }
+        escritor = new Thread(Registro::escribir, "registro");
+        escritor.setDaemon(true);
+        escritor.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Registro::vaciar, "registro-vaciar"));
+    }
+
+    private Registro() {
+    }
+
+    public static boolean activo(Nivel n) {
+        return n.ordinal() >= umbral;
+    }
+
+    public static void setNivel(Nivel n) {
+        umbral = n.ordinal();
+    }
+
+    public static long descartadas() {
+        return descartadas.get();
+    }
+
+    // ========== DEPURACIÓN ==========
+
+    public static void depuracion(String mensaje) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, mensaje, 0, null, null, null, null);
+    }
+
+    public static void depuracion(String mensaje, Object a1) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, mensaje, 1, a1, null, null, null);
+    }
+
+    public static void depuracion(String mensaje, Object a1, Object a2) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, mensaje, 2, a1, a2, null, null);
+    }
+
+    public static void depuracion(String mensaje, Object a1, Object a2, Object a3) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, mensaje, 3, a1, a2, a3, null);
+    }
+
+    public static void depuracion(String mensaje, Object... args) {
+        if (Nivel.DEPURACION.ordinal() >= umbral) encolar(Nivel.DEPURACION, mensaje, -1, null, null, null, args);
+    }
+
+    // ========== INFO ==========
+
+    public static void info(String mensaje) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, mensaje, 0, null, null, null, null);
+    }
+
+    public static void info(String mensaje, Object a1) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, mensaje, 1, a1, null, null, null);
+    }
+
+    public static void info(String mensaje, Object a1, Object a2) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, mensaje, 2, a1, a2, null, null);
+    }
+
+    public static void info(String mensaje, Object a1, Object a2, Object a3) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, mensaje, 3, a1, a2, a3, null);
+    }
+
+    public static void info(String mensaje, Object... args) {
+        if (Nivel.INFO.ordinal() >= umbral) encolar(Nivel.INFO, mensaje, -1, null, null, null, args);
+    }
+
+    // ========== AVISO ==========
+
+    public static void aviso(String mensaje) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, mensaje, 0, null, null, null, null);
+    }
+
+    public static void aviso(String mensaje, Object a1) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, mensaje, 1, a1, null, null, null);
+    }
+
+    public static void aviso(String mensaje, Object a1, Object a2) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, mensaje, 2, a1, a2, null, null);
+    }
+
+    public static void aviso(String mensaje, Object a1, Object a2, Object a3) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, mensaje, 3, a1, a2, a3, null);
+    }
+
+    public static void aviso(String mensaje, Object... args) {
+        if (Nivel.AVISO.ordinal() >= umbral) encolar(Nivel.AVISO, mensaje, -1, null, null, null, args);
+    }
+
+    // ========== ERROR ==========
+
+    public static void error(String mensaje) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, mensaje, 0, null, null, null, null);
+    }
+
+    public static void error(String mensaje, Object a1) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, mensaje, 1, a1, null, null, null);
+    }
+
+    public static void error(String mensaje, Object a1, Object a2) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, mensaje, 2, a1, a2, null, null);
+    }
+
+    public static void error(String mensaje, Object a1, Object a2, Object a3) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, mensaje, 3, a1, a2, a3, null);
+    }
+
+    public static void error(String mensaje, Object... args) {
+        if (Nivel.ERROR.ordinal() >= umbral) encolar(Nivel.ERROR, mensaje, -1, null, null, null, args);
+    }
+
+    // ========== ANILLO ==========
+
+    private static void encolar(Nivel n, String mensaje, int aridad, Object a1, Object a2, Object a3, Object[] resto) {
+        Hueco h;
+        long pos;
+        while (true) {
+            pos = cola.get();
+            h = anillo[(int) pos & MASCARA];
+            long sec = h.secuencia;
+            if (sec == pos) {
+                if (cola.compareAndSet(pos, pos + 1)) break;
+            } else if (sec < pos) {
+                // El escritor va una vuelta por detrás: anillo lleno
+                descartadas.incrementAndGet();
+                return;
+            }
+            // Otro hilo reservó este hueco: reintentar con la cola nueva
+        }
+        h.nivel = n;
+        h.milis = System.currentTimeMillis();
+        h.hilo = Thread.currentThread().getName();
+        h.mensaje = mensaje;
+        h.aridad = aridad;
+        h.a1 = a1;
+        h.a2 = a2;
+        h.a3 = a3;
+        h.resto = resto;
+        h.secuencia = pos + 1;  // Publica los campos anteriores
+    }
+
+    private static void escribir() {
+        StringBuilder sb = new StringBuilder(256);
+        while (true) {
+            if (!drenar(sb)) {
+                salida.vaciarBuffer();
+                if (apagando) return;
+                LockSupport.parkNanos(1_000_000);
+            }
+        }
+    }
+
+    // Escribe todo lo publicado; false si no había nada
+    private static boolean drenar(StringBuilder sb) {
+        boolean algo = false;
+        while (true) {
+            Hueco h = anillo[(int) cabeza & MASCARA];
+            if (h.secuencia != cabeza + 1) return algo;
+            sb.setLength(0);
+            switch (h.aridad) {
+                case 0: sb.append(h.mensaje); break;
+                case 1: formatear(sb, h.mensaje, h.a1); break;
+                case 2: formatear(sb, h.mensaje, h.a1, h.a2); break;
+                case 3: formatear(sb, h.mensaje, h.a1, h.a2, h.a3); break;
+                default: formatear(sb, h.mensaje, h.resto); break;
+            }
+            salida.escribir(h.nivel, h.milis, h.hilo, sb);
+            h.mensaje = null;
+            h.a1 = h.a2 = h.a3 = null;
+            h.resto = null;
+            h.hilo = null;
+            h.secuencia = cabeza + CAPACIDAD;  // Libre para la siguiente vuelta
+            cabeza++;
+            algo = true;
+        }
+    }
+
+    static void formatear(StringBuilder sb, String mensaje, Object... args) {
+        int desde = 0;
+        if (args != null) {
+            for (Object arg : args) {
+                int hueco = mensaje.indexOf("{}", desde);
+                if (hueco < 0) break;
+                sb.append(mensaje, desde, hueco).append(arg);
+                desde = hueco + 2;
+            }
+        }
+        sb.append(mensaje, desde, mensaje.length());
+    }
+
+    // Al apagar se deja que el escritor vacíe el anillo para no perder las últimas líneas
+    private static void vaciar() {
+        apagando = true;
+        LockSupport.unpark(escritor);
+        try {
+            escritor.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    // ========== SALIDAS ==========
+
+    private abstract static class Salida {
+
+        static Salida crear() {
+            String fichero = Configuracion.texto("camellos.log.fichero", null);
+            if (fichero == null || fichero.isEmpty()) return new Consola();
+            return new Fichero(Paths.get(fichero),
+                    "json".equalsIgnoreCase(Configuracion.texto("camellos.log.formato", "texto")),
+                    Configuracion.largo("camellos.log.rotar.mb", 64) * 1024 * 1024,
+                    Configuracion.entero("camellos.log.ficheros", 5));
+        }
+
+        abstract void escribir(Nivel nivel, long milis, String hilo, CharSequence texto);
+
+        void vaciarBuffer() {
+        }
+    }
+
+    private static final class Consola extends Salida {
+        @Override
+        void escribir(Nivel nivel, long milis, String hilo, CharSequence texto) {
+            PrintStream destino = nivel.compareTo(Nivel.AVISO) >= 0 ? System.err : System.out;
+            destino.println(texto);
+        }
+    }
+
+    private static final class Fichero extends Salida {
+        private final Path ruta;
+        private final boolean json;
+        private final long maxBytes;
+        private final int maxFicheros;
+        private final StringBuilder linea = new StringBuilder(512);
+        private OutputStream flujo;
+        private long escritos;
+
+        Fichero(Path ruta, boolean json, long maxBytes, int maxFicheros) {
+            this.ruta = ruta;
+            this.json = json;
+            this.maxBytes = maxBytes;
+            this.maxFicheros = maxFicheros;
+        }
+
+        @Override
+        void escribir(Nivel nivel, long milis, String hilo, CharSequence texto) {
+            linea.setLength(0);
+            String fecha = Instant.ofEpochMilli(milis).toString();
+            if (json) {
+                linea.append("{\"t\":\"").append(fecha)
+                        .append("\",\"nivel\":\"").append(nivel)
+                        .append("\",\"hilo\":");
+                escaparJson(linea, hilo);
+                linea.append(",\"msg\":");
+                escaparJson(linea, texto);
+                linea.append("}\n");
+            } else {
+                linea.append(fecha).append(' ').append(nivel).append(" [").append(hilo).append("] ")
+                        .append(texto).append('\n');
+            }
+            byte[] bytes = linea.toString().getBytes(StandardCharsets.UTF_8);
+            try {
+                if (flujo == null) abrir();
+                if (escritos + bytes.length > maxBytes && escritos > 0) rotar();
+                flujo.write(bytes);
+                escritos += bytes.length;
+            } catch (IOException e) {
+                // Sin fichero no hay dónde avisar salvo la consola
+                System.err.println("[REGISTRO ERROR] " + ruta + ": " + e.getMessage());
+                flujo = null;
+            }
+        }
+
+        private void abrir() throws IOException {
+            Path padre = ruta.toAbsolutePath().getParent();
+            if (padre != null) Files.createDirectories(padre);
+            escritos = Files.exists(ruta) ? Files.size(ruta) : 0;
+            flujo = new BufferedOutputStream(Files.newOutputStream(ruta,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024);
+        }
+
+        private void rotar() throws IOException {
+            flujo.close();
+            for (int i = maxFicheros - 1; i >= 1; i--) {
+                Path origen = Paths.get(ruta + "." + i);
+                if (Files.exists(origen)) {
+                    Files.move(origen, Paths.get(ruta + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            if (maxFicheros > 0) {
+                Files.move(ruta, Paths.get(ruta + ".1"), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(ruta);
+            }
+            abrir();
+        }
+
+        @Override
+        void vaciarBuffer() {
+            try {
+                if (flujo != null) flujo.flush();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private static void escaparJson(StringBuilder sb, CharSequence s) {
+            sb.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"': sb.append("\\\""); break;
+                    case '\\': sb.append("\\\\"); break;
+                    case '\n': sb.append("\\n"); break;
+                    case '\r': sb.append("\\r"); break;
+                    case '\t': sb.append("\\t"); break;
+                    default:
+                        if (c < 0x20) {
+                            sb.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            sb.append(c);
+                        }
+                }
+            }
+            sb.append('"');
+        }
+    }
+}
@@ -9,12 +9,23 @@ public class AsignacionGrupo implements Serializable {
     public int puerto;
     public int tamGrupo;
     public long semillaCarrera;
+    public boolean multicast;  // PASO/CAIDA viajan por UDP a ipMulticast:puerto en lugar de por el servidor
+    public boolean autoritativa;  // El servidor calcula las posiciones y envía InstantaneaCarrera por tick
+    public long inicioCarrera;    // Hora del servidor (ms) a la que se da la salida; 0: ya
+    public long token;            // Propio de cada jugador: con él y idGrupo puede reanudar la sesión si se corta
 
     public AsignacionGrupo(int idGrupo, String ipMulticast, int puerto, int tamGrupo, long semillaCarrera) {
+        this(idGrupo, ipMulticast, puerto, tamGrupo, semillaCarrera, false, false);
+    }
+
+    public AsignacionGrupo(int idGrupo, String ipMulticast, int puerto, int tamGrupo, long semillaCarrera,
+                           boolean multicast, boolean autoritativa) {
         this.idGrupo = idGrupo;
         this.ipMulticast = ipMulticast;
         this.puerto = puerto;
         this.tamGrupo = tamGrupo;
         this.semillaCarrera = semillaCarrera;
+        this.multicast = multicast;
+        this.autoritativa = autoritativa;
     }
 }
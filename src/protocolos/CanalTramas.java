@@ -0,0 +1,76 @@
+package protocolos;
+
+import comun.Hilos;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Extremo bloqueante de una conexión por tramas, usado por el cliente y por el
+ * servidor en modo bloqueante. Un solo hilo lee; enviar() puede llamarse desde
+ * varios hilos y solo encola en la ColaSalida, que vacía un hilo escritor
+ * propio agrupando lo encolado en cada ventana de lote en una sola escritura.
+ */
+public class CanalTramas {
+    private final LectorTramas entrada;
+    private final OutputStream salida;
+    private final ColaSalida cola;
+    private final long ventanaLoteNanos;  // -1: la de ColaSalida, que puede cambiar en caliente
+    private volatile Runnable alFallar = () -> { };
+
+    public CanalTramas(InputStream entrada, OutputStream salida, CodecMensajes codecEntrada, CodecMensajes codecSalida,
+                       String nombre) {
+        this(entrada, salida, codecEntrada, codecSalida, nombre, -1);
+    }
+
+    public CanalTramas(InputStream entrada, OutputStream salida, CodecMensajes codecEntrada, CodecMensajes codecSalida,
+                       String nombre, long ventanaLoteNanos) {
+        this.entrada = new LectorTramas(entrada, codecEntrada);
+        this.salida = salida;
+        this.cola = new ColaSalida(codecSalida, ColaSalida.CAPACIDAD);
+        this.ventanaLoteNanos = ventanaLoteNanos;
+
+        Hilos.lanzar("escritor", "escritor-" + nombre, this::escribir);
+    }
+
+    /** Acción a ejecutar si falla una escritura (normalmente cerrar el socket). */
+    public void alFallarEscritura(Runnable accion) {
+        this.alFallar = accion;
+    }
+
+    public ColaSalida getCola() {
+        return cola;
+    }
+
+    public Object leer() throws IOException, ClassNotFoundException {
+        return entrada.leer();
+    }
+
+    /** Encola el mensaje; false si la cola de salida está llena. */
+    public boolean enviar(Object mensaje) throws IOException {
+        return cola.encolar(mensaje);
+    }
+
+    public boolean enviar(TramaCompartida trama) throws IOException {
+        return cola.encolar(trama);
+    }
+
+    public void cerrar() {
+        cola.cerrar();
+    }
+
+    private void escribir() {
+        try {
+            ByteBuffer b;
+            while ((b = cola.esperar(ventanaLoteNanos >= 0 ? ventanaLoteNanos : ColaSalida.ventanaLoteNanos())) != null) {
+                salida.write(b.array(), b.position(), b.remaining());
+                salida.flush();
+                Tramas.BYTES_SALIDA.sumar(b.remaining());
+                b.position(b.limit());
+            }
+        } catch (IOException | InterruptedException e) {
+            cola.cerrar();
+            alFallar.run();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package protocolos;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Clasificación de la carrera en curso tal como la ve el servidor: los K
+ * primeros con su posición y el puesto y posición del destinatario, para que
+ * un cliente con muchos rivales no tenga que seguir a todos. El servidor la
+ * envía a un ritmo limitado y solo cuando ha cambiado algo.
+ */
+public class ClasificacionParcial implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public int idGrupo;
+    public int participantes;
+    public int puesto;    // Del destinatario, empezando en 1
+    public int posicion;  // Del destinatario
+    public List<String> primeros;
+    public int[] posiciones;  // De los primeros
+
+    public ClasificacionParcial(int idGrupo, int participantes, int puesto, int posicion,
+                                List<String> primeros, int[] posiciones) {
+        this.idGrupo = idGrupo;
+        this.participantes = participantes;
+        this.puesto = puesto;
+        this.posicion = posicion;
+        this.primeros = primeros;
+        this.posiciones = posiciones;
+    }
+}
@@ -0,0 +1,562 @@
+package protocolos;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Codificación de los mensajes de protocolos en tramas con prefijo de longitud.
+ *
+ * Formato binario: [int longitud][byte tipo][campos], con enteros en varint y
+ * los ids de jugador sustituidos por un handle de la TablaIds. La primera vez
+ * que se usa un handle en una conexión se envía antes una trama DEF_ID con el
+ * texto. El formato Java (serialización estándar) se sigue aceptando: su primer
+ * byte es siempre 0xAC, así que el lector distingue ambos formatos trama a trama.
+ *
+ * Cada extremo de una conexión tiene su propio CodecMensajes; no es seguro
+ * usarlo desde varios hilos sin sincronizar por fuera.
+ */
+public class CodecMensajes {
+    public static final byte FORMATO_JAVA = 0;
+    public static final byte FORMATO_BINARIO = 1;
+
+    static final byte DEF_ID = 1;
+    static final byte SOLICITUD_CONEXION = 2;
+    static final byte ASIGNACION_GRUPO = 3;
+    static final byte EVENTO_CARRERA = 4;
+    static final byte HEARTBEAT = 5;
+    static final byte FIN_CARRERA = 6;
+    static final byte ERROR_PROTOCOLO = 7;
+    static final byte ESTADO_JUGADOR = 8;
+    static final byte INSTANTANEA_CARRERA = 9;
+    static final byte CLASIFICACION_PARCIAL = 10;
+    static final byte REDIRECCION = 11;
+    static final byte INFORME_CARGA = 12;
+
+    private static final byte MAGIA_JAVA = (byte) 0xAC;
+    private static final EventoCarrera.TipoEvento[] TIPOS = EventoCarrera.TipoEvento.values();
+
+    private byte formatoSalida;
+    private TablaIds tablaSalida;
+    private final BitSet definidos = new BitSet();
+    private int[] definidosAhora = new int[8];
+    private int numDefinidosAhora;
+    private boolean compartiendo = false;  // Solo anota los handles, sin escribir DEF_ID
+    private String[] tablaEntrada = new String[8];
+
+    public CodecMensajes(byte formatoSalida) {
+        this(formatoSalida, new TablaIds());
+    }
+
+    public CodecMensajes(byte formatoSalida, TablaIds tablaSalida) {
+        this.formatoSalida = formatoSalida;
+        this.tablaSalida = tablaSalida;
+    }
+
+    public byte getFormatoSalida() {
+        return formatoSalida;
+    }
+
+    public void setFormatoSalida(byte formatoSalida) {
+        this.formatoSalida = formatoSalida;
+    }
+
+    /** Cambia la tabla de handles de salida (p.ej. la del grupo al emparejar); los DEF_ID se reenviarán. */
+    public void setTablaSalida(TablaIds tablaSalida) {
+        if (this.tablaSalida != tablaSalida) {
+            this.tablaSalida = tablaSalida;
+            definidos.clear();
+        }
+    }
+
+    // ========== CODIFICACIÓN ==========
+
+    /**
+     * Añade a destino una o varias tramas completas (posibles DEF_ID seguidas del
+     * mensaje). Si no caben, destino queda como estaba y se lanza BufferOverflowException.
+     */
+    public void codificar(Object mensaje, ByteBuffer destino) throws IOException {
+        int inicio = destino.position();
+        numDefinidosAhora = 0;
+        try {
+            if (formatoSalida == FORMATO_JAVA) {
+                byte[] datos = Tramas.serializar(mensaje);
+                destino.putInt(datos.length).put(datos);
+            } else {
+                codificarBinario(mensaje, destino);
+            }
+        } catch (BufferOverflowException e) {
+            // Las DEF_ID escritas se han descartado junto con el mensaje
+            for (int i = 0; i < numDefinidosAhora; i++) definidos.clear(definidosAhora[i]);
+            destino.position(inicio);
+            throw e;
+        }
+    }
+
+    /**
+     * Copia a destino una trama ya codificada, precedida de los DEF_ID que este
+     * extremo aún no ha enviado. Si la trama no corresponde al formato o a la
+     * tabla de esta conexión se codifica el mensaje desde cero.
+     */
+    public void anexar(TramaCompartida trama, ByteBuffer destino) throws IOException {
+        if (formatoSalida == FORMATO_JAVA) {
+            destino.put(trama.java());
+            return;
+        }
+        if (trama.tabla != tablaSalida) {
+            codificar(trama.mensaje, destino);
+            return;
+        }
+
+        int inicio = destino.position();
+        numDefinidosAhora = 0;
+        try {
+            int[] handles = trama.handles();
+            String[] ids = trama.ids();
+            for (int i = 0; i < handles.length; i++) {
+                definirHandle(handles[i], ids[i], destino);
+            }
+            destino.put(trama.binario());
+        } catch (BufferOverflowException e) {
+            for (int i = 0; i < numDefinidosAhora; i++) definidos.clear(definidosAhora[i]);
+            destino.position(inicio);
+            throw e;
+        }
+    }
+
+    private void codificarBinario(Object mensaje, ByteBuffer d) throws IOException {
+        // Los DEF_ID van en tramas propias antes del mensaje que los usa
+        if (mensaje instanceof EventoCarrera) {
+            EventoCarrera e = (EventoCarrera) mensaje;
+            int h = definir(e.idCliente, d);
+            int inicio = abrirTrama(d, EVENTO_CARRERA);
+            d.put((byte) e.tipo.ordinal());
+            putVarInt(d, h);
+            putVarLong(d, e.tMarca);
+            putVarInt(d, e.pos);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof Heartbeat) {
+            Heartbeat hb = (Heartbeat) mensaje;
+            int h = definir(hb.idCliente, d);
+            int inicio = abrirTrama(d, HEARTBEAT);
+            putVarInt(d, h);
+            // nanoTime puede ser negativo: zigzag para que ocupe lo justo
+            putVarLong(d, (hb.tMarca << 1) ^ (hb.tMarca >> 63));
+            putVarLong(d, (hb.tEco << 1) ^ (hb.tEco >> 63));
+            putVarLong(d, hb.idaVuelta);
+            putVarLong(d, (hb.desfase << 1) ^ (hb.desfase >> 63));
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof FinCarrera) {
+            FinCarrera fin = (FinCarrera) mensaje;
+            int[] hs = new int[fin.ranking.size()];
+            for (int i = 0; i < hs.length; i++) {
+                hs[i] = definir(fin.ranking.get(i), d);
+            }
+            int inicio = abrirTrama(d, FIN_CARRERA);
+            putVarInt(d, fin.idGrupo);
+            putVarInt(d, hs.length);
+            for (int h : hs) putVarInt(d, h);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof InstantaneaCarrera) {
+            InstantaneaCarrera ins = (InstantaneaCarrera) mensaje;
+            int n = ins.ids.size();
+            for (int i = 0; i < n; i++) {
+                definir(ins.ids.get(i), d);
+            }
+            int inicio = abrirTrama(d, INSTANTANEA_CARRERA);
+            putVarInt(d, ins.idGrupo);
+            putVarInt(d, ins.tick);
+            d.put((byte) (ins.completa ? 1 : 0));
+            putVarInt(d, n);
+            for (int i = 0; i < n; i++) {
+                putVarInt(d, tablaSalida.handle(ins.ids.get(i)));
+                putVarInt(d, ins.posiciones[i]);
+            }
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof ClasificacionParcial) {
+            ClasificacionParcial cp = (ClasificacionParcial) mensaje;
+            int n = cp.primeros.size();
+            for (int i = 0; i < n; i++) {
+                definir(cp.primeros.get(i), d);
+            }
+            int inicio = abrirTrama(d, CLASIFICACION_PARCIAL);
+            putVarInt(d, cp.idGrupo);
+            putVarInt(d, cp.participantes);
+            putVarInt(d, cp.puesto);
+            putVarInt(d, cp.posicion);
+            putVarInt(d, n);
+            for (int i = 0; i < n; i++) {
+                putVarInt(d, tablaSalida.handle(cp.primeros.get(i)));
+                putVarInt(d, cp.posiciones[i]);
+            }
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof EstadoJugador) {
+            EstadoJugador ej = (EstadoJugador) mensaje;
+            int h = definir(ej.idCliente, d);
+            int inicio = abrirTrama(d, ESTADO_JUGADOR);
+            putVarInt(d, h);
+            d.put((byte) (ej.listo ? 1 : 0));
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof AsignacionGrupo) {
+            AsignacionGrupo a = (AsignacionGrupo) mensaje;
+            int inicio = abrirTrama(d, ASIGNACION_GRUPO);
+            putVarInt(d, a.idGrupo);
+            putString(d, a.ipMulticast);
+            putVarInt(d, a.puerto);
+            putVarInt(d, a.tamGrupo);
+            d.putLong(a.semillaCarrera);
+            d.put((byte) ((a.multicast ? 1 : 0) | (a.autoritativa ? 2 : 0)));
+            putVarLong(d, a.inicioCarrera);
+            d.putLong(a.token);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof SolicitudConexion) {
+            SolicitudConexion s = (SolicitudConexion) mensaje;
+            int inicio = abrirTrama(d, SOLICITUD_CONEXION);
+            putString(d, s.idCliente);
+            d.put(s.formato);
+            d.putLong(s.token);
+            putVarInt(d, s.idGrupo);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof Redireccion) {
+            Redireccion r = (Redireccion) mensaje;
+            int inicio = abrirTrama(d, REDIRECCION);
+            putString(d, r.host);
+            putVarInt(d, r.puerto);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof InformeCarga) {
+            InformeCarga ic = (InformeCarga) mensaje;
+            int inicio = abrirTrama(d, INFORME_CARGA);
+            putString(d, ic.host);
+            putVarInt(d, ic.puerto);
+            putVarInt(d, ic.conexiones);
+            putVarInt(d, ic.grupos);
+            putVarInt(d, ic.capacidad);
+            cerrarTrama(d, inicio);
+
+        } else if (mensaje instanceof ErrorProtocolo) {
+            ErrorProtocolo err = (ErrorProtocolo) mensaje;
+            int inicio = abrirTrama(d, ERROR_PROTOCOLO);
+            putVarInt(d, (err.codigo << 1) ^ (err.codigo >> 31));
+            putString(d, err.detalle);
+            cerrarTrama(d, inicio);
+
+        } else {
+            throw new IOException("Mensaje sin codificación binaria: " + mensaje.getClass().getName());
+        }
+    }
+
+    private int definir(String id, ByteBuffer d) {
+        int h = tablaSalida.handle(id);
+        if (compartiendo) {
+            anotar(h);
+            return h;
+        }
+        definirHandle(h, id, d);
+        return h;
+    }
+
+    private void definirHandle(int h, String id, ByteBuffer d) {
+        if (!definidos.get(h)) {
+            int inicio = abrirTrama(d, DEF_ID);
+            putVarInt(d, h);
+            putString(d, id);
+            cerrarTrama(d, inicio);
+            definidos.set(h);
+            anotar(h);
+        }
+    }
+
+    private void anotar(int h) {
+        if (numDefinidosAhora == definidosAhora.length) {
+            definidosAhora = Arrays.copyOf(definidosAhora, numDefinidosAhora * 2);
+        }
+        definidosAhora[numDefinidosAhora++] = h;
+    }
+
+    /**
+     * Codificador para las tramas compartidas: escribe en un buffer propio y anota
+     * los handles. Se toma de una reserva pequeña y se devuelve al acabar, así que
+     * no hay uno por hilo; el buffer empieza ajustado y crece solo si la trama no
+     * cabe, y uno que haya crecido mucho no vuelve a la reserva.
+     */
+    static final class Compartidor {
+        private static final int INICIAL = 256;
+        private static final int MAX_CONSERVADO = 4 * 1024;
+        private static final ArrayBlockingQueue<Compartidor> LIBRES =
+                new ArrayBlockingQueue<>(2 * Runtime.getRuntime().availableProcessors());
+
+        private final CodecMensajes codec = new CodecMensajes(FORMATO_BINARIO);
+        private ByteBuffer buffer = ByteBuffer.allocate(INICIAL);
+
+        private Compartidor() {
+            codec.compartiendo = true;
+        }
+
+        static Compartidor tomar() {
+            Compartidor c = LIBRES.poll();
+            return c != null ? c : new Compartidor();
+        }
+
+        void devolver() {
+            if (buffer.capacity() <= MAX_CONSERVADO) LIBRES.offer(this);
+        }
+
+        ByteBuffer codificar(Object mensaje, TablaIds tabla) throws IOException {
+            while (true) {
+                codec.tablaSalida = tabla;
+                codec.numDefinidosAhora = 0;
+                buffer.clear();
+                try {
+                    codec.codificarBinario(mensaje, buffer);
+                    return buffer;
+                } catch (BufferOverflowException e) {
+                    if (buffer.capacity() >= Tramas.MAX_TRAMA) {
+                        throw new IOException("Mensaje demasiado grande: " + mensaje.getClass().getSimpleName());
+                    }
+                    buffer = ByteBuffer.allocate(Math.min(Tramas.MAX_TRAMA, buffer.capacity() * 2));
+                }
+            }
+        }
+
+        int[] handlesUsados() {
+            return Arrays.copyOf(codec.definidosAhora, codec.numDefinidosAhora);
+        }
+    }
+
+    private static int abrirTrama(ByteBuffer d, byte tipo) {
+        int inicio = d.position();
+        d.putInt(0);
+        d.put(tipo);
+        return inicio;
+    }
+
+    private static void cerrarTrama(ByteBuffer d, int inicio) {
+        d.putInt(inicio, d.position() - inicio - 4);
+    }
+
+    // ========== DECODIFICACIÓN ==========
+
+    /** Si una trama viene en formato Java (serialización estándar) por su primer byte. */
+    public static boolean esFormatoJava(byte[] datos, int offset) {
+        return datos[offset] == MAGIA_JAVA;
+    }
+
+    /**
+     * Decodifica el contenido de una trama (sin el prefijo de longitud). Devuelve
+     * null para las tramas de control (DEF_ID), que solo actualizan la tabla.
+     */
+    public Object decodificar(byte[] datos, int offset, int longitud) throws IOException, ClassNotFoundException {
+        if (longitud <= 0) throw new StreamCorruptedException("Trama vacía");
+        if (datos[offset] == MAGIA_JAVA) {
+            return Tramas.deserializar(datos, offset, longitud);
+        }
+
+        ByteBuffer b = ByteBuffer.wrap(datos, offset, longitud);
+        try {
+            return decodificarBinario(b);
+        } catch (BufferUnderflowException e) {
+            // Un campo dice seguir más allá del final: la trama viene cortada
+            throw new StreamCorruptedException("Trama truncada");
+        }
+    }
+
+    private Object decodificarBinario(ByteBuffer b) throws StreamCorruptedException {
+        byte tipo = b.get();
+        switch (tipo) {
+            case DEF_ID: {
+                int h = getVarInt(b);
+                // El handle lo elige el otro extremo: nada de reservar lo que pida
+                if (h < 0 || h >= TablaIds.MAX_IDS) throw new StreamCorruptedException("Handle de jugador fuera de rango: " + h);
+                String id = getString(b);
+                if (h >= tablaEntrada.length) {
+                    tablaEntrada = Arrays.copyOf(tablaEntrada, h + 1);
+                }
+                tablaEntrada[h] = id;
+                return null;
+            }
+            case EVENTO_CARRERA: {
+                int ordinal = b.get();
+                if (ordinal < 0 || ordinal >= TIPOS.length) throw new StreamCorruptedException("Tipo de evento inválido: " + ordinal);
+                String id = idEntrante(getVarInt(b));
+                long tMarca = getVarLong(b);
+                int pos = getVarInt(b);
+                return new EventoCarrera(TIPOS[ordinal], id, tMarca, pos);
+            }
+            case HEARTBEAT: {
+                String id = idEntrante(getVarInt(b));
+                Heartbeat hb = new Heartbeat(id, getZigZagLong(b));
+                hb.tEco = getZigZagLong(b);
+                hb.idaVuelta = getVarLong(b);
+                hb.desfase = getZigZagLong(b);
+                return hb;
+            }
+            case FIN_CARRERA: {
+                int idGrupo = getVarInt(b);
+                int n = contar(b, "Ranking");
+                List<String> ranking = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) ranking.add(idEntrante(getVarInt(b)));
+                return new FinCarrera(idGrupo, ranking);
+            }
+            case INSTANTANEA_CARRERA: {
+                int idGrupo = getVarInt(b);
+                int tick = getVarInt(b);
+                boolean completa = b.get() != 0;
+                int n = contar(b, "Instantánea");
+                List<String> ids = new ArrayList<>(n);
+                int[] posiciones = new int[n];
+                for (int i = 0; i < n; i++) {
+                    ids.add(idEntrante(getVarInt(b)));
+                    posiciones[i] = getVarInt(b);
+                }
+                return new InstantaneaCarrera(idGrupo, tick, completa, ids, posiciones);
+            }
+            case CLASIFICACION_PARCIAL: {
+                int idGrupo = getVarInt(b);
+                int participantes = getVarInt(b);
+                int puesto = getVarInt(b);
+                int posicion = getVarInt(b);
+                int n = contar(b, "Clasificación");
+                List<String> primeros = new ArrayList<>(n);
+                int[] posiciones = new int[n];
+                for (int i = 0; i < n; i++) {
+                    primeros.add(idEntrante(getVarInt(b)));
+                    posiciones[i] = getVarInt(b);
+                }
+                return new ClasificacionParcial(idGrupo, participantes, puesto, posicion, primeros, posiciones);
+            }
+            case ESTADO_JUGADOR: {
+                String id = idEntrante(getVarInt(b));
+                return new EstadoJugador(id, b.get() != 0);
+            }
+            case ASIGNACION_GRUPO: {
+                int idGrupo = getVarInt(b);
+                String ip = getString(b);
+                int puerto = getVarInt(b);
+                int tamGrupo = getVarInt(b);
+                long semilla = b.getLong();
+                byte flags = b.get();
+                AsignacionGrupo a = new AsignacionGrupo(idGrupo, ip, puerto, tamGrupo, semilla, (flags & 1) != 0, (flags & 2) != 0);
+                a.inicioCarrera = getVarLong(b);
+                a.token = b.getLong();
+                return a;
+            }
+            case SOLICITUD_CONEXION: {
+                String id = getString(b);
+                SolicitudConexion s = new SolicitudConexion(id, b.get());
+                s.token = b.getLong();
+                s.idGrupo = getVarInt(b);
+                return s;
+            }
+            case REDIRECCION: {
+                String host = getString(b);
+                return new Redireccion(host, getVarInt(b));
+            }
+            case INFORME_CARGA: {
+                String host = getString(b);
+                int puerto = getVarInt(b);
+                int conexiones = getVarInt(b);
+                int grupos = getVarInt(b);
+                return new InformeCarga(host, puerto, conexiones, grupos, getVarInt(b));
+            }
+            case ERROR_PROTOCOLO: {
+                int z = getVarInt(b);
+                return new ErrorProtocolo((z >>> 1) ^ -(z & 1), getString(b));
+            }
+            default:
+                throw new StreamCorruptedException("Tipo de trama desconocido: " + tipo);
+        }
+    }
+
+    // Cuántos elementos dice la trama que siguen; cada uno ocupa al menos un byte
+    private static int contar(ByteBuffer b, String que) throws StreamCorruptedException {
+        int n = getVarInt(b);
+        if (n < 0 || n > b.remaining()) throw new StreamCorruptedException(que + " fuera de la trama: " + n);
+        return n;
+    }
+
+    private String idEntrante(int h) throws StreamCorruptedException {
+        if (h < 0 || h >= tablaEntrada.length || tablaEntrada[h] == null) {
+            throw new StreamCorruptedException("Handle de jugador no definido: " + h);
+        }
+        return tablaEntrada[h];
+    }
+
+    // ========== PRIMITIVAS ==========
+
+    static void putVarInt(ByteBuffer d, int v) {
+        while ((v & ~0x7F) != 0) {
+            d.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        d.put((byte) v);
+    }
+
+    static void putVarLong(ByteBuffer d, long v) {
+        while ((v & ~0x7FL) != 0) {
+            d.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        d.put((byte) v);
+    }
+
+    static int getVarInt(ByteBuffer b) throws StreamCorruptedException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte x = b.get();
+            v |= (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+        throw new StreamCorruptedException("Varint demasiado largo");
+    }
+
+    static long getVarLong(ByteBuffer b) throws StreamCorruptedException {
+        long v = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+        throw new StreamCorruptedException("Varlong demasiado largo");
+    }
+
+    static long getZigZagLong(ByteBuffer b) throws StreamCorruptedException {
+        long z = getVarLong(b);
+        return (z >>> 1) ^ -(z & 1);
+    }
+
+    static void putString(ByteBuffer d, String s) {
+        if (s == null) {
+            putVarInt(d, 0);
+            return;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        putVarInt(d, bytes.length + 1);
+        d.put(bytes);
+    }
+
+    static String getString(ByteBuffer b) throws StreamCorruptedException {
+        int n = getVarInt(b) - 1;
+        if (n == -1) return null;
+        if (n < 0 || n > b.remaining()) throw new StreamCorruptedException("Cadena fuera de la trama");
+        String s = new String(b.array(), b.arrayOffset() + b.position(), n, StandardCharsets.UTF_8);
+        b.position(b.position() + n);
+        return s;
+    }
+}
@@ -0,0 +1,209 @@
+package protocolos;
+
+import comun.Configuracion;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Cola de salida acotada de una conexión, con dos buffers alternos: los
+ * productores codifican en el activo mientras el escritor vuelca el otro al
+ * socket sin retener el cerrojo. Si el activo no tiene sitio para un mensaje,
+ * encolar() devuelve false y quien envía decide qué hacer (descartar o cortar).
+ * Los buffers empiezan pequeños y crecen hasta la capacidad solo si hace falta,
+ * para que una conexión parada apenas ocupe memoria.
+ *
+ * Todo lo que se encola dentro de la ventana de lote (-Dcamellos.lote.ms) sale
+ * en una sola escritura; con ventana 0 se escribe en cuanto el escritor puede.
+ *
+ * Se usa ReentrantLock en lugar de synchronized para que el escritor que espera
+ * no bloquee el hilo portador cuando corre en un hilo virtual.
+ */
+public class ColaSalida {
+    public static final int CAPACIDAD = Configuracion.entero("camellos.salida.capacidad", 16 * 1024);
+    private static final int INICIAL = 512;
+    // Se puede cambiar en caliente: cada escritor la vuelve a leer en cada lote
+    public static final Configuracion.Ajuste VENTANA_LOTE_MS = Configuracion.ajuste("camellos.lote.ms", 1, 0, 1000);
+
+    private final CodecMensajes codec;
+    private final int capacidad;
+    private ByteBuffer activo;
+    private ByteBuffer enVuelo;
+    private long primerEncolado;  // nanoTime del primer mensaje del lote activo
+    private boolean cerrada = false;
+
+    private final ReentrantLock cerrojo = new ReentrantLock();
+    private final Condition hayDatos = cerrojo.newCondition();
+
+    public ColaSalida(CodecMensajes codec, int capacidad) {
+        this.codec = codec;
+        this.capacidad = capacidad;
+        this.activo = ByteBuffer.allocate(Math.min(INICIAL, capacidad));
+        this.enVuelo = ByteBuffer.allocate(Math.min(INICIAL, capacidad));
+        this.enVuelo.flip();
+    }
+
+    public static long ventanaLoteNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(VENTANA_LOTE_MS.valor());
+    }
+
+    public boolean encolar(Object mensaje) throws IOException {
+        cerrojo.lock();
+        try {
+            if (cerrada) throw new IOException("Conexión cerrada");
+            boolean vacio = activo.position() == 0;
+            while (true) {
+                try {
+                    codec.codificar(mensaje, activo);
+                    break;
+                } catch (BufferOverflowException e) {
+                    if (!crecer()) return false;
+                }
+            }
+            encolado(vacio);
+            return true;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    public boolean encolar(TramaCompartida trama) throws IOException {
+        cerrojo.lock();
+        try {
+            if (cerrada) throw new IOException("Conexión cerrada");
+            boolean vacio = activo.position() == 0;
+            while (true) {
+                try {
+                    codec.anexar(trama, activo);
+                    break;
+                } catch (BufferOverflowException e) {
+                    if (!crecer()) return false;
+                }
+            }
+            encolado(vacio);
+            return true;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    // Dobla el buffer activo (el codec lo ha dejado como estaba); false si ya está al máximo
+    private boolean crecer() {
+        if (activo.capacity() >= capacidad) return false;
+        ByteBuffer nuevo = ByteBuffer.allocate(Math.min(capacidad, activo.capacity() * 2));
+        activo.flip();
+        nuevo.put(activo);
+        activo = nuevo;
+        return true;
+    }
+
+    private void encolado(boolean eraPrimero) {
+        if (eraPrimero) {
+            primerEncolado = System.nanoTime();
+        }
+        hayDatos.signalAll();
+    }
+
+    public void usarFormato(byte formato) {
+        cerrojo.lock();
+        try {
+            codec.setFormatoSalida(formato);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    public void usarTabla(TablaIds tabla) {
+        cerrojo.lock();
+        try {
+            codec.setTablaSalida(tabla);
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Devuelve el buffer que toca escribir (en modo lectura) o null si no hay
+     * nada pendiente. El llamante lo escribe fuera del cerrojo y vuelve a llamar
+     * cuando lo haya vaciado. No espera a la ventana de lote: el llamante decide
+     * cuándo escribir.
+     */
+    public ByteBuffer tomar() {
+        cerrojo.lock();
+        try {
+            if (enVuelo.hasRemaining()) return enVuelo;
+            if (activo.position() == 0) return null;
+
+            ByteBuffer lleno = activo;
+            activo = enVuelo;
+            activo.clear();
+            enVuelo = lleno;
+            enVuelo.flip();
+            return enVuelo;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Como tomar(), pero espera a que haya datos y a que venza la ventana de lote
+     * desde el primer mensaje (o a que el lote ocupe media cola). Devuelve null
+     * si la cola se cierra.
+     */
+    public ByteBuffer esperar(long ventanaNanos) throws InterruptedException {
+        cerrojo.lock();
+        try {
+            while (!enVuelo.hasRemaining() && activo.position() == 0) {
+                if (cerrada) return null;
+                hayDatos.await();
+            }
+
+            if (!enVuelo.hasRemaining()) {
+                long restante;
+                while (!cerrada && activo.position() < capacidad / 2
+                        && (restante = primerEncolado + ventanaNanos - System.nanoTime()) > 0) {
+                    hayDatos.awaitNanos(restante);
+                }
+            }
+            return tomar();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    public boolean vacia() {
+        cerrojo.lock();
+        try {
+            return !enVuelo.hasRemaining() && activo.position() == 0;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    /**
+     * Si lo pendiente ocupa ya media cola: quien le reenvía debería frenar
+     * antes de que se llene y haya que descartar.
+     */
+    public boolean saturada() {
+        cerrojo.lock();
+        try {
+            return enVuelo.remaining() + activo.position() >= capacidad / 2;
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+
+    public void cerrar() {
+        cerrojo.lock();
+        try {
+            cerrada = true;
+            hayDatos.signalAll();
+        } finally {
+            cerrojo.unlock();
+        }
+    }
+}
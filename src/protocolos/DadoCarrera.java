@@ -0,0 +1,24 @@
+package protocolos;
+
+import java.util.Random;
+
+/**
+ * Tirada de 1 a 3 pasos por clic. La secuencia depende solo de la semilla de la
+ * carrera y del id del jugador, así que cliente y servidor obtienen exactamente
+ * las mismas tiradas: el cliente puede predecir su posición y el servidor, en
+ * modo autoritativo, calcularla sin fiarse de lo que diga el cliente.
+ */
+public class DadoCarrera {
+    public static final int PIXELES_POR_PASO = 20;
+
+    private final Random random;
+
+    public DadoCarrera(long semillaCarrera, String idCliente) {
+        this.random = new Random(semillaCarrera * 31 + idCliente.hashCode());
+    }
+
+    /** Píxeles que avanza el camello en este clic. */
+    public int tirar() {
+        return (random.nextInt(3) + 1) * PIXELES_POR_PASO;
+    }
+}
@@ -0,0 +1,90 @@
+package protocolos;
+
+import comun.Configuracion;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.Collections;
+
+/**
+ * Actualización de posición enviada por UDP al grupo multicast de la carrera.
+ * Cada datagrama es autocontenido (el id de jugador va en texto, no hay DEF_ID
+ * porque UDP puede perderlos) y lleva una secuencia por emisor para que el
+ * receptor detecte huecos y descarte lo que llega desordenado.
+ *
+ * Se reutiliza la misma instancia para leer todos los datagramas de un canal.
+ */
+public class DatagramaPosicion {
+    public static final int TAM_MAX = 512;
+    private static final byte VERSION = 1;
+    private static final EventoCarrera.TipoEvento[] TIPOS = EventoCarrera.TipoEvento.values();
+
+    public int idGrupo;
+    public String idCliente;
+    public int secuencia;
+    public EventoCarrera.TipoEvento tipo;
+    public long tMarca;
+    public int pos;
+
+    public void escribir(ByteBuffer d) {
+        d.put(VERSION);
+        CodecMensajes.putVarInt(d, idGrupo);
+        CodecMensajes.putString(d, idCliente);
+        CodecMensajes.putVarInt(d, secuencia);
+        d.put((byte) tipo.ordinal());
+        CodecMensajes.putVarLong(d, tMarca);
+        CodecMensajes.putVarInt(d, pos);
+    }
+
+    public void leer(ByteBuffer b) throws StreamCorruptedException {
+        try {
+            if (b.get() != VERSION) throw new StreamCorruptedException("Versión de datagrama desconocida");
+            idGrupo = CodecMensajes.getVarInt(b);
+            idCliente = CodecMensajes.getString(b);
+            secuencia = CodecMensajes.getVarInt(b);
+            int ordinal = b.get();
+            if (ordinal < 0 || ordinal >= TIPOS.length) throw new StreamCorruptedException("Tipo de evento inválido: " + ordinal);
+            tipo = TIPOS[ordinal];
+            tMarca = CodecMensajes.getVarLong(b);
+            pos = CodecMensajes.getVarInt(b);
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("Datagrama truncado");
+        }
+    }
+
+    /**
+     * Abre un canal UDP unido al grupo multicast indicado. La interfaz se elige
+     * con -Dcamellos.multicast.interfaz (p.ej. "lo" para pruebas en una sola
+     * máquina); por defecto la primera interfaz activa con multicast.
+     */
+    public static DatagramChannel abrirCanal(String ipMulticast, int puerto) throws IOException {
+        InetAddress grupo = InetAddress.getByName(ipMulticast);
+        NetworkInterface interfaz = interfazMulticast();
+
+        DatagramChannel canal = DatagramChannel.open(StandardProtocolFamily.INET);
+        canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        canal.bind(new InetSocketAddress(puerto));
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_IF, interfaz);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+        canal.setOption(StandardSocketOptions.IP_MULTICAST_TTL, 1);
+        canal.join(grupo, interfaz);
+        return canal;
+    }
+
+    private static NetworkInterface interfazMulticast() throws SocketException {
+        String nombre = Configuracion.texto("camellos.multicast.interfaz", null);
+        if (nombre != null) {
+            NetworkInterface ni = NetworkInterface.getByName(nombre);
+            if (ni == null) throw new SocketException("Interfaz multicast no encontrada: " + nombre);
+            return ni;
+        }
+        for (NetworkInterface ni : Collections.list(NetworkInterface.getNetworkInterfaces())) {
+            if (ni.isUp() && ni.supportsMulticast() && !ni.isLoopback()) return ni;
+        }
+        return NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    }
+}
@@ -9,7 +9,7 @@ public class EventoCarrera implements Serializable {
 
     public TipoEvento tipo;
     public String idCliente;
-    public long tMarca;
+    public long tMarca;  // Instante del evento en ms según el reloj del servidor (estimado por quien lo envía)
     public int pos;
 
     public EventoCarrera(TipoEvento tipo, String idCliente, long tMarca, int pos) {
@@ -2,10 +2,21 @@ package protocolos;
 
 import java.io.Serializable;
 
+/**
+ * Pulso del cliente y, de vuelta, el eco del servidor, al estilo NTP: el
+ * cliente pone en tMarca su System.nanoTime y el servidor lo devuelve en
+ * tEco junto con su hora en tMarca, así que al llegar el eco el cliente
+ * tiene la ida y vuelta medida con su propio reloj monótono y la hora del
+ * servidor a mitad de camino. En el pulso siguiente el cliente informa de lo
+ * que ha estimado (idaVuelta y desfase) para que el servidor lo conozca.
+ */
 public class Heartbeat implements Serializable {
     private static final long serialVersionUID = 1L;
     public String idCliente;
-    public long tMarca;
+    public long tMarca;      // Cliente: su nanoTime al enviar. Eco: hora del servidor en ms
+    public long tEco;        // Eco: tMarca del pulso al que contesta; 0 en los del cliente
+    public long idaVuelta;   // Cliente: ida y vuelta estimada en ns; 0 si aún no hay
+    public long desfase;     // Cliente: ms que el servidor va por delante de su reloj
 
     public Heartbeat(String idCliente, long tMarca) {
         this.idCliente = idCliente;
@@ -0,0 +1,25 @@
+package protocolos;
+
+import java.io.Serializable;
+
+/**
+ * Carga de un servidor de carreras, que este envía periódicamente por UDP al
+ * Enrutador. host es la dirección que deben usar los clientes; si es null el
+ * enrutador usa la de origen del datagrama.
+ */
+public class InformeCarga implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String host;
+    public int puerto;       // Puerto TCP de los clientes
+    public int conexiones;   // Clientes conectados
+    public int grupos;       // Grupos con carrera en curso o por liberar
+    public int capacidad;    // Máximo de clientes que admite; 0 sin límite
+
+    public InformeCarga(String host, int puerto, int conexiones, int grupos, int capacidad) {
+        this.host = host;
+        this.puerto = puerto;
+        this.conexiones = conexiones;
+        this.grupos = grupos;
+        this.capacidad = capacidad;
+    }
+}
@@ -0,0 +1,26 @@
+package protocolos;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Estado de la carrera calculado por el servidor en un tick. Normalmente solo
+ * incluye los camellos que se han movido desde el tick anterior; cada cierto
+ * número de ticks se envía una completa para corregir si se perdió alguna.
+ */
+public class InstantaneaCarrera implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public int idGrupo;
+    public int tick;
+    public boolean completa;
+    public List<String> ids;
+    public int[] posiciones;
+
+    public InstantaneaCarrera(int idGrupo, int tick, boolean completa, List<String> ids, int[] posiciones) {
+        this.idGrupo = idGrupo;
+        this.tick = tick;
+        this.completa = completa;
+        this.ids = ids;
+        this.posiciones = posiciones;
+    }
+}
@@ -0,0 +1,35 @@
+package protocolos;
+
+import java.io.*;
+
+/**
+ * Lectura bloqueante de tramas desde un stream, reutilizando el buffer entre
+ * mensajes. Las tramas de control (DEF_ID) se consumen aquí y no se devuelven.
+ */
+public class LectorTramas {
+    private final DataInputStream entrada;
+    private final CodecMensajes codec;
+    private byte[] lectura = new byte[256];
+
+    public LectorTramas(InputStream entrada, CodecMensajes codec) {
+        this.entrada = new DataInputStream(new BufferedInputStream(entrada));
+        this.codec = codec;
+    }
+
+    public Object leer() throws IOException, ClassNotFoundException {
+        while (true) {
+            int longitud = entrada.readInt();
+            if (longitud <= 0 || longitud > Tramas.MAX_TRAMA) {
+                throw new StreamCorruptedException("Longitud de trama inválida: " + longitud);
+            }
+            if (longitud > lectura.length) {
+                lectura = new byte[Math.max(longitud, lectura.length * 2)];
+            }
+            entrada.readFully(lectura, 0, longitud);
+            Tramas.BYTES_ENTRADA.sumar(4 + longitud);
+
+            Object mensaje = codec.decodificar(lectura, 0, longitud);
+            if (mensaje != null) return mensaje;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package protocolos;
+
+import java.io.Serializable;
+
+/**
+ * Respuesta del Enrutador a una SolicitudConexion: el servidor de carreras
+ * al que el cliente debe conectarse y repetir la solicitud. Tras enviarla el
+ * enrutador cierra la conexión.
+ */
+public class Redireccion implements Serializable {
+    private static final long serialVersionUID = 1L;
+    public String host;
+    public int puerto;
+
+    public Redireccion(String host, int puerto) {
+        this.host = host;
+        this.puerto = puerto;
+    }
+}
@@ -5,8 +5,17 @@ import java.io.Serializable;
 public class SolicitudConexion implements Serializable {
     private static final long serialVersionUID = 1L;
     public String idCliente;
+    public byte formato;  // Formato en el que el cliente quiere recibir (CodecMensajes.FORMATO_*)
+    // Para reanudar tras un corte: el token y el grupo de AsignacionGrupo; 0 en una conexión nueva
+    public long token;
+    public int idGrupo;
 
     public SolicitudConexion(String idCliente) {
+        this(idCliente, CodecMensajes.FORMATO_JAVA);
+    }
+
+    public SolicitudConexion(String idCliente, byte formato) {
         this.idCliente = idCliente;
+        this.formato = formato;
     }
 }
@@ -0,0 +1,38 @@
+package protocolos;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Asigna a cada id de jugador un entero pequeño para no repetir el texto en
+ * cada mensaje binario. Los handles crecen de forma consecutiva desde 0.
+ */
+public class TablaIds {
+    /** Handles como mucho: uno por carril del grupo más grande que se puede configurar. */
+    public static final int MAX_IDS = 1024;
+
+    private final Map<String, Integer> handles = new HashMap<>();
+    private String[] ids = new String[8];
+
+    public synchronized int handle(String id) {
+        Integer h = handles.get(id);
+        if (h != null) return h;
+
+        int nuevo = handles.size();
+        if (nuevo == ids.length) {
+            ids = Arrays.copyOf(ids, nuevo * 2);
+        }
+        ids[nuevo] = id;
+        handles.put(id, nuevo);
+        return nuevo;
+    }
+
+    public synchronized String id(int handle) {
+        return handle < handles.size() ? ids[handle] : null;
+    }
+
+    public synchronized int tamano() {
+        return handles.size();
+    }
+}
@@ -0,0 +1,69 @@
+package protocolos;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mensaje codificado una sola vez para enviarlo a varios destinatarios. Cada
+ * formato se genera la primera vez que algún destinatario lo necesita y a partir
+ * de ahí los bytes no cambian; cada conexión solo los copia a su cola de salida.
+ *
+ * Los handles de jugador del formato binario salen de la TablaIds indicada, que
+ * debe ser la misma que usan las conexiones destinatarias (la del grupo).
+ */
+public final class TramaCompartida {
+    final Object mensaje;
+    final TablaIds tabla;
+
+    private byte[] binario;
+    private int[] handles;
+    private String[] ids;
+    private byte[] java;
+
+    public TramaCompartida(Object mensaje, TablaIds tabla) {
+        this.mensaje = mensaje;
+        this.tabla = tabla;
+    }
+
+    public Object getMensaje() {
+        return mensaje;
+    }
+
+    synchronized byte[] binario() throws IOException {
+        if (binario == null) {
+            CodecMensajes.Compartidor c = CodecMensajes.Compartidor.tomar();
+            try {
+                ByteBuffer b = c.codificar(mensaje, tabla);
+                binario = Arrays.copyOf(b.array(), b.position());
+                handles = c.handlesUsados();
+            } finally {
+                c.devolver();
+            }
+            ids = new String[handles.length];
+            for (int i = 0; i < handles.length; i++) {
+                ids[i] = tabla.id(handles[i]);
+            }
+        }
+        return binario;
+    }
+
+    /** Handles que el destinatario debe tener definidos antes de recibir la trama binaria. */
+    synchronized int[] handles() throws IOException {
+        binario();
+        return handles;
+    }
+
+    synchronized String[] ids() throws IOException {
+        binario();
+        return ids;
+    }
+
+    synchronized byte[] java() throws IOException {
+        if (java == null) {
+            byte[] datos = Tramas.serializar(mensaje);
+            java = ByteBuffer.allocate(4 + datos.length).putInt(datos.length).put(datos).array();
+        }
+        return java;
+    }
+}
@@ -0,0 +1,38 @@
+package protocolos;
+
+import comun.Metricas;
+
+import java.io.*;
+
+/**
+ * Delimitación de mensajes en el socket: cada mensaje viaja como un entero
+ * con la longitud seguido de sus bytes. Así el servidor NIO puede separar
+ * mensajes sin bloquearse y el bloqueante sigue funcionando igual.
+ *
+ * Aquí solo queda el formato Java (serialización estándar); la codificación
+ * de cada conexión la decide CodecMensajes.
+ */
+public final class Tramas {
+    public static final int MAX_TRAMA = 64 * 1024;
+
+    // Bytes en el socket de todas las conexiones del proceso, con prefijos de longitud
+    public static final Metricas.Contador BYTES_ENTRADA = Metricas.contador("camellos_bytes_entrada_total", "Bytes recibidos por TCP");
+    public static final Metricas.Contador BYTES_SALIDA = Metricas.contador("camellos_bytes_salida_total", "Bytes enviados por TCP");
+
+    private Tramas() {
+    }
+
+    public static byte[] serializar(Object mensaje) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(mensaje);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Object deserializar(byte[] datos, int offset, int longitud) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(datos, offset, longitud))) {
+            return ois.readObject();
+        }
+    }
+}
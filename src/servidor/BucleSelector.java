@@ -0,0 +1,142 @@
+package servidor;
+
+import comun.Registro;
+import protocolos.ColaSalida;
+
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hilo de E/S que atiende un subconjunto de conexiones con un único Selector.
+ * Otros hilos le piden cambios (registrar canal, escribir una conexión) mediante
+ * colas que se vacían en cada vuelta del bucle.
+ *
+ * Las escrituras se agrupan: una conexión con datos nuevos se escribe cuando
+ * vence la ventana de lote desde que se pidió, no en cuanto llega cada mensaje.
+ * Como la ventana es la misma para todas, los plazos llegan ya ordenados (si
+ * se acorta en caliente, lo ya programado sale como mucho con la ventana vieja).
+ */
+class BucleSelector implements Runnable {
+    private final ServidorEmparejamiento servidor;
+    private final Selector selector;
+    private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+    private final Queue<EscrituraProgramada> escrituras = new ConcurrentLinkedQueue<>();
+    private volatile long despertarEn = 0;  // Plazo con el que duerme el selector; 0 = sin plazo
+
+    private static final class EscrituraProgramada {
+        final ConexionNio conexion;
+        final long plazo;
+
+        EscrituraProgramada(ConexionNio conexion, long plazo) {
+            this.conexion = conexion;
+            this.plazo = plazo;
+        }
+    }
+
+    BucleSelector(ServidorEmparejamiento servidor) throws IOException {
+        this.servidor = servidor;
+        this.selector = Selector.open();
+    }
+
+    void registrar(SocketChannel canal) {
+        ejecutar(() -> {
+            try {
+                SelectionKey clave = canal.register(selector, SelectionKey.OP_READ);
+                clave.attach(new ConexionNio(servidor, this, canal, clave));
+            } catch (IOException e) {
+                Registro.error("[SERVIDOR ERROR] Al registrar canal: {}", e.getMessage());
+            }
+        });
+    }
+
+    void ejecutar(Runnable tarea) {
+        tareas.add(tarea);
+        selector.wakeup();
+    }
+
+    /** Pide escribir la conexión cuando venza la ventana de lote. */
+    void programarEscritura(ConexionNio conexion) {
+        long ventanaLoteNanos = ColaSalida.ventanaLoteNanos();
+        escrituras.add(new EscrituraProgramada(conexion, System.nanoTime() + ventanaLoteNanos));
+        // Solo hace falta despertar si el selector duerme sin plazo (uno anterior vence antes)
+        if (ventanaLoteNanos == 0 || despertarEn == 0) {
+            selector.wakeup();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                despertarEn = 0;
+                EscrituraProgramada siguiente = escrituras.peek();
+                if (siguiente == null) {
+                    selector.select();
+                } else {
+                    despertarEn = siguiente.plazo;
+                    long restante = siguiente.plazo - System.nanoTime();
+                    if (restante > 0) {
+                        // Redondeando hacia abajo, lo que queda por debajo de 1 ms sería select(0)
+                        // o selectNow() en bucle: mejor salir hasta 1 ms tarde que girar
+                        selector.select((restante + 999_999) / 1_000_000);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null) {
+                    try {
+                        tarea.run();
+                    } catch (Throwable e) {
+                        Registro.error("[SERVIDOR ERROR] En tarea del bucle NIO: {}", e.toString());
+                    }
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    ConexionNio conexion = (ConexionNio) clave.attachment();
+                    if (conexion == null) continue;
+
+                    try {
+                        if (clave.isValid() && clave.isReadable()) {
+                            conexion.leer();
+                        }
+                        if (clave.isValid() && clave.isWritable()) {
+                            conexion.escribir();
+                        }
+                    } catch (Throwable e) {
+                        fallo(conexion, e);
+                    }
+                }
+
+                long ahora = System.nanoTime();
+                EscrituraProgramada e;
+                while ((e = escrituras.peek()) != null && e.plazo - ahora <= 0) {
+                    escrituras.poll();
+                    try {
+                        e.conexion.escribir();
+                    } catch (Throwable t) {
+                        fallo(e.conexion, t);
+                    }
+                }
+            } catch (Throwable e) {
+                Registro.error("[SERVIDOR ERROR] En bucle NIO: {}", e.toString());
+            }
+        }
+    }
+
+    // Lo que falle con una conexión (aunque sea un Error) se la lleva solo a ella, no al bucle
+    private void fallo(ConexionNio conexion, Throwable e) {
+        Registro.error("[SERVIDOR ERROR] Cerrando {} tras un fallo: {}", conexion.remoto(), e.toString());
+        try {
+            conexion.cerrar();
+        } catch (Throwable ignorado) {
+        }
+    }
+}
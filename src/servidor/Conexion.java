@@ -0,0 +1,45 @@
+package servidor;
+
+import protocolos.TablaIds;
+import protocolos.TramaCompartida;
+
+import java.io.IOException;
+
+/**
+ * Canal de salida hacia un cliente, independiente de si el servidor
+ * trabaja en modo bloqueante (un hilo por socket) o NIO (selector).
+ * Los envíos nunca bloquean: se encolan en la ColaSalida de la conexión.
+ */
+interface Conexion {
+
+    /** Encola un mensaje; false si la cola de salida está llena. */
+    boolean enviar(Object mensaje) throws IOException;
+
+    /** Encola una trama ya codificada para varios destinatarios; false si no cabe. */
+    boolean enviar(TramaCompartida trama) throws IOException;
+
+    /** Formato negociado en la SolicitudConexion para los mensajes hacia el cliente. */
+    void usarFormato(byte formato);
+
+    /** Tabla de handles del grupo, para poder recibir las tramas compartidas del grupo. */
+    void usarTabla(TablaIds tabla);
+
+    /** La cola de salida no da abasto (ver ColaSalida.saturada). */
+    boolean saturada();
+
+    /**
+     * Deja de leer del cliente durante nanos, para que TCP frene al emisor en
+     * vez de seguir reenviando a quien no puede más. False si ya estaba en pausa.
+     */
+    boolean pausarLectura(long nanos);
+
+    /**
+     * Responde a una trama mal formada con un ErrorProtocolo 400 y cierra, sin
+     * leer nada más del cliente.
+     */
+    void rechazar(String detalle);
+
+    void cerrar();
+
+    String remoto();
+}
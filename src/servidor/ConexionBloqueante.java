@@ -0,0 +1,106 @@
+package servidor;
+
+import protocolos.CanalTramas;
+import protocolos.CodecMensajes;
+import protocolos.ErrorProtocolo;
+import protocolos.TablaIds;
+import protocolos.TramaCompartida;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Conexión del modo bloqueante: el hilo de manejarCliente lee y el hilo
+ * escritor del CanalTramas vacía la cola de salida, de modo que un cliente
+ * lento no frena a quien le está reenviando eventos.
+ */
+class ConexionBloqueante implements Conexion {
+    // Lo que se espera al escritor para que salga el ErrorProtocolo de rechazar()
+    private static final long ESPERA_RECHAZO_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Socket socket;
+    private final CanalTramas canal;
+    private volatile long pausaHasta;  // nanoTime; el hilo lector no lee antes
+
+    ConexionBloqueante(Socket socket) throws IOException {
+        this.socket = socket;
+        // Los lotes ya los forma la ColaSalida; Nagle solo añadiría retardo
+        socket.setTcpNoDelay(true);
+        this.canal = new CanalTramas(socket.getInputStream(), socket.getOutputStream(),
+                new CodecMensajes(CodecMensajes.FORMATO_JAVA), new CodecMensajes(CodecMensajes.FORMATO_JAVA),
+                String.valueOf(socket.getRemoteSocketAddress()));
+        canal.alFallarEscritura(this::cerrar);
+    }
+
+    Object leer() throws IOException, ClassNotFoundException {
+        long espera;
+        while ((espera = pausaHasta - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(espera);
+        }
+        return canal.leer();
+    }
+
+    @Override
+    public boolean enviar(Object mensaje) throws IOException {
+        return canal.enviar(mensaje);
+    }
+
+    @Override
+    public boolean enviar(TramaCompartida trama) throws IOException {
+        return canal.enviar(trama);
+    }
+
+    @Override
+    public void usarFormato(byte formato) {
+        canal.getCola().usarFormato(formato);
+    }
+
+    @Override
+    public void usarTabla(TablaIds tabla) {
+        canal.getCola().usarTabla(tabla);
+    }
+
+    @Override
+    public boolean saturada() {
+        return canal.getCola().saturada();
+    }
+
+    @Override
+    public boolean pausarLectura(long nanos) {
+        long ahora = System.nanoTime();
+        if (pausaHasta - ahora > 0) return false;
+        pausaHasta = ahora + nanos;
+        return true;
+    }
+
+    @Override
+    public void rechazar(String detalle) {
+        try {
+            canal.enviar(new ErrorProtocolo(400, detalle));
+        } catch (IOException ignored) {
+        }
+        // La cola cerrada aún deja al escritor vaciar lo pendiente
+        canal.cerrar();
+        long limite = System.nanoTime() + ESPERA_RECHAZO_NANOS;
+        while (!canal.getCola().vacia() && System.nanoTime() - limite < 0) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        cerrar();
+    }
+
+    @Override
+    public void cerrar() {
+        canal.cerrar();
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public String remoto() {
+        return String.valueOf(socket.getRemoteSocketAddress());
+    }
+}
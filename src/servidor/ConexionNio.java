@@ -0,0 +1,233 @@
+package servidor;
+
+import comun.Registro;
+import protocolos.ColaSalida;
+import protocolos.CodecMensajes;
+import protocolos.ErrorProtocolo;
+import protocolos.SolicitudConexion;
+import protocolos.TablaIds;
+import protocolos.TramaCompartida;
+import protocolos.Tramas;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Estado de un cliente en modo NIO. Las lecturas y escrituras las hace siempre
+ * el hilo de su BucleSelector; enviar() puede llamarse desde cualquier hilo y
+ * solo deja el mensaje en la ColaSalida.
+ */
+class ConexionNio implements Conexion {
+    // Lo normal son tramas de decenas de bytes; el buffer solo crece si llega una más larga
+    private static final int LECTURA_INICIAL = 512;
+
+    private final ServidorEmparejamiento servidor;
+    private final BucleSelector bucle;
+    private final SocketChannel canal;
+    private final SelectionKey clave;
+
+    private ByteBuffer lectura = ByteBuffer.allocate(LECTURA_INICIAL);
+    private final CodecMensajes codec = new CodecMensajes(CodecMensajes.FORMATO_JAVA);
+    private final ColaSalida cola = new ColaSalida(new CodecMensajes(CodecMensajes.FORMATO_JAVA), ColaSalida.CAPACIDAD);
+    private final AtomicBoolean escrituraSolicitada = new AtomicBoolean(false);
+    // Sin OP_READ mientras dure una pausa por contrapresión; la reanuda la rueda del servidor
+    private final AtomicBoolean lecturaPausada = new AtomicBoolean(false);
+    private final RuedaTemporizadores.Temporizador reanudar = new RuedaTemporizadores.Temporizador(this::reanudarLectura);
+
+    private ServidorEmparejamiento.ClienteInfo info;
+    private final AtomicBoolean cerrada = new AtomicBoolean(false);
+
+    ConexionNio(ServidorEmparejamiento servidor, BucleSelector bucle, SocketChannel canal, SelectionKey clave) {
+        this.servidor = servidor;
+        this.bucle = bucle;
+        this.canal = canal;
+        this.clave = clave;
+    }
+
+    void leer() {
+        try {
+            int leidos = canal.read(lectura);
+            if (leidos < 0) {
+                Registro.info("[SERVIDOR] Cliente '{}' cerró conexión", (info != null ? info.id : remoto()));
+                cerrar();
+                return;
+            }
+            Tramas.BYTES_ENTRADA.sumar(leidos);
+
+            lectura.flip();
+            while (lectura.remaining() >= 4) {
+                int longitud = lectura.getInt(lectura.position());
+                if (longitud <= 0 || longitud > Tramas.MAX_TRAMA) {
+                    Registro.error("[SERVIDOR ERROR] Trama inválida de {}: {}", remoto(), longitud);
+                    rechazar("Longitud de trama inválida: " + longitud);
+                    return;
+                }
+                if (lectura.remaining() < 4 + longitud) {
+                    if (4 + longitud > lectura.capacity()) crecerLectura(4 + longitud);
+                    break;
+                }
+
+                lectura.getInt();
+                Object mensaje = codec.decodificar(lectura.array(), lectura.position(), longitud);
+                lectura.position(lectura.position() + longitud);
+                if (mensaje != null) {
+                    despachar(mensaje);
+                }
+                if (cerrada.get()) return;
+                // El resto se queda en el buffer hasta reanudar
+                if (lecturaPausada.get()) break;
+            }
+            lectura.compact();
+        } catch (StreamCorruptedException e) {
+            Registro.error("[SERVIDOR ERROR] Trama mal formada de '{}': {}", (info != null ? info.id : remoto()), e.getMessage());
+            rechazar(e.getMessage());
+        } catch (Throwable e) {
+            // También un Error: se cierra solo esta conexión y el bucle sigue con las demás
+            Registro.error("[SERVIDOR ERROR] Leyendo evento de '{}': {}", (info != null ? info.id : remoto()), e.toString());
+            cerrar();
+        }
+    }
+
+    // Con el buffer en modo lectura: lo cambia por uno donde quepa la trama, con lo ya leído
+    private void crecerLectura(int necesario) {
+        ByteBuffer nuevo = ByteBuffer.allocate(Math.min(Tramas.MAX_TRAMA + 4, Math.max(necesario, lectura.capacity() * 2)));
+        nuevo.put(lectura);
+        nuevo.flip();
+        lectura = nuevo;
+    }
+
+    private void despachar(Object mensaje) throws IOException {
+        if (info == null) {
+            if (!(mensaje instanceof SolicitudConexion)) {
+                Registro.error("[SERVIDOR ERROR] Objeto no es SolicitudConexion");
+                cerrar();
+                return;
+            }
+            info = servidor.registrarCliente(this, (SolicitudConexion) mensaje);
+            return;
+        }
+        servidor.procesarMensaje(info, mensaje);
+    }
+
+    @Override
+    public boolean enviar(Object mensaje) throws IOException {
+        if (!cola.encolar(mensaje)) return false;
+        solicitarEscritura();
+        return true;
+    }
+
+    @Override
+    public boolean enviar(TramaCompartida trama) throws IOException {
+        if (!cola.encolar(trama)) return false;
+        solicitarEscritura();
+        return true;
+    }
+
+    @Override
+    public void usarFormato(byte formato) {
+        cola.usarFormato(formato);
+    }
+
+    @Override
+    public void usarTabla(TablaIds tabla) {
+        cola.usarTabla(tabla);
+    }
+
+    private void solicitarEscritura() {
+        if (escrituraSolicitada.compareAndSet(false, true)) {
+            bucle.programarEscritura(this);
+        }
+    }
+
+    /** Solo desde el hilo del bucle: al vencer la ventana de lote o con OP_WRITE. */
+    void escribir() {
+        if (!clave.isValid()) return;
+        try {
+            ByteBuffer b;
+            while ((b = cola.tomar()) != null) {
+                Tramas.BYTES_SALIDA.sumar(canal.write(b));
+                if (b.hasRemaining()) {
+                    // El socket está lleno: seguir cuando el selector diga que se puede escribir
+                    clave.interestOps(opsLectura() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+
+            clave.interestOps(opsLectura());
+            escrituraSolicitada.set(false);
+            // Si alguien encoló justo después de vaciar la cola, volver a programar la escritura
+            if (!cola.vacia() && escrituraSolicitada.compareAndSet(false, true)) {
+                bucle.programarEscritura(this);
+            }
+        } catch (IOException e) {
+            Registro.error("[SERVIDOR ERROR] Al escribir a '{}': {}", (info != null ? info.id : remoto()), e.getMessage());
+            cerrar();
+        }
+    }
+
+    @Override
+    public boolean saturada() {
+        return cola.saturada();
+    }
+
+    @Override
+    public boolean pausarLectura(long nanos) {
+        if (!lecturaPausada.compareAndSet(false, true)) return false;
+        bucle.ejecutar(this::actualizarInteres);
+        servidor.programar(reanudar, nanos);
+        return true;
+    }
+
+    private void reanudarLectura() {
+        lecturaPausada.set(false);
+        bucle.ejecutar(() -> {
+            actualizarInteres();
+            // Lo que ya estaba en el buffer no va a volver a avisar el selector
+            if (!cerrada.get()) leer();
+        });
+    }
+
+    private int opsLectura() {
+        return lecturaPausada.get() ? 0 : SelectionKey.OP_READ;
+    }
+
+    // Solo desde el hilo del bucle, como escribir()
+    private void actualizarInteres() {
+        if (!clave.isValid()) return;
+        clave.interestOps(opsLectura() | (clave.interestOps() & SelectionKey.OP_WRITE));
+    }
+
+    /** Solo desde el hilo del bucle: intenta sacar el error antes de cerrar. */
+    @Override
+    public void rechazar(String detalle) {
+        try {
+            if (cola.encolar(new ErrorProtocolo(400, detalle))) escribir();
+        } catch (IOException ignored) {
+        }
+        cerrar();
+    }
+
+    @Override
+    public void cerrar() {
+        if (!cerrada.compareAndSet(false, true)) return;
+        cola.cerrar();
+        servidor.cancelar(reanudar);
+        clave.cancel();
+        try {
+            canal.close();
+        } catch (IOException ignored) {
+        }
+        if (info != null) {
+            servidor.clienteDesconectado(info);
+        }
+    }
+
+    @Override
+    public String remoto() {
+        return String.valueOf(canal.socket().getRemoteSocketAddress());
+    }
+}
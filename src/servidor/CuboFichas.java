@@ -0,0 +1,51 @@
+package servidor;
+
+/**
+ * Cubo de fichas: se rellena a porSegundo fichas por segundo hasta rafaga y
+ * cada mensaje gasta una. Lo tocan el lector del cliente y el vaciado de lo
+ * que se quedó esperando, nunca a la vez mucho rato, así que basta con
+ * synchronized.
+ */
+final class CuboFichas {
+    private final double porNano;
+    private final double rafaga;
+    private double fichas;
+    private long ultimo;  // nanoTime del último relleno
+
+    CuboFichas(int porSegundo, int rafaga, long ahora) {
+        if (porSegundo <= 0 || rafaga < 1) {
+            throw new IllegalArgumentException("Cubo de fichas no válido: " + porSegundo + "/s, ráfaga " + rafaga);
+        }
+        this.porNano = porSegundo / 1e9;
+        this.rafaga = rafaga;
+        this.fichas = rafaga;
+        this.ultimo = ahora;
+    }
+
+    /** Gasta una ficha si la hay. */
+    synchronized boolean tomar(long ahora) {
+        rellenar(ahora);
+        if (fichas < 1) return false;
+        fichas--;
+        return true;
+    }
+
+    /** Gasta una ficha aunque no llegue a haberla; la deuda se paga con el relleno. */
+    synchronized void forzar(long ahora) {
+        rellenar(ahora);
+        fichas--;
+    }
+
+    /** Nanosegundos hasta que haya una ficha entera; 0 si ya la hay. */
+    synchronized long espera(long ahora) {
+        rellenar(ahora);
+        return fichas >= 1 ? 0 : (long) Math.ceil((1 - fichas) / porNano);
+    }
+
+    private void rellenar(long ahora) {
+        if (ahora > ultimo) {
+            fichas = Math.min(rafaga, fichas + (ahora - ultimo) * porNano);
+            ultimo = ahora;
+        }
+    }
+}
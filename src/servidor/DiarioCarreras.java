@@ -0,0 +1,451 @@
+package servidor;
+
+import comun.Metricas;
+import comun.Registro;
+import protocolos.EventoCarrera;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Diario de carreras para auditar resultados: cada asignación de grupo,
+ * evento aceptado, desconexión y FinCarrera se apunta en ficheros de tamaño
+ * fijo proyectados en memoria (diario-000000.cdi, diario-000001.cdi...). Al
+ * llenarse uno se pasa al siguiente.
+ *
+ * Apuntar no bloquea el reenvío: como en Registro, el hilo que apunta reserva
+ * un hueco de un anillo con un CAS y copia los campos; el hilo del diario los
+ * codifica en el fichero. Si el anillo está lleno el apunte se pierde, se
+ * cuenta en camellos_diario_descartes_total y el hilo del diario deja en su
+ * lugar un apunte HUECO del grupo, para que al verificar se sepa que a esa
+ * carrera le faltan apuntes.
+ *
+ * Formato: cabecera MAGICO + VERSION y después, por apunte,
+ * [int longitud][byte tipo][long instante (ns desde epoch)][int idGrupo][cuerpo]
+ * con las cadenas como short longitud + UTF-8. Una longitud 0 marca el final
+ * de los datos del segmento. ReproductorDiario lee y reproduce el diario.
+ */
+class DiarioCarreras implements Runnable {
+
+    static final int MAGICO = 0x434D4449;  // "CMDI"
+    static final int VERSION = 2;  // La 2 añade HUECO; la 1 se sigue pudiendo leer
+
+    static final byte ASIGNACION = 1;   // semilla, flags, ids del grupo
+    static final byte EVENTO = 2;       // id, tipo de evento, tMarca, pos
+    static final byte DESCONEXION = 3;  // id
+    static final byte FIN = 4;          // ranking
+    static final byte HUECO = 5;        // apuntes del grupo perdidos (en pos)
+
+    private static final int CAPACIDAD = 1 << 14;  // Potencia de 2
+    private static final int MASCARA = CAPACIDAD - 1;
+    private static final int MAX_APUNTE = 64 * 1024;
+
+    private static final Metricas.Contador APUNTES = Metricas.contador("camellos_diario_apuntes_total", "Apuntes escritos en el diario");
+    private static final Metricas.Contador DESCARTES = Metricas.contador("camellos_diario_descartes_total",
+            "Apuntes perdidos por anillo del diario lleno");
+
+    // Base para pasar nanoTime a instante absoluto sin llamar al reloj de pared por apunte
+    private static final long BASE_EPOCH_NANOS = System.currentTimeMillis() * 1_000_000L;
+    private static final long BASE_NANO_TIME = System.nanoTime();
+
+    /** Un apunte leído del diario (o pendiente de escribir, en el anillo). */
+    static final class Apunte {
+        byte tipo;
+        long instante;
+        int idGrupo;
+        String idCliente;
+        EventoCarrera.TipoEvento tipoEvento;
+        long tMarca;
+        int pos;
+        long semilla;
+        boolean autoritativa;
+        boolean multicast;
+        List<String> ids;
+
+        @Override
+        public String toString() {
+            switch (tipo) {
+                case ASIGNACION:
+                    return "ASIGNACION grupo=" + idGrupo + " semilla=" + semilla
+                            + (autoritativa ? " autoritativa" : "") + (multicast ? " multicast" : "") + " " + ids;
+                case EVENTO:
+                    return "EVENTO grupo=" + idGrupo + " " + idCliente + " " + tipoEvento + " pos=" + pos;
+                case DESCONEXION:
+                    return "DESCONEXION grupo=" + idGrupo + " " + idCliente;
+                case FIN:
+                    return "FIN grupo=" + idGrupo + " " + ids;
+                case HUECO:
+                    return "HUECO grupo=" + idGrupo + " perdidos=" + pos;
+                default:
+                    return "? tipo=" + tipo;
+            }
+        }
+    }
+
+    private static final class Hueco {
+        volatile long secuencia;
+        final Apunte apunte = new Apunte();
+
+        Hueco(long secuencia) {
+            this.secuencia = secuencia;
+        }
+    }
+
+    private final Path directorio;
+    private final long tamSegmento;
+    private final Hueco[] anillo = new Hueco[CAPACIDAD];
+    private final AtomicLong cola = new AtomicLong();
+    private long cabeza;  // Solo la toca el hilo del diario
+    // Apuntes perdidos por anillo lleno, por grupo, hasta que el hilo del diario los apunta como HUECO
+    private final ConcurrentHashMap<Integer, AtomicInteger> perdidos = new ConcurrentHashMap<>();
+    private final Apunte hueco = new Apunte();
+
+    private final ByteBuffer codificado = ByteBuffer.allocate(MAX_APUNTE);
+    private FileChannel canal;
+    private MappedByteBuffer segmento;
+    private int numSegmento;
+
+    private volatile Thread escritor;
+    private volatile boolean detenido = false;
+    private final CountDownLatch terminado = new CountDownLatch(1);
+
+    DiarioCarreras(Path directorio, long tamSegmento) throws IOException {
+        this.directorio = directorio;
+        this.tamSegmento = tamSegmento;
+        for (int i = 0; i < CAPACIDAD; i++) {
+            anillo[i] = new Hueco(i);
+        }
+        Files.createDirectories(directorio);
+        // Nunca se reescribe un segmento anterior: se sigue por el siguiente número libre
+        List<Path> existentes = segmentos(directorio);
+        numSegmento = existentes.isEmpty() ? 0 : numero(existentes.get(existentes.size() - 1)) + 1;
+        abrirSegmento();
+    }
+
+    // ========== APUNTAR (cualquier hilo) ==========
+
+    void asignacion(int idGrupo, long semilla, boolean autoritativa, boolean multicast, List<String> ids) {
+        Hueco h = reservar(idGrupo);
+        if (h == null) return;
+        Apunte a = h.apunte;
+        a.tipo = ASIGNACION;
+        a.idGrupo = idGrupo;
+        a.semilla = semilla;
+        a.autoritativa = autoritativa;
+        a.multicast = multicast;
+        a.ids = ids;
+        publicar(h);
+    }
+
+    void evento(int idGrupo, String idCliente, EventoCarrera.TipoEvento tipo, long tMarca, int pos) {
+        Hueco h = reservar(idGrupo);
+        if (h == null) return;
+        Apunte a = h.apunte;
+        a.tipo = EVENTO;
+        a.idGrupo = idGrupo;
+        a.idCliente = idCliente;
+        a.tipoEvento = tipo;
+        a.tMarca = tMarca;
+        a.pos = pos;
+        publicar(h);
+    }
+
+    void desconexion(int idGrupo, String idCliente) {
+        Hueco h = reservar(idGrupo);
+        if (h == null) return;
+        Apunte a = h.apunte;
+        a.tipo = DESCONEXION;
+        a.idGrupo = idGrupo;
+        a.idCliente = idCliente;
+        publicar(h);
+    }
+
+    void fin(int idGrupo, List<String> ranking) {
+        Hueco h = reservar(idGrupo);
+        if (h == null) return;
+        Apunte a = h.apunte;
+        a.tipo = FIN;
+        a.idGrupo = idGrupo;
+        a.ids = ranking;
+        publicar(h);
+    }
+
+    // Hueco reservado para quien llama, o null si el anillo está lleno (y queda anotado para el HUECO)
+    private Hueco reservar(int idGrupo) {
+        while (true) {
+            long pos = cola.get();
+            Hueco h = anillo[(int) pos & MASCARA];
+            long sec = h.secuencia;
+            if (sec == pos) {
+                if (cola.compareAndSet(pos, pos + 1)) {
+                    h.apunte.instante = BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+                    return h;
+                }
+            } else if (sec < pos) {
+                DESCARTES.incrementar();
+                perdidos.computeIfAbsent(idGrupo, g -> new AtomicInteger()).incrementAndGet();
+                return null;
+            }
+        }
+    }
+
+    // Hasta aquí el hueco es solo de quien lo reservó; la escritura volátil publica los campos
+    private static void publicar(Hueco h) {
+        h.secuencia = h.secuencia + 1;
+    }
+
+    // ========== HILO DEL DIARIO ==========
+
+    @Override
+    public void run() {
+        escritor = Thread.currentThread();
+        try {
+            while (true) {
+                if (!drenar()) {
+                    if (detenido) break;
+                    LockSupport.parkNanos(1_000_000);
+                }
+            }
+            segmento.force();
+            canal.close();
+        } catch (IOException | RuntimeException e) {
+            // Sin hilo del diario los apuntes siguientes se descartan; el reenvío sigue igual
+            Registro.error("[SERVIDOR ERROR] Diario de carreras: {}", e.toString());
+        } finally {
+            terminado.countDown();
+        }
+    }
+
+    private boolean drenar() throws IOException {
+        boolean algo = apuntarHuecos();
+        while (true) {
+            Hueco h = anillo[(int) cabeza & MASCARA];
+            if (h.secuencia != cabeza + 1) return apuntarHuecos() || algo;
+            escribir(h.apunte);
+            h.apunte.ids = null;
+            h.apunte.idCliente = null;
+            h.secuencia = cabeza + CAPACIDAD;
+            cabeza++;
+            algo = true;
+        }
+    }
+
+    // Lo perdido no pudo pasar por el anillo, que estaba lleno: se escribe aquí directamente
+    private boolean apuntarHuecos() throws IOException {
+        if (perdidos.isEmpty()) return false;
+        for (Integer idGrupo : perdidos.keySet()) {
+            AtomicInteger n = perdidos.remove(idGrupo);
+            if (n == null) continue;
+            // Quien lo contaba pudo sumar tras quitarlo del mapa: al menos uno se perdió
+            escribirHueco(idGrupo, Math.max(1, n.get()));
+        }
+        return true;
+    }
+
+    private void escribirHueco(int idGrupo, int perdidos) throws IOException {
+        hueco.tipo = HUECO;
+        hueco.instante = BASE_EPOCH_NANOS + (System.nanoTime() - BASE_NANO_TIME);
+        hueco.idGrupo = idGrupo;
+        hueco.pos = perdidos;
+        escribir(hueco);
+    }
+
+    private void escribir(Apunte a) throws IOException {
+        codificado.clear();
+        try {
+            codificar(a, codificado);
+        } catch (BufferOverflowException e) {
+            // Un grupo muy grande con ids largos no cabe en MAX_APUNTE: se pierde ese apunte, no el hilo
+            DESCARTES.incrementar();
+            Registro.aviso("[DIARIO] Apunte de tipo {} del grupo {} de más de {} bytes: se apunta un HUECO",
+                    a.tipo, a.idGrupo, MAX_APUNTE);
+            escribirHueco(a.idGrupo, 1);
+            return;
+        }
+        codificado.flip();
+        // Siempre queda sitio para la marca de fin (int 0)
+        if (segmento.remaining() < 4 + codificado.remaining() + 4) {
+            segmento.putInt(0);
+            segmento.force();
+            canal.close();
+            numSegmento++;
+            abrirSegmento();
+        }
+        segmento.putInt(codificado.remaining());
+        segmento.put(codificado);
+        APUNTES.incrementar();
+    }
+
+    private void abrirSegmento() throws IOException {
+        Path ruta = directorio.resolve(String.format("diario-%06d.cdi", numSegmento));
+        canal = FileChannel.open(ruta, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segmento = canal.map(FileChannel.MapMode.READ_WRITE, 0, tamSegmento);
+        segmento.putInt(MAGICO);
+        segmento.putInt(VERSION);
+        Registro.info("[SERVIDOR] Diario de carreras en {}", ruta);
+    }
+
+    /** Vacía el anillo, fuerza el segmento a disco y espera al hilo del diario. */
+    void cerrar() {
+        detenido = true;
+        Thread t = escritor;
+        if (t != null) LockSupport.unpark(t);
+        try {
+            terminado.await(2, TimeUnit.SECONDS);
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    // ========== FORMATO ==========
+
+    static void codificar(Apunte a, ByteBuffer b) {
+        b.put(a.tipo);
+        b.putLong(a.instante);
+        b.putInt(a.idGrupo);
+        switch (a.tipo) {
+            case ASIGNACION:
+                b.putLong(a.semilla);
+                b.put((byte) ((a.autoritativa ? 1 : 0) | (a.multicast ? 2 : 0)));
+                ponerIds(b, a.ids);
+                break;
+            case EVENTO:
+                ponerCadena(b, a.idCliente);
+                b.put((byte) a.tipoEvento.ordinal());
+                b.putLong(a.tMarca);
+                b.putInt(a.pos);
+                break;
+            case DESCONEXION:
+                ponerCadena(b, a.idCliente);
+                break;
+            case FIN:
+                ponerIds(b, a.ids);
+                break;
+            case HUECO:
+                b.putInt(a.pos);
+                break;
+            default:
+                throw new IllegalArgumentException("Tipo de apunte desconocido: " + a.tipo);
+        }
+    }
+
+    static Apunte decodificar(ByteBuffer b) {
+        Apunte a = new Apunte();
+        a.tipo = b.get();
+        a.instante = b.getLong();
+        a.idGrupo = b.getInt();
+        switch (a.tipo) {
+            case ASIGNACION:
+                a.semilla = b.getLong();
+                byte flags = b.get();
+                a.autoritativa = (flags & 1) != 0;
+                a.multicast = (flags & 2) != 0;
+                a.ids = leerIds(b);
+                break;
+            case EVENTO:
+                a.idCliente = leerCadena(b);
+                a.tipoEvento = EventoCarrera.TipoEvento.values()[b.get()];
+                a.tMarca = b.getLong();
+                a.pos = b.getInt();
+                break;
+            case DESCONEXION:
+                a.idCliente = leerCadena(b);
+                break;
+            case FIN:
+                a.ids = leerIds(b);
+                break;
+            case HUECO:
+                a.pos = b.getInt();
+                break;
+            default:
+                throw new IllegalArgumentException("Tipo de apunte desconocido: " + a.tipo);
+        }
+        return a;
+    }
+
+    private static void ponerIds(ByteBuffer b, List<String> ids) {
+        b.putShort((short) ids.size());
+        for (String id : ids) ponerCadena(b, id);
+    }
+
+    private static List<String> leerIds(ByteBuffer b) {
+        int n = b.getShort();
+        List<String> ids = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) ids.add(leerCadena(b));
+        return ids;
+    }
+
+    private static void ponerCadena(ByteBuffer b, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        b.putShort((short) bytes.length);
+        b.put(bytes);
+    }
+
+    private static String leerCadena(ByteBuffer b) {
+        byte[] bytes = new byte[b.getShort() & 0xFFFF];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // ========== LECTURA ==========
+
+    /** Segmentos del directorio en orden. */
+    static List<Path> segmentos(Path directorio) throws IOException {
+        List<Path> rutas = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(directorio, "diario-*.cdi")) {
+            for (Path p : ds) rutas.add(p);
+        }
+        Collections.sort(rutas);
+        return rutas;
+    }
+
+    private static int numero(Path segmento) {
+        String nombre = segmento.getFileName().toString();
+        return Integer.parseInt(nombre.substring("diario-".length(), nombre.length() - ".cdi".length()));
+    }
+
+    /**
+     * Recorre todos los apuntes del directorio en orden. Un segmento cortado a
+     * medias (el servidor murió mientras escribía) se lee hasta donde llegue.
+     */
+    static void leer(Path directorio, Consumer<Apunte> destino) throws IOException {
+        for (Path ruta : segmentos(directorio)) {
+            try (FileChannel c = FileChannel.open(ruta, StandardOpenOption.READ)) {
+                MappedByteBuffer b = c.map(FileChannel.MapMode.READ_ONLY, 0, c.size());
+                if (b.remaining() < 8 || b.getInt() != MAGICO) {
+                    Registro.aviso("[DIARIO] {} no es un segmento del diario", ruta);
+                    continue;
+                }
+                int version = b.getInt();
+                if (version < 1 || version > VERSION) {
+                    Registro.aviso("[DIARIO] {}: versión no soportada", ruta);
+                    continue;
+                }
+                while (b.remaining() >= 4) {
+                    int longitud = b.getInt();
+                    if (longitud <= 0 || longitud > b.remaining()) break;
+                    ByteBuffer apunte = b.slice(b.position(), longitud);
+                    b.position(b.position() + longitud);
+                    destino.accept(decodificar(apunte));
+                }
+            }
+        }
+    }
+}
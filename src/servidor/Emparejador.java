@@ -0,0 +1,125 @@
+package servidor;
+
+import comun.Histograma;
+import comun.Metricas;
+import comun.Registro;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sala de espera sin cerrojos. La sala es el Grupo en estado ESPERANDO: cada
+ * cliente reserva un carril con un getAndIncrement; quien ocupa el último
+ * instala el grupo siguiente y anuncia el completo, ya fuera de cualquier
+ * sección crítica, así que un envío lento no frena al resto de emparejamientos.
+ * Los grupos son siempre de tamGrupo y se forman por orden de llegada, sin
+ * mirar nada más: un jugador solo espera hasta que lleguen los que faltan.
+ * Si tamGrupo cambia en caliente, la sala actual se llena con el de antes y
+ * el nuevo vale desde la siguiente.
+ */
+class Emparejador implements MotorEmparejamiento {
+    static final Histograma LLENADO = Metricas.histograma("camellos_llenado_grupo_segundos",
+            "Desde que entra el primer jugador de un grupo hasta que se completa");
+
+    // Esperas activas: primero se gira, luego se cede el núcleo y al final se duerme
+    private static final int GIROS = 64;
+    private static final int CESIONES = 64;
+    private static final long PAUSA_NANOS = 50_000;
+
+    private final ServidorEmparejamiento servidor;
+    private final ReservaGrupos reserva;
+    private volatile int tamGrupo;  // El de la próxima sala; cada sala lleva el suyo en Grupo.tamGrupo
+    private final AtomicReference<Grupo> sala;
+
+    Emparejador(ServidorEmparejamiento servidor, ReservaGrupos reserva, int tamGrupo) {
+        this.servidor = servidor;
+        this.reserva = reserva;
+        this.tamGrupo = tamGrupo;
+        this.sala = new AtomicReference<>(reserva.nuevo(tamGrupo));
+    }
+
+    @Override
+    public void redimensionar(int minimo, int maximo, long esperaNanos) {
+        tamGrupo = maximo;
+    }
+
+    /** Mete al cliente en la sala actual; si la completa, anuncia el grupo. */
+    @Override
+    public void unirse(ClienteInfo info) {
+        while (true) {
+            Grupo g = sala.get();
+            int tamGrupo = g.tamGrupo;
+            int carril = g.ocupados.getAndIncrement();
+            if (carril >= tamGrupo) {
+                // Sala llena: quien cogió el último carril está instalando la siguiente.
+                // Se reintenta también si vuelve a tener sitio, por si es la misma sala otra vez
+                for (int vueltas = 0; sala.get() == g && g.ocupados.get() >= tamGrupo; vueltas++) {
+                    esperar(vueltas);
+                }
+                continue;
+            }
+
+            if (carril == tamGrupo - 1) {
+                sala.set(reserva.nuevo(this.tamGrupo));
+            }
+
+            if (carril == 0) g.primeraLlegada = System.nanoTime();
+            g.ocupar(carril, info);
+            Registro.depuracion("[SERVIDOR] Clientes en grupo {}: {}/{}", g.id(), carril + 1, tamGrupo);
+
+            if (carril == tamGrupo - 1) {
+                completar(g);
+            }
+            return;
+        }
+    }
+
+    private void completar(Grupo g) {
+        int tamGrupo = g.tamGrupo;
+        List<ClienteInfo> presentes = new ArrayList<>(tamGrupo);
+        for (int i = 0; i < tamGrupo; i++) {
+            ClienteInfo info;
+            // Los demás ya reservaron su carril; puede que aún no lo hayan rellenado
+            for (int vueltas = 0; (info = g.miembros.get(i)) == null; vueltas++) {
+                esperar(vueltas);
+            }
+            if (!info.desconectado.get()) {
+                presentes.add(info);
+            }
+        }
+
+        if (presentes.size() < tamGrupo) {
+            // Alguien se fue mientras esperaba: los que quedan vuelven a la sala y el grupo a la reserva
+            Registro.info("[SERVIDOR] Grupo {} incompleto por desconexiones, reagrupando {}", g.id(), presentes.size());
+            for (ClienteInfo info : presentes) {
+                unirse(info);
+            }
+            g.estado.set(Grupo.Estado.LIBERADO);
+            reserva.reciclar(g);
+            return;
+        }
+
+        LLENADO.registrar(System.nanoTime() - g.primeraLlegada);
+        Registro.info("[SERVIDOR] GRUPO {} completo - asignando...", g.id());
+        g.pasar(Grupo.Estado.ESPERANDO, Grupo.Estado.CUENTA_ATRAS);
+        servidor.asignarGrupo(g, reserva.adquirirSlot());
+    }
+
+    /**
+     * Una vuelta de espera por otro hilo que está a mitad de algo. Ese hilo puede
+     * estar desalojado, o ser un hilo virtual sin montar en este mismo portador,
+     * así que girar sin más podría no dejarle terminar nunca.
+     */
+    private static void esperar(int vueltas) {
+        if (vueltas < GIROS) {
+            Thread.onSpinWait();
+        } else if (vueltas < GIROS + CESIONES) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(PAUSA_NANOS);
+        }
+    }
+}
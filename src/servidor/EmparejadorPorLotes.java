@@ -0,0 +1,288 @@
+package servidor;
+
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Metricas;
+import comun.Registro;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Emparejamiento por lotes. Un alta solo se encola; cada PERIODO_MS un único
+ * hilo hace una pasada con todos los que esperan, así que no hay cerrojos ni
+ * trabajo por alta, y la pasada ve a la vez a todos los candidatos. Si desde
+ * la última pasada han llegado maximo altas, se adelanta la siguiente: con
+ * mucha carga un grupo no espera al periodo para formarse.
+ *
+ * En cada pasada los que esperan se reparten en cubetas por ida y vuelta (la
+ * que informa el cliente en sus heartbeats, por tramos de LIMITES_IDA_VUELTA_MS;
+ * sin medir aún cuenta como el tramo más rápido) y por puntuación (tramos de
+ * ANCHO_PUNTUACION). Cada cubeta con maximo jugadores forma grupo, los más
+ * antiguos primero. Cuando el más antiguo de una cubeta lleva esperaNanos,
+ * su cubeta deja de importar: los vencidos se ordenan por cubeta, para que
+ * vayan juntos los más parecidos, y forman grupos de hasta maximo; si el
+ * último no llega, lo completan los que más llevan esperando en otras
+ * cubetas, y si ni así llega a minimo, se espera a la siguiente pasada.
+ *
+ * Periodo, mínimo, máximo y espera de llenado se pueden cambiar en caliente;
+ * cada pasada usa los que hubiera al empezar.
+ *
+ * La puntuación es un Elo por id de jugador que se actualiza con el ranking
+ * de cada carrera y solo vive en memoria (como mucho MAX_PUNTUACIONES ids,
+ * se olvidan los menos recientes).
+ */
+final class EmparejadorPorLotes implements MotorEmparejamiento {
+    static final Configuracion.Ajuste PERIODO_MS = Configuracion.ajuste("camellos.emparejamiento.ms", 50, 1, 10_000);
+    private static final int ANCHO_PUNTUACION = Configuracion.entero("camellos.emparejamiento.puntos", 200);
+    private static final long[] LIMITES_IDA_VUELTA_MS = {20, 50, 100, 200};
+    static final int PUNTUACION_INICIAL = 1000;
+    private static final double K_ELO = 32;
+    private static final int MAX_PUNTUACIONES = Configuracion.entero("camellos.puntuaciones.max", 100_000);
+
+    private static final Metricas.Contador POR_ESPERA = Metricas.contador("camellos_grupos_por_espera_total",
+            "Grupos formados al vencer el tiempo de llenado, mezclando cubetas o por debajo del máximo");
+
+    private final ServidorEmparejamiento servidor;
+    private final ReservaGrupos reserva;
+    private volatile Limites limites;
+
+    private final ConcurrentLinkedQueue<ClienteInfo> entrantes = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger enEspera = new AtomicInteger();
+    private final AtomicInteger altasSinPasada = new AtomicInteger();
+    private ScheduledExecutorService planificador;
+
+    // Solo los toca el hilo de las pasadas
+    private final List<Espera> esperando = new ArrayList<>();  // Por orden de llegada
+    private final Map<Integer, List<Espera>> cubetas = new HashMap<>();
+    private final List<Espera> vencidos = new ArrayList<>();
+
+    private final Map<String, Integer> puntuaciones = new LinkedHashMap<>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> mayor) {
+            return size() > MAX_PUNTUACIONES;
+        }
+    };
+
+    // Se sustituyen enteros para que una pasada nunca vea un mínimo nuevo con un máximo viejo
+    private static final class Limites {
+        final int minimo;
+        final int maximo;
+        final long esperaNanos;
+
+        Limites(int minimo, int maximo, long esperaNanos) {
+            if (minimo < 1 || maximo < minimo) {
+                throw new IllegalArgumentException("Tamaño de grupo no válido: mínimo " + minimo + ", máximo " + maximo);
+            }
+            this.minimo = minimo;
+            this.maximo = maximo;
+            this.esperaNanos = esperaNanos;
+        }
+    }
+
+    // Un jugador en la sala, con lo que se decide en cada pasada
+    private static final class Espera {
+        final ClienteInfo info;
+        final int puntuacion;
+        int cubeta;
+        boolean vencido;
+        boolean asignado;
+
+        Espera(ClienteInfo info, int puntuacion) {
+            this.info = info;
+            this.puntuacion = puntuacion;
+        }
+    }
+
+    private static final Comparator<Espera> POR_CUBETA = Comparator
+            .<Espera>comparingInt(e -> e.cubeta)
+            .thenComparingLong(e -> e.info.llegada);
+
+    EmparejadorPorLotes(ServidorEmparejamiento servidor, ReservaGrupos reserva, int minimo, int maximo, long esperaNanos) {
+        this.servidor = servidor;
+        this.reserva = reserva;
+        this.limites = new Limites(minimo, maximo, esperaNanos);
+    }
+
+    @Override
+    public void redimensionar(int minimo, int maximo, long esperaNanos) {
+        limites = new Limites(minimo, maximo, esperaNanos);
+    }
+
+    @Override
+    public void iniciar() {
+        Metricas.medidor("camellos_en_espera", "Clientes en la sala de espera", enEspera::get);
+        planificador = Hilos.planificador("emparejamiento", 1);
+        planificador.schedule(this::pasadaPeriodica, PERIODO_MS.valor(), TimeUnit.MILLISECONDS);
+    }
+
+    // Se reprograma en cada vuelta para que un cambio del periodo valga sin reiniciar
+    private void pasadaPeriodica() {
+        pasadaProgramada();
+        planificador.schedule(this::pasadaPeriodica, PERIODO_MS.valor(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void unirse(ClienteInfo info) {
+        entrantes.add(info);
+        enEspera.incrementAndGet();
+        // Solo el alta que completa el lote pide la pasada: como mucho una adelantada por lote
+        if (altasSinPasada.incrementAndGet() == limites.maximo && planificador != null) {
+            planificador.execute(this::pasadaProgramada);
+        }
+    }
+
+    private void pasadaProgramada() {
+        try {
+            pasada(System.nanoTime());
+        } catch (RuntimeException e) {
+            // Una excepción cancelaría la tarea periódica y nadie más saldría de la sala
+            Registro.error("[SERVIDOR ERROR] Pasada de emparejamiento: {}", e.toString());
+        }
+    }
+
+    /** Forma los grupos que se puedan con los que esperan en el instante ahora (nanoTime). */
+    void pasada(long ahora) {
+        Limites limites = this.limites;
+        int minimo = limites.minimo;
+        int maximo = limites.maximo;
+        long esperaNanos = limites.esperaNanos;
+        altasSinPasada.set(0);
+        ClienteInfo nuevo;
+        while ((nuevo = entrantes.poll()) != null) {
+            esperando.add(new Espera(nuevo, puntuacion(nuevo.id)));
+        }
+        esperando.removeIf(e -> e.info.desconectado.get());
+        if (esperando.isEmpty()) {
+            enEspera.set(entrantes.size());
+            return;
+        }
+
+        try {
+            for (List<Espera> cubeta : cubetas.values()) cubeta.clear();
+            for (Espera e : esperando) {
+                e.cubeta = cubeta(e);
+                e.vencido = false;
+                cubetas.computeIfAbsent(e.cubeta, k -> new ArrayList<>()).add(e);
+            }
+
+            vencidos.clear();
+            for (List<Espera> cubeta : cubetas.values()) {
+                int desde = 0;
+                for (; cubeta.size() - desde >= maximo; desde += maximo) {
+                    formar(cubeta, desde, maximo, ahora);
+                }
+                if (desde < cubeta.size() && ahora - cubeta.get(desde).info.llegada >= esperaNanos) {
+                    for (int i = desde; i < cubeta.size(); i++) {
+                        Espera e = cubeta.get(i);
+                        e.vencido = true;
+                        vencidos.add(e);
+                    }
+                }
+            }
+
+            if (!vencidos.isEmpty()) {
+                vencidos.sort(POR_CUBETA);
+                int desde = 0;
+                while (desde < vencidos.size()) {
+                    int n = Math.min(maximo, vencidos.size() - desde);
+                    if (n < maximo) n += completar(maximo - n);
+                    if (n < minimo) break;
+                    formar(vencidos, desde, n, ahora);
+                    POR_ESPERA.incrementar();
+                    desde += n;
+                }
+            }
+        } finally {
+            // Aunque falle un anuncio, los ya asignados no pueden volver a la sala
+            esperando.removeIf(e -> e.asignado);
+            enEspera.set(esperando.size() + entrantes.size());
+        }
+    }
+
+    // Añade a vencidos hasta "faltan" jugadores sin asignar de otras cubetas, los más antiguos primero
+    private int completar(int faltan) {
+        int anadidos = 0;
+        for (int i = 0; i < esperando.size() && anadidos < faltan; i++) {
+            Espera e = esperando.get(i);
+            if (e.asignado || e.vencido) continue;
+            e.vencido = true;
+            vencidos.add(e);
+            anadidos++;
+        }
+        return anadidos;
+    }
+
+    private int cubeta(Espera e) {
+        long idaVuelta = e.info.idaVuelta;
+        int tramo = 0;
+        while (tramo < LIMITES_IDA_VUELTA_MS.length && idaVuelta >= LIMITES_IDA_VUELTA_MS[tramo] * 1_000_000L) {
+            tramo++;
+        }
+        int nivel = Math.max(0, Math.min(0xFFFF, e.puntuacion / ANCHO_PUNTUACION));
+        return tramo << 16 | nivel;
+    }
+
+    private void formar(List<Espera> lista, int desde, int n, long ahora) {
+        Grupo g = reserva.nuevo(n);
+        long primera = Long.MAX_VALUE;
+        for (int carril = 0; carril < n; carril++) {
+            Espera e = lista.get(desde + carril);
+            e.asignado = true;
+            primera = Math.min(primera, e.info.llegada);
+            g.ocupar(carril, e.info);
+        }
+        g.primeraLlegada = primera;
+        Emparejador.LLENADO.registrar(ahora - primera);
+        Registro.info("[SERVIDOR] GRUPO {} formado con {} jugadores - asignando...", g.id(), n);
+        g.pasar(Grupo.Estado.ESPERANDO, Grupo.Estado.CUENTA_ATRAS);
+        servidor.asignarGrupo(g, reserva.adquirirSlot());
+    }
+
+    int puntuacion(String idJugador) {
+        synchronized (puntuaciones) {
+            return puntuaciones.getOrDefault(idJugador, PUNTUACION_INICIAL);
+        }
+    }
+
+    /** Fija la puntuación de un jugador, p. ej. la que traía de otra sesión. */
+    void fijarPuntuacion(String idJugador, int puntuacion) {
+        synchronized (puntuaciones) {
+            puntuaciones.put(idJugador, puntuacion);
+        }
+    }
+
+    /**
+     * Elo por parejas: cada jugador gana a todos los que quedan por detrás, y
+     * el ajuste se divide entre los rivales para que no dependa del tamaño del grupo.
+     */
+    @Override
+    public void resultado(List<String> ranking) {
+        int n = ranking.size();
+        if (n < 2) return;
+        synchronized (puntuaciones) {
+            int[] antes = new int[n];
+            for (int i = 0; i < n; i++) {
+                antes[i] = puntuaciones.getOrDefault(ranking.get(i), PUNTUACION_INICIAL);
+            }
+            for (int i = 0; i < n; i++) {
+                double ajuste = 0;
+                for (int j = 0; j < n; j++) {
+                    if (i == j) continue;
+                    double esperado = 1 / (1 + Math.pow(10, (antes[j] - antes[i]) / 400.0));
+                    ajuste += (i < j ? 1 : 0) - esperado;
+                }
+                puntuaciones.put(ranking.get(i), antes[i] + (int) Math.round(K_ELO * ajuste / (n - 1)));
+            }
+        }
+    }
+}
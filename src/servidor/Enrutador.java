@@ -0,0 +1,264 @@
+package servidor;
+
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Metricas;
+import comun.Registro;
+import protocolos.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Vestíbulo para repartir los clientes entre varios servidores de carreras
+ * (ServidorEmparejamiento arrancados con -Dcamellos.enrutador). Escucha en
+ * el puerto de siempre: lee la SolicitudConexion, elige el servidor menos
+ * cargado, le contesta con una Redireccion y cierra; el cliente repite la
+ * solicitud allí y el emparejamiento y la carrera ya no pasan por aquí.
+ *
+ * Cada servidor de carreras manda un InformeCarga por UDP al mismo número de
+ * puerto cada intervaloInformeMs(); el que lleva tres intervalos sin
+ * informar se da por caído. Ese puerto UDP escucha solo en loopback (o en la
+ * dirección de camellos.enrutador.control) y solo se aceptan informes en
+ * formato binario desde loopback o desde los hosts de
+ * camellos.enrutador.servidores: quien informa decide adónde van los clientes.
+ * Como los informes llegan con retraso, a la carga
+ * informada se suman los clientes redirigidos desde el último, para que una
+ * ráfaga de conexiones no vaya entera al mismo servidor.
+ */
+public class Enrutador {
+    private final long caducidadNanos = 3 * intervaloInformeMs() * 1_000_000L;
+    private static final int TIMEOUT_SOLICITUD_MS = 5000;
+
+    private static final Metricas.Contador REDIRECCIONES = Metricas.contador("camellos_redirecciones_total",
+            "Clientes enviados a un servidor de carreras");
+    private static final Metricas.Contador SIN_SERVIDOR = Metricas.contador("camellos_sin_servidor_total",
+            "Clientes rechazados por no haber servidor de carreras disponible");
+    private static final Metricas.Contador INFORMES_RECHAZADOS = Metricas.contador("camellos_informes_rechazados_total",
+            "Datagramas de control de un host no permitido o que no son un InformeCarga binario");
+
+    private final int puerto = Configuracion.entero("camellos.puerto", 5000);
+    private final Map<String, Nodo> nodos = new ConcurrentHashMap<>();
+    private final ServerSocket serverSocket;
+    private final DatagramSocket control;
+    private final Set<InetAddress> permitidos = new HashSet<>();  // Además de loopback
+
+    // Un servidor de carreras tal como lo conoce el enrutador
+    private static final class Nodo {
+        final String host;
+        final int puerto;
+        volatile int conexiones;
+        volatile int grupos;
+        volatile int capacidad;
+        volatile long ultimoInforme;
+        final AtomicInteger redirigidos = new AtomicInteger();  // Desde el último informe
+
+        Nodo(String host, int puerto) {
+            this.host = host;
+            this.puerto = puerto;
+        }
+
+        int carga() {
+            return conexiones + redirigidos.get();
+        }
+
+        @Override
+        public String toString() {
+            return host + ":" + puerto;
+        }
+    }
+
+    public Enrutador() throws IOException {
+        serverSocket = new ServerSocket(puerto);
+        String interfaz = Configuracion.texto("camellos.enrutador.control", null);
+        InetAddress escucha = interfaz != null ? InetAddress.getByName(interfaz) : InetAddress.getLoopbackAddress();
+        control = new DatagramSocket(new InetSocketAddress(escucha, puerto));
+        String servidores = Configuracion.texto("camellos.enrutador.servidores", "");
+        for (String host : servidores.split("\\s*,\\s*")) {
+            if (!host.isEmpty()) permitidos.addAll(Arrays.asList(InetAddress.getAllByName(host)));
+        }
+        Registro.info("[ENRUTADOR] ========================================");
+        Registro.info("[ENRUTADOR] Enrutador en puerto {} (TCP clientes, UDP informes de carga en {})", puerto,
+                escucha.getHostAddress());
+        Registro.info("[ENRUTADOR] Informes aceptados de loopback{}", servidores.isEmpty() ? "" : " y " + servidores);
+        Registro.info("[ENRUTADOR] Informes cada {} ms", intervaloInformeMs());
+        Registro.info("[ENRUTADOR] ========================================");
+    }
+
+    public void start() {
+        Metricas.medidor("camellos_servidores_carreras", "Servidores de carreras que informan de su carga", nodos::size);
+        Metricas.exportar(Configuracion.entero("camellos.metricas.puerto", 9464));
+        Hilos.lanzarPlataforma("control", "enrutador-control", this::recibirInformes);
+
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket cliente = serverSocket.accept();
+                try {
+                    Hilos.lanzar("lector", "lector-" + cliente.getRemoteSocketAddress(), () -> atender(cliente));
+                } catch (RejectedExecutionException e) {
+                    // Modo pool sin hilos libres: se cierra en el acto en vez de dejarlo colgado
+                    Registro.aviso("[ENRUTADOR] Sin hilos libres en el pool (camellos.hilos.pool): cerrando {}",
+                            cliente.getRemoteSocketAddress());
+                    cliente.close();
+                }
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) break;
+                Registro.error("[ENRUTADOR ERROR] Al aceptar cliente: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void atender(Socket cliente) {
+        try (Socket socket = cliente) {
+            socket.setSoTimeout(TIMEOUT_SOLICITUD_MS);
+            socket.setTcpNoDelay(true);
+            Object obj = new LectorTramas(socket.getInputStream(), new CodecMensajes(CodecMensajes.FORMATO_JAVA)).leer();
+            if (!(obj instanceof SolicitudConexion)) {
+                Registro.error("[ENRUTADOR ERROR] Objeto no es SolicitudConexion");
+                return;
+            }
+            SolicitudConexion solicitud = (SolicitudConexion) obj;
+
+            Nodo nodo = elegir();
+            Object respuesta;
+            if (nodo != null) {
+                REDIRECCIONES.incrementar();
+                respuesta = new Redireccion(nodo.host, nodo.puerto);
+                Registro.depuracion("[ENRUTADOR] '{}' -> {}", solicitud.idCliente, nodo);
+            } else {
+                SIN_SERVIDOR.incrementar();
+                respuesta = new ErrorProtocolo(503, "Sin servidores de carreras disponibles");
+                Registro.aviso("[ENRUTADOR] Sin servidor para '{}'", solicitud.idCliente);
+            }
+
+            byte formato = solicitud.formato == CodecMensajes.FORMATO_BINARIO
+                    ? CodecMensajes.FORMATO_BINARIO : CodecMensajes.FORMATO_JAVA;
+            ByteBuffer trama = ByteBuffer.allocate(Tramas.MAX_TRAMA);
+            new CodecMensajes(formato).codificar(respuesta, trama);
+            OutputStream salida = socket.getOutputStream();
+            salida.write(trama.array(), 0, trama.position());
+            salida.flush();
+
+            // Cierre ordenado: si se cerrara con heartbeats del cliente sin leer, el RST
+            // podría llevarse por delante la respuesta. Se espera a que cierre él.
+            socket.shutdownOutput();
+            InputStream entrada = socket.getInputStream();
+            byte[] descarte = new byte[256];
+            while (entrada.read(descarte) >= 0) {
+                // Nada: solo hasta el EOF o el timeout
+            }
+        } catch (Exception e) {
+            Registro.depuracion("[ENRUTADOR] Conexión de {} terminada: {}", cliente.getRemoteSocketAddress(), e.getMessage());
+        }
+    }
+
+    /** El servidor vivo con menos carga que aún tenga sitio; null si no hay ninguno. */
+    private Nodo elegir() {
+        long ahora = System.nanoTime();
+        Nodo mejor = null;
+        for (Nodo nodo : nodos.values()) {
+            if (ahora - nodo.ultimoInforme > caducidadNanos) {
+                if (nodos.remove(nodo.toString(), nodo)) {
+                    Registro.aviso("[ENRUTADOR] Servidor {} sin informar: se deja de usar", nodo);
+                }
+                continue;
+            }
+            int carga = nodo.carga();
+            if (nodo.capacidad > 0 && carga >= nodo.capacidad) continue;
+            if (mejor == null || carga < mejor.carga() || (carga == mejor.carga() && nodo.grupos < mejor.grupos)) {
+                mejor = nodo;
+            }
+        }
+        if (mejor != null) mejor.redirigidos.incrementAndGet();
+        return mejor;
+    }
+
+    private void recibirInformes() {
+        CodecMensajes codec = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        byte[] datos = new byte[512];
+        DatagramPacket paquete = new DatagramPacket(datos, datos.length);
+        while (!control.isClosed()) {
+            try {
+                paquete.setLength(datos.length);
+                control.receive(paquete);
+                InetAddress origen = paquete.getAddress();
+                if (!origen.isLoopbackAddress() && !permitidos.contains(origen)) {
+                    INFORMES_RECHAZADOS.incrementar();
+                    Registro.depuracion("[ENRUTADOR] Informe de {} descartado: no está en camellos.enrutador.servidores",
+                            origen.getHostAddress());
+                    continue;
+                }
+                ByteBuffer b = ByteBuffer.wrap(datos, 0, paquete.getLength());
+                if (b.remaining() < 5) continue;
+                int longitud = b.getInt();
+                if (longitud <= 0 || longitud > b.remaining()) continue;
+                // Sin deserialización Java en un puerto sin autenticar
+                if (CodecMensajes.esFormatoJava(datos, 4)) {
+                    INFORMES_RECHAZADOS.incrementar();
+                    continue;
+                }
+                Object obj = codec.decodificar(datos, 4, longitud);
+                if (obj instanceof InformeCarga) {
+                    anotar((InformeCarga) obj, origen.getHostAddress());
+                } else {
+                    INFORMES_RECHAZADOS.incrementar();
+                }
+            } catch (Exception e) {
+                if (control.isClosed()) break;
+                Registro.error("[ENRUTADOR ERROR] Informe de carga: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void anotar(InformeCarga informe, String origen) {
+        String host = informe.host != null ? informe.host : origen;
+        Nodo nuevo = new Nodo(host, informe.puerto);
+        Nodo nodo = nodos.computeIfAbsent(nuevo.toString(), k -> nuevo);
+        if (nodo == nuevo) {
+            Registro.info("[ENRUTADOR] Servidor de carreras {} disponible (capacidad {})", nodo,
+                    informe.capacidad > 0 ? informe.capacidad : "sin límite");
+        }
+        nodo.conexiones = informe.conexiones;
+        nodo.grupos = informe.grupos;
+        nodo.capacidad = informe.capacidad;
+        nodo.redirigidos.set(0);
+        nodo.ultimoInforme = System.nanoTime();
+    }
+
+    private void apagar() {
+        Metricas.detener();
+        control.close();
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        Hilos.apagar(2000);
+    }
+
+    /** Cada cuánto informa un servidor de carreras (camellos.informe.ms); enrutador y servidores deben coincidir. */
+    static long intervaloInformeMs() {
+        return Configuracion.largo("camellos.informe.ms", 1000);
+    }
+
+    public static void main(String[] args) throws IOException {
+        Configuracion.cargar(args);
+        Enrutador enrutador = new Enrutador();
+        Runtime.getRuntime().addShutdownHook(new Thread(enrutador::apagar, "apagado"));
+        enrutador.start();
+    }
+}
@@ -0,0 +1,142 @@
+package servidor;
+
+import comun.Clasificacion;
+import protocolos.AsignacionGrupo;
+import protocolos.TablaIds;
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Estado de una carrera, de la sala de espera a la liberación:
+ * <pre>
+ * ESPERANDO → CUENTA_ATRAS → EN_CARRERA → FINALIZADO → LIBERADO
+ * </pre>
+ * Cada jugador ocupa un carril (su hueco en la sala) y su posición es un
+ * entero de ese carril en la Clasificacion del grupo, que mantiene el orden a
+ * cada paso; el carril se conserva aunque el jugador se vaya para que cuente
+ * en el ranking final.
+ *
+ * Los grupos liberados vuelven a la ReservaGrupos y se reinician
+ * con un id nuevo, así que un ClienteInfo debe comprobar que el id del grupo
+ * al que apunta sigue siendo el suyo (perteneceA) antes de tocarlo.
+ */
+final class Grupo {
+
+    enum Estado { ESPERANDO, CUENTA_ATRAS, EN_CARRERA, FINALIZADO, LIBERADO }
+
+    final int tamGrupo;
+    private volatile int id;
+    final AtomicReference<Estado> estado = new AtomicReference<>(Estado.LIBERADO);
+
+    // Sala de espera: huecos reservados; el carril es el orden de reserva
+    final AtomicInteger ocupados = new AtomicInteger();
+    long primeraLlegada;  // Se escribe antes de publicar el carril 0
+
+    // Por carril
+    final String[] ids;                                // Se escribe antes de publicar el miembro
+    final AtomicReferenceArray<ClienteInfo> miembros;  // null: carril libre o jugador ido
+    final Clasificacion clasificacion;
+    final long[] tokens;                               // Para reanudar la sesión; se fijan al asignar
+    final AtomicIntegerArray salidas;                  // 1 cuando el carril ya dio su SALIDA
+
+    final AtomicInteger conectados = new AtomicInteger();
+    TablaIds tabla;
+    int slot = -1;
+    long semilla;
+    AsignacionGrupo asignacion;  // La común a todos, sin token
+    long inicio;  // nanoTime de la salida
+    ScheduledFuture<?> tareaSalida;  // Fin de la cuenta atrás
+    SimulacionCarrera simulacion;
+
+    // Difusión periódica de la ClasificacionParcial; las copias solo las usa su tarea
+    ScheduledFuture<?> tareaClasificacion;
+    int cambiosDifundidos;
+    final int[] copiaOrden;
+    final int[] copiaPosiciones;
+
+    Grupo(int tamGrupo) {
+        this.tamGrupo = tamGrupo;
+        this.ids = new String[tamGrupo];
+        this.miembros = new AtomicReferenceArray<>(tamGrupo);
+        this.clasificacion = new Clasificacion(tamGrupo);
+        this.tokens = new long[tamGrupo];
+        this.salidas = new AtomicIntegerArray(tamGrupo);
+        this.copiaOrden = new int[tamGrupo];
+        this.copiaPosiciones = new int[tamGrupo];
+    }
+
+    /** Deja el grupo como recién creado, en la sala de espera y con otro id. */
+    void reiniciar(int nuevoId) {
+        for (int i = 0; i < tamGrupo; i++) {
+            ids[i] = null;
+            tokens[i] = 0;
+            salidas.set(i, 0);
+            miembros.set(i, null);
+        }
+        clasificacion.reiniciar();
+        ocupados.set(0);
+        conectados.set(0);
+        primeraLlegada = 0;
+        tabla = new TablaIds();
+        slot = -1;
+        semilla = 0;
+        asignacion = null;
+        inicio = 0;
+        tareaSalida = null;
+        simulacion = null;
+        tareaClasificacion = null;
+        cambiosDifundidos = -1;
+        id = nuevoId;
+        estado.set(Estado.ESPERANDO);
+    }
+
+    int id() {
+        return id;
+    }
+
+    boolean perteneceA(ClienteInfo info) {
+        return id == info.idGrupo;
+    }
+
+    boolean enCarrera() {
+        return estado.get() == Estado.EN_CARRERA;
+    }
+
+    /** Cambia de estado solo si está en el esperado; false si otro hilo se adelantó. */
+    boolean pasar(Estado desde, Estado hasta) {
+        return estado.compareAndSet(desde, hasta);
+    }
+
+    /** Sienta al cliente en el carril; lo último es publicarlo en miembros. */
+    void ocupar(int carril, ClienteInfo info) {
+        info.idGrupo = id;
+        info.carril = carril;
+        info.grupo = this;
+        tabla.handle(info.id);
+        info.conexion.usarTabla(tabla);
+        ids[carril] = info.id;
+        miembros.set(carril, info);
+    }
+
+    int carril(String idCliente) {
+        for (int i = 0; i < tamGrupo; i++) {
+            if (idCliente.equals(ids[i])) return i;
+        }
+        return -1;
+    }
+
+    /** Ids del primero al último, sin ordenar: la clasificación ya va en orden. */
+    List<String> ranking() {
+        int[] orden = clasificacion.orden();
+        List<String> ranking = new ArrayList<>(orden.length);
+        for (int carril : orden) ranking.add(ids[carril]);
+        return ranking;
+    }
+}
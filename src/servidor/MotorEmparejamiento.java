@@ -0,0 +1,35 @@
+package servidor;
+
+import servidor.ServidorEmparejamiento.ClienteInfo;
+
+import java.util.List;
+
+/**
+ * Cómo se forman los grupos con los clientes que esperan. El servidor le pasa
+ * cada alta nueva y el motor, cuando decide, rellena los carriles de un Grupo
+ * de la ReservaGrupos, lo pasa a CUENTA_ATRAS y llama a asignarGrupo.
+ * Se elige con -Dcamellos.emparejamiento:
+ * <ul>
+ *   <li>{@code lotes} (por defecto): EmparejadorPorLotes, por ida y vuelta
+ *       y puntuación, con tamaño mínimo, máximo y tiempo de llenado</li>
+ *   <li>{@code fifo}: Emparejador, por orden de llegada y tamaño fijo</li>
+ * </ul>
+ */
+interface MotorEmparejamiento {
+
+    void unirse(ClienteInfo info);
+
+    /**
+     * Nuevos límites de tamaño y de espera de llenado (cambio de configuración
+     * en caliente). Valen para los grupos que se formen desde entonces.
+     */
+    void redimensionar(int minimo, int maximo, long esperaNanos);
+
+    /** Ranking final de una carrera terminada, del primero al último. */
+    default void resultado(List<String> ranking) {
+    }
+
+    /** Arranca lo que el motor necesite en segundo plano; se llama desde start(). */
+    default void iniciar() {
+    }
+}
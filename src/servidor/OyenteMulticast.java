@@ -0,0 +1,103 @@
+package servidor;
+
+import comun.Registro;
+import protocolos.DatagramaPosicion;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Escucha los grupos multicast de las carreras activas para que el servidor
+ * conozca las posiciones sin tener que reenviarlas: los clientes se las
+ * mandan entre sí por UDP y el servidor solo las lee para el ranking final.
+ * Un único hilo atiende todos los grupos con un Selector.
+ */
+class OyenteMulticast implements Runnable {
+    private final ServidorEmparejamiento servidor;
+    private final Selector selector;
+    private final Queue<Runnable> tareas = new ConcurrentLinkedQueue<>();
+    private final ByteBuffer buffer = ByteBuffer.allocate(DatagramaPosicion.TAM_MAX);
+    private final DatagramaPosicion datagrama = new DatagramaPosicion();
+
+    OyenteMulticast(ServidorEmparejamiento servidor) throws IOException {
+        this.servidor = servidor;
+        this.selector = Selector.open();
+    }
+
+    void escuchar(int idGrupo, String ipMulticast, int puerto) {
+        ejecutar(() -> {
+            try {
+                DatagramChannel canal = DatagramaPosicion.abrirCanal(ipMulticast, puerto);
+                canal.configureBlocking(false);
+                canal.register(selector, SelectionKey.OP_READ, idGrupo);
+                Registro.info("[SERVIDOR] Escuchando multicast {}:{} (grupo {})", ipMulticast, puerto, idGrupo);
+            } catch (IOException e) {
+                Registro.error("[SERVIDOR ERROR] Al unirse a {}:{}: {}", ipMulticast, puerto, e.getMessage());
+            }
+        });
+    }
+
+    void dejar(int idGrupo) {
+        ejecutar(() -> {
+            for (SelectionKey clave : selector.keys()) {
+                if (Integer.valueOf(idGrupo).equals(clave.attachment())) {
+                    clave.cancel();
+                    try {
+                        clave.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        });
+    }
+
+    private void ejecutar(Runnable tarea) {
+        tareas.add(tarea);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+
+                Runnable tarea;
+                while ((tarea = tareas.poll()) != null) {
+                    tarea.run();
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey clave = it.next();
+                    it.remove();
+                    if (!clave.isValid()) continue;
+
+                    DatagramChannel canal = (DatagramChannel) clave.channel();
+                    int idGrupo = (Integer) clave.attachment();
+                    while (true) {
+                        buffer.clear();
+                        if (canal.receive(buffer) == null) break;
+                        buffer.flip();
+                        try {
+                            datagrama.leer(buffer);
+                        } catch (IOException e) {
+                            continue;  // Datagrama ajeno o corrupto
+                        }
+                        if (datagrama.idGrupo == idGrupo) {
+                            servidor.posicionMulticast(idGrupo, datagrama.idCliente, datagrama.pos);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                Registro.error("[SERVIDOR MULTICAST ERROR] {}", e.getMessage());
+            }
+        }
+    }
+}
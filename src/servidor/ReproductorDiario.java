@@ -0,0 +1,239 @@
+package servidor;
+
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Registro;
+import protocolos.*;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Lee el diario de carreras (-Dcamellos.diario del servidor) para auditar
+ * resultados discutidos.
+ *
+ * <pre>
+ * java servidor.ReproductorDiario directorio [listar|verificar|servir] [--grupo=N] [--velocidad=10] [--puerto=5000]
+ * </pre>
+ * <ul>
+ *   <li>listar: imprime los apuntes, o solo los del grupo indicado</li>
+ *   <li>verificar: vuelve a pasar los eventos de cada carrera por la lógica
+ *       de meta y ranking del servidor, sin esperas, y compara el resultado
+ *       con el FinCarrera apuntado; las carreras con un HUECO (apuntes
+ *       perdidos con el anillo lleno) salen como incompletas, no como
+ *       discrepancias</li>
+ *   <li>servir: hace de servidor para un cliente (ClienteCamel o un bot) y le
+ *       reproduce la carrera del grupo como espectador, a la velocidad dada</li>
+ * </ul>
+ */
+public class ReproductorDiario {
+
+    // Estado de una carrera durante la verificación, como en Grupo; el carril es el orden de la asignación
+    private static final class Carrera {
+        final String[] ids;
+        final int[] posiciones;
+        List<String> ranking;  // Calculado al finalizar; null si aún no
+
+        Carrera(List<String> ids) {
+            this.ids = ids.toArray(new String[0]);
+            this.posiciones = new int[this.ids.length];
+        }
+
+        int carril(String idCliente) {
+            for (int i = 0; i < ids.length; i++) {
+                if (idCliente.equals(ids[i])) return i;
+            }
+            return -1;
+        }
+    }
+
+    private static String opcion(String[] args, String nombre, String porDefecto) {
+        for (String arg : args) {
+            if (arg.startsWith("--" + nombre + "=")) {
+                return arg.substring(nombre.length() + 3);
+            }
+        }
+        return porDefecto;
+    }
+
+    public static void main(String[] args) throws Exception {
+        args = Configuracion.cargar(args);
+        if (args.length == 0) {
+            Registro.error("Uso: java servidor.ReproductorDiario directorio [listar|verificar|servir] "
+                    + "[--grupo=N] [--velocidad=10] [--puerto=5000]");
+            System.exit(1);
+        }
+        Path directorio = Paths.get(args[0]);
+        String accion = args.length > 1 && !args[1].startsWith("--") ? args[1] : "verificar";
+        int grupo = Integer.parseInt(opcion(args, "grupo", "-1"));
+
+        switch (accion) {
+            case "listar":
+                listar(directorio, grupo);
+                break;
+            case "verificar":
+                verificar(directorio);
+                break;
+            case "servir":
+                servir(directorio, grupo, Double.parseDouble(opcion(args, "velocidad", "1")),
+                        Integer.parseInt(opcion(args, "puerto", "5000")));
+                break;
+            default:
+                Registro.error("[DIARIO] Acción desconocida: {}", accion);
+                System.exit(1);
+        }
+    }
+
+    private static void listar(Path directorio, int grupo) throws IOException {
+        DiarioCarreras.leer(directorio, a -> {
+            if (grupo < 0 || a.idGrupo == grupo) {
+                Registro.info("{} {}", Instant.ofEpochSecond(0, a.instante), a);
+            }
+        });
+    }
+
+    // ========== VERIFICAR ==========
+
+    private static void verificar(Path directorio) throws IOException {
+        Map<Integer, Carrera> carreras = new HashMap<>();
+        long[] contadores = new long[3];  // apuntes, verificadas, discrepancias
+        // Grupos con HUECO; el HUECO puede llegar tras el FIN del grupo, que se escribió en la misma pasada
+        Set<Integer> incompletas = new HashSet<>();
+        Set<Integer> sinAsignacion = new HashSet<>();
+        BitSet coinciden = new BitSet();
+        Map<Integer, String> discrepancias = new TreeMap<>();
+        long[] instantes = {Long.MAX_VALUE, Long.MIN_VALUE};
+        long inicio = System.nanoTime();
+        // La misma meta que tenía el servidor (camellos.meta)
+        int meta = Configuracion.entero("camellos.meta", ServidorEmparejamiento.META_POR_DEFECTO);
+
+        DiarioCarreras.leer(directorio, a -> {
+            contadores[0]++;
+            instantes[0] = Math.min(instantes[0], a.instante);
+            instantes[1] = Math.max(instantes[1], a.instante);
+            switch (a.tipo) {
+                case DiarioCarreras.ASIGNACION: {
+                    Carrera c = new Carrera(a.ids);
+                    carreras.put(a.idGrupo, c);
+                    break;
+                }
+                case DiarioCarreras.EVENTO: {
+                    Carrera c = carreras.get(a.idGrupo);
+                    // Tras el cierre el servidor ya no apunta eventos; si aparece alguno, no cuenta
+                    if (c == null || c.ranking != null) break;
+                    int carril = c.carril(a.idCliente);
+                    if (carril < 0) break;
+                    c.posiciones[carril] = a.pos;
+                    if (a.tipoEvento == EventoCarrera.TipoEvento.META && a.pos >= meta) {
+                        c.ranking = ServidorEmparejamiento.calcularRanking(c.ids, c.posiciones);
+                    }
+                    break;
+                }
+                case DiarioCarreras.FIN: {
+                    Carrera c = carreras.remove(a.idGrupo);
+                    if (incompletas.contains(a.idGrupo)) break;
+                    if (c == null) {
+                        sinAsignacion.add(a.idGrupo);
+                    } else if (a.ids.equals(c.ranking)) {
+                        contadores[1]++;
+                        coinciden.set(a.idGrupo);
+                    } else {
+                        discrepancias.put(a.idGrupo, String.format("apuntado %s, recalculado %s (posiciones %s)",
+                                a.ids, c.ranking, Arrays.toString(c.posiciones)));
+                    }
+                    break;
+                }
+                case DiarioCarreras.HUECO: {
+                    if (!incompletas.add(a.idGrupo)) break;
+                    if (coinciden.get(a.idGrupo)) {
+                        coinciden.clear(a.idGrupo);
+                        contadores[1]--;
+                    }
+                    discrepancias.remove(a.idGrupo);
+                    sinAsignacion.remove(a.idGrupo);
+                    Registro.aviso("[DIARIO] Grupo {} incompleto: {} apuntes perdidos", a.idGrupo, a.pos);
+                    break;
+                }
+                default:
+                    break;
+            }
+        });
+
+        discrepancias.forEach((grupo, detalle) ->
+                Registro.aviso("[DIARIO] DISCREPANCIA grupo {}: {}", grupo, detalle));
+        contadores[2] = discrepancias.size();
+        carreras.keySet().removeAll(incompletas);
+
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        double grabado = contadores[0] > 0 ? (instantes[1] - instantes[0]) / 1e9 : 0;
+        Registro.info(String.format("[DIARIO] %d apuntes, %d carreras verificadas, %d discrepancias, %d incompletas, %d sin FinCarrera, %d sin asignación",
+                contadores[0], contadores[1], contadores[2], incompletas.size(), carreras.size(), sinAsignacion.size()));
+        Registro.info(String.format("[DIARIO] %.1f s de carreras reproducidos en %.3f s (x%.0f)",
+                grabado, segundos, segundos > 0 ? grabado / segundos : 0));
+        if (contadores[2] > 0) System.exit(2);
+    }
+
+    // ========== SERVIR ==========
+
+    private static void servir(Path directorio, int grupo, double velocidad, int puerto) throws Exception {
+        List<DiarioCarreras.Apunte> carrera = new ArrayList<>();
+        int[] elegido = {grupo};
+        DiarioCarreras.leer(directorio, a -> {
+            if (elegido[0] < 0 && a.tipo == DiarioCarreras.ASIGNACION) elegido[0] = a.idGrupo;
+            if (a.idGrupo == elegido[0]) carrera.add(a);
+        });
+        if (carrera.isEmpty() || carrera.get(0).tipo != DiarioCarreras.ASIGNACION) {
+            Registro.error("[DIARIO] No hay carrera completa del grupo {} en {}", elegido[0], directorio);
+            System.exit(1);
+        }
+        DiarioCarreras.Apunte asignacion = carrera.get(0);
+
+        try (ServerSocket servidor = new ServerSocket(puerto)) {
+            Registro.info("[DIARIO] Grupo {} ({}) esperando cliente en el puerto {}", asignacion.idGrupo, asignacion.ids, puerto);
+            Socket socket = servidor.accept();
+            ConexionBloqueante conexion = new ConexionBloqueante(socket);
+            Object obj = conexion.leer();
+            if (!(obj instanceof SolicitudConexion)) {
+                Registro.error("[DIARIO] Se esperaba SolicitudConexion");
+                conexion.cerrar();
+                return;
+            }
+            SolicitudConexion solicitud = (SolicitudConexion) obj;
+            conexion.usarFormato(solicitud.formato == CodecMensajes.FORMATO_BINARIO
+                    ? CodecMensajes.FORMATO_BINARIO : CodecMensajes.FORMATO_JAVA);
+            // Lo que mande el espectador (heartbeats, clics) no cuenta
+            Hilos.lanzar("lector", "reproductor-lector", () -> {
+                try {
+                    while (true) conexion.leer();
+                } catch (Exception ignored) {
+                }
+            });
+
+            Registro.info("[DIARIO] Reproduciendo para '{}' a x{}", solicitud.idCliente, velocidad);
+            conexion.enviar(new AsignacionGrupo(asignacion.idGrupo, "0.0.0.0", 0, asignacion.ids.size(),
+                    asignacion.semilla, false, false));
+            long anterior = asignacion.instante;
+            for (DiarioCarreras.Apunte a : carrera.subList(1, carrera.size())) {
+                long espera = (long) ((a.instante - anterior) / velocidad);
+                anterior = a.instante;
+                if (espera > 0) Thread.sleep(espera / 1_000_000, (int) (espera % 1_000_000));
+
+                if (a.tipo == DiarioCarreras.EVENTO) {
+                    conexion.enviar(new EventoCarrera(a.tipoEvento, a.idCliente, a.tMarca, a.pos));
+                } else if (a.tipo == DiarioCarreras.DESCONEXION) {
+                    conexion.enviar(new EstadoJugador(a.idCliente, false));
+                } else if (a.tipo == DiarioCarreras.FIN) {
+                    conexion.enviar(new FinCarrera(a.idGrupo, a.ids));
+                    break;
+                }
+            }
+            Thread.sleep(500);  // Que salga lo encolado antes de cerrar
+            conexion.cerrar();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package servidor;
+
+import comun.Configuracion;
+import comun.Metricas;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lo que comparten los motores de emparejamiento: los ids de grupo, que solo
+ * crecen; los huecos ("slots") que deciden la dirección y el puerto
+ * multicast, que se reciclan; y los objetos Grupo liberados, que vuelven a
+ * una reserva por tamaño para no crear uno por carrera.
+ */
+final class ReservaGrupos {
+    private static final Metricas.Contador CREADOS = Metricas.contador("camellos_grupos_creados_total",
+            "Objetos Grupo creados porque la reserva estaba vacía");
+    private static final int MAX_RESERVA = Configuracion.entero("camellos.grupos.reserva", 1024);
+
+    private final AtomicInteger siguienteIdGrupo = new AtomicInteger();
+    private final Map<Integer, ArrayBlockingQueue<Grupo>> reservas = new ConcurrentHashMap<>();
+
+    private final ConcurrentSkipListSet<Integer> slotsLibres = new ConcurrentSkipListSet<>();
+    private final AtomicInteger siguienteSlot = new AtomicInteger();
+
+    ReservaGrupos() {
+        Metricas.medidor("camellos_grupos_en_reserva", "Grupos liberados listos para reutilizar", this::enReserva);
+    }
+
+    /** Un grupo de tamGrupo carriles en la sala de espera, con un id nuevo. */
+    Grupo nuevo(int tamGrupo) {
+        Grupo g = reserva(tamGrupo).poll();
+        if (g == null) {
+            g = new Grupo(tamGrupo);
+            CREADOS.incrementar();
+        }
+        g.reiniciar(siguienteIdGrupo.getAndIncrement());
+        return g;
+    }
+
+    /** Devuelve a la reserva un grupo LIBERADO; si está llena se deja al recolector. */
+    void reciclar(Grupo g) {
+        reserva(g.tamGrupo).offer(g);
+    }
+
+    int adquirirSlot() {
+        Integer slot = slotsLibres.pollFirst();
+        return slot != null ? slot : siguienteSlot.getAndIncrement();
+    }
+
+    void liberarSlot(int slot) {
+        slotsLibres.add(slot);
+    }
+
+    private ArrayBlockingQueue<Grupo> reserva(int tamGrupo) {
+        return reservas.computeIfAbsent(tamGrupo, t -> new ArrayBlockingQueue<>(MAX_RESERVA));
+    }
+
+    private int enReserva() {
+        int total = 0;
+        for (ArrayBlockingQueue<Grupo> reserva : reservas.values()) {
+            total += reserva.size();
+        }
+        return total;
+    }
+}
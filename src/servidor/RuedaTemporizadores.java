@@ -0,0 +1,128 @@
+package servidor;
+
+import comun.Registro;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Rueda de temporizadores (hashed timing wheel): el tiempo se divide en ticks
+ * y cada temporizador cuelga de la ranura de su tick de vencimiento, en una
+ * lista doblemente enlazada. Programar, reprogramar y cancelar son O(1); en
+ * cada tick solo se recorre una ranura. Los plazos mayores que una vuelta de
+ * la rueda comparten ranura con otros y se quedan hasta que su tick llegue.
+ *
+ * Las acciones vencidas se ejecutan en el hilo de la rueda, fuera del cerrojo,
+ * así que pueden volver a programar su propio temporizador.
+ */
+class RuedaTemporizadores implements Runnable {
+
+    static final class Temporizador {
+        final Runnable accion;
+        long plazoTick;
+        Temporizador anterior;
+        Temporizador siguiente;
+        int ranura = -1;  // -1 = no programado
+
+        Temporizador(Runnable accion) {
+            this.accion = accion;
+        }
+    }
+
+    private final long tickNanos;
+    private final Temporizador[] ranuras;
+    private final int mascara;
+    private final long inicio = System.nanoTime();
+    private long tickActual = 0;  // Último tick procesado
+    private final List<Temporizador> vencidos = new ArrayList<>();
+    private volatile boolean detenida = false;
+
+    RuedaTemporizadores(long tickNanos, int numRanuras) {
+        if (Integer.bitCount(numRanuras) != 1) {
+            throw new IllegalArgumentException("El número de ranuras debe ser potencia de 2: " + numRanuras);
+        }
+        this.tickNanos = tickNanos;
+        this.ranuras = new Temporizador[numRanuras];
+        this.mascara = numRanuras - 1;
+    }
+
+    /** Programa (o reprograma) el temporizador para dentro de retrasoNanos. */
+    synchronized void programar(Temporizador t, long retrasoNanos) {
+        quitar(t);
+
+        long plazo = (System.nanoTime() - inicio + Math.max(0, retrasoNanos) + tickNanos - 1) / tickNanos;
+        if (plazo <= tickActual) plazo = tickActual + 1;
+
+        int r = (int) (plazo & mascara);
+        t.plazoTick = plazo;
+        t.ranura = r;
+        t.anterior = null;
+        t.siguiente = ranuras[r];
+        if (ranuras[r] != null) ranuras[r].anterior = t;
+        ranuras[r] = t;
+    }
+
+    synchronized void cancelar(Temporizador t) {
+        quitar(t);
+    }
+
+    private void quitar(Temporizador t) {
+        if (t.ranura < 0) return;
+        if (t.anterior != null) {
+            t.anterior.siguiente = t.siguiente;
+        } else {
+            ranuras[t.ranura] = t.siguiente;
+        }
+        if (t.siguiente != null) t.siguiente.anterior = t.anterior;
+        t.anterior = null;
+        t.siguiente = null;
+        t.ranura = -1;
+    }
+
+    void detener() {
+        detenida = true;
+    }
+
+    @Override
+    public void run() {
+        while (!detenida) {
+            long siguienteTick;
+            synchronized (this) {
+                siguienteTick = inicio + (tickActual + 1) * tickNanos;
+            }
+            long espera = siguienteTick - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+                if (Thread.interrupted()) return;
+                continue;
+            }
+
+            synchronized (this) {
+                long tickAhora = (System.nanoTime() - inicio) / tickNanos;
+                // Si el hilo se ha retrasado (GC, carga) se procesan todos los ticks pendientes
+                while (tickActual < tickAhora) {
+                    tickActual++;
+                    Temporizador t = ranuras[(int) (tickActual & mascara)];
+                    while (t != null) {
+                        Temporizador sig = t.siguiente;
+                        if (t.plazoTick <= tickActual) {
+                            quitar(t);
+                            vencidos.add(t);
+                        }
+                        t = sig;
+                    }
+                }
+            }
+
+            for (Temporizador t : vencidos) {
+                try {
+                    t.accion.run();
+                } catch (Exception e) {
+                    Registro.error("[SERVIDOR MONITOR ERROR] {}", e.getMessage());
+                }
+            }
+            vencidos.clear();
+        }
+    }
+}
@@ -1,303 +1,970 @@
 package servidor;
 
+import comun.Configuracion;
+import comun.Hilos;
+import comun.Histograma;
+import comun.Metricas;
+import comun.Registro;
 import protocolos.*;
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ServidorEmparejamiento {
 
-    private final int puertoControl = 5000;
-    private ServerSocket serverSocket;
-    private int siguienteIdGrupo = 0;
-    private final int TAM_GRUPO = 2;
-    private final int MAX_GRUPOS = 3;
-    private final int META = 650;
+    public enum Modo { BLOQUEANTE, NIO }
 
-    private List<String> ipsMulticast = Arrays.asList(
-            "239.0.0.1", "239.0.0.2", "239.0.0.3"
-    );
-    private int puertoMulticastBase = 6000;
+    // Qué hacer con un cliente cuya cola de salida está llena
+    public enum PoliticaLentos { DESCARTAR, DESCONECTAR }
 
-    // Guardar información de clientes por grupo
-    private Map<Integer, List<ClienteInfo>> clientesPorGrupo = new ConcurrentHashMap<>();
-    private Map<String, Long> clienteUltimoHeartbeat = new ConcurrentHashMap<>();
-    private Map<Integer, Map<String, Integer>> grupoPosiciones = new ConcurrentHashMap<>();
-    private Map<Integer, Boolean> grupoFinalizado = new ConcurrentHashMap<>(); // Controla si el grupo terminó
-    private Map<Integer, List<String>> grupoRanking = new ConcurrentHashMap<>(); // Ranking final por grupo
+    private final int puertoControl = Configuracion.entero("camellos.puerto", 5000);
+    private final Modo modo;
+    private ServerSocket serverSocket;
+    // Tamaño de grupo y espera de llenado: en caliente, para los grupos que se formen desde entonces
+    private final Configuracion.Ajuste GRUPO_MAX = Configuracion.ajuste("camellos.grupo.max",
+            Configuracion.entero("camellos.grupo.tam", 2), 1, TablaIds.MAX_IDS);
+    private final Configuracion.Ajuste GRUPO_MIN = Configuracion.ajuste("camellos.grupo.min", 1, 1, TablaIds.MAX_IDS);
+    private final Configuracion.Ajuste ESPERA_LLENADO_MS = Configuracion.ajuste("camellos.grupo.espera.ms", 10_000, 0, 3_600_000);
+    private final String EMPAREJAMIENTO = Configuracion.texto("camellos.emparejamiento", "lotes");
+    final ReservaGrupos reservaGrupos = new ReservaGrupos();
+    private final MotorEmparejamiento emparejador = crearMotor();
+    static final int META_POR_DEFECTO = 650;
+    // Bytes UTF-8 de un id de cliente: va en cada evento reenviado y en el diario, que guarda la longitud en un short
+    static final int MAX_ID_CLIENTE = 256;
+    // Clientes y servidor la leen de la misma configuración; no cambia en caliente
+    private final int META = Configuracion.entero("camellos.meta", META_POR_DEFECTO);
 
-    private static final long TIMEOUT_HEARTBEAT = 20000;
+    private List<String> ipsMulticast = Arrays.asList(
+            Configuracion.texto("camellos.multicast.direcciones", "239.0.0.1,239.0.0.2,239.0.0.3").split("\\s*,\\s*"));
+    private int puertoMulticastBase = Configuracion.entero("camellos.multicast.puerto", 6000);
+    // Con multicast, PASO/CAIDA van de cliente a cliente por UDP y el servidor solo los escucha
+    private final boolean multicast = Configuracion.booleano("camellos.multicast");
+    private OyenteMulticast oyenteMulticast;
+
+    // En modo autoritativo el servidor simula la carrera a TICK_HZ y los clics son solo entradas
+    private final boolean autoritativa = Configuracion.booleano("camellos.autoritativa");
+    private final Configuracion.Ajuste TICK_HZ = Configuracion.ajuste("camellos.tick.hz", 30, 1, 1000);
+    private ScheduledExecutorService relojCarreras;
+    // La salida se da a la vez en todos los clientes, CUENTA_ATRAS_MS después de asignar el grupo (hora del servidor)
+    private final Configuracion.Ajuste CUENTA_ATRAS_MS = Configuracion.ajuste("camellos.cuenta.atras.ms", 3000, 0, 60_000);
+
+    // Clasificación en vivo (los K primeros y el puesto propio) como mucho CLASIFICACION_HZ veces por segundo; 0 la desactiva
+    private final Configuracion.Ajuste CLASIFICACION_HZ = Configuracion.ajuste("camellos.clasificacion.hz", 4, 0, 1000);
+    private final int CLASIFICACION_K = Configuracion.entero("camellos.clasificacion.k", 3);
+
+    // Con -Dcamellos.enrutador=host:puerto este es uno de varios servidores de carreras tras un Enrutador,
+    // al que informa de su carga; los clientes llegan redirigidos desde él
+    private final String enrutador = Configuracion.texto("camellos.enrutador", null);
+    private final String hostAnunciado = Configuracion.texto("camellos.anunciar", null);  // null: el enrutador usa el de origen
+    private final int CAPACIDAD = Configuracion.entero("camellos.capacidad", 0);
+    private DatagramSocket canalInformes;
+
+    // Diario de carreras para auditoría, solo con -Dcamellos.diario=directorio
+    private DiarioCarreras diario;
+
+    // Grupos asignados y aún no liberados, para quien solo tiene el id (multicast, simulación)
+    private final Map<Integer, Grupo> grupos = new ConcurrentHashMap<>();
+
+    // Si se acorta en caliente, quien ya estaba esperando se comprueba al vencer su plazo anterior
+    private static final Configuracion.Ajuste TIMEOUT_HEARTBEAT_MS = Configuracion.ajuste("camellos.heartbeat.timeout.ms",
+            20_000, 1000, 3_600_000);
+    // Precisión con la que se detecta un timeout de heartbeat
+    private final RuedaTemporizadores rueda = new RuedaTemporizadores(
+            TimeUnit.MILLISECONDS.toNanos(Configuracion.entero("camellos.rueda.tick.ms", 10)), 512);
+    private static final int MAX_DESCARTES_SEGUIDOS = 64;
+
+    // PASO/CAIDA que se reenvían de cada cliente: EVENTOS_HZ por segundo con ráfagas de EVENTOS_RAFAGA;
+    // lo que pase de ahí se agrupa y solo sale la última posición. 0 lo desactiva. En caliente, para las conexiones nuevas
+    private final Configuracion.Ajuste EVENTOS_HZ = Configuracion.ajuste("camellos.eventos.hz", 30, 0, 100_000);
+    private final Configuracion.Ajuste EVENTOS_RAFAGA = Configuracion.ajuste("camellos.eventos.rafaga", 10, 1, 100_000);
+    // Lo que se deja de leer a un emisor cuando la cola de salida de alguien de su grupo no da abasto
+    private final Configuracion.Ajuste PAUSA_LECTURA_MS = Configuracion.ajuste("camellos.contrapresion.ms", 20, 1, 10_000);
+
+    private static final Metricas.Contador CONEXIONES = Metricas.contador("camellos_conexiones_total", "Clientes registrados");
+    private static final Metricas.Contador TIMEOUTS = Metricas.contador("camellos_heartbeat_timeouts_total", "Clientes expulsados por no enviar heartbeat");
+    private static final Metricas.Contador EVENTOS = Metricas.contador("camellos_eventos_total", "Eventos de carrera recibidos");
+    private static final Metricas.Contador CLASIFICACIONES = Metricas.contador("camellos_clasificaciones_total",
+            "Clasificaciones en vivo difundidas a un grupo");
+    private static final Metricas.Contador REANUDACIONES = Metricas.contador("camellos_reanudaciones_total",
+            "Sesiones reanudadas en su grupo y carril tras un corte");
+    private static final Metricas.Contador REANUDACIONES_FALLIDAS = Metricas.contador("camellos_reanudaciones_fallidas_total",
+            "Intentos de reanudar con token o grupo no válidos, o con la carrera ya acabada");
+    private static final Metricas.Contador HILOS_AGOTADOS = Metricas.contador("camellos_conexiones_sin_hilo_total",
+            "Conexiones cerradas al aceptarlas porque el pool de hilos estaba lleno");
+    private static final Metricas.Contador DESCARTES = Metricas.contador("camellos_descartes_total", "Mensajes descartados por cola de salida llena");
+    private static final Metricas.Contador AGRUPADOS = Metricas.contador("camellos_eventos_agrupados_total",
+            "PASO/CAIDA sin reenviar porque el mismo cliente envió otro antes de tener ficha");
+    private static final Metricas.Contador RECHAZADOS = Metricas.contador("camellos_eventos_rechazados_total",
+            "SALIDA/META descartados por llegar sin ficha, o SALIDA repetida en el mismo carril");
+    private static final Metricas.Contador PAUSAS = Metricas.contador("camellos_pausas_lectura_total",
+            "Pausas de lectura a un emisor porque alguien de su grupo no da abasto");
+    private static final Histograma ESPERA = Metricas.histograma("camellos_espera_emparejamiento_segundos",
+            "Desde que el cliente se registra hasta que se le asigna grupo");
+    private static final Histograma REENVIO = Metricas.histograma("camellos_reenvio_segundos",
+            "Tiempo en encolar un evento o instantánea para todo el grupo");
+    private static final Histograma DURACION = Metricas.histograma("camellos_carrera_duracion_segundos",
+            "Desde la salida hasta FinCarrera");
+    private static final Histograma IDA_VUELTA = Metricas.histograma("camellos_ida_vuelta_segundos",
+            "Ida y vuelta al servidor que estima cada cliente con los ecos de heartbeat");
+    private static final SecureRandom AZAR_TOKENS = new SecureRandom();
+    private final AtomicInteger clientesActivos = new AtomicInteger();
+    private final PoliticaLentos politicaLentos = PoliticaLentos.valueOf(
+            Configuracion.texto("camellos.lentos", "descartar").toUpperCase());
 
     // Clase interna para guardar info de cliente
-    private static class ClienteInfo {
+    static class ClienteInfo {
         String id;
-        Socket socket;
-        ObjectOutputStream oos;
-        ObjectInputStream ois;
+        int idGrupo;
+        int carril;
+        volatile Grupo grupo;  // Se publica después de idGrupo y carril
+        Conexion conexion;
+        final AtomicInteger descartesSeguidos = new AtomicInteger();
+        volatile long ultimoLatido = System.nanoTime();
+        RuedaTemporizadores.Temporizador temporizador;
+        final AtomicBoolean desconectado = new AtomicBoolean();
+        final long llegada;
+        // Lo último que ha estimado el cliente con los ecos de heartbeat; -1 mientras no lo sepa
+        volatile long idaVuelta = -1;  // ns
+        volatile long desfase;         // ms que el servidor va por delante del cliente
+        // Límite de reenvío (null sin límite) y el último PASO/CAIDA que espera ficha
+        CuboFichas cubo;
+        RuedaTemporizadores.Temporizador vaciado;
+        final AtomicReference<EventoCarrera> pendiente = new AtomicReference<>();
+        final AtomicBoolean vaciadoProgramado = new AtomicBoolean();
+
+        ClienteInfo(String id, Conexion conexion) {
+            this(id, conexion, System.nanoTime());
+        }
 
-        ClienteInfo(String id, Socket socket, ObjectOutputStream oos, ObjectInputStream ois) {
+        ClienteInfo(String id, Conexion conexion, long llegada) {
             this.id = id;
-            this.socket = socket;
-            this.oos = oos;
-            this.ois = ois;
+            this.conexion = conexion;
+            this.llegada = llegada;
+        }
+    }
+
+    public ServidorEmparejamiento(Modo modo) throws IOException {
+        this.modo = modo;
+        if (modo == Modo.BLOQUEANTE) {
+            serverSocket = new ServerSocket(puertoControl);
+        }
+        Registro.info("[SERVIDOR] ========================================");
+        Registro.info("[SERVIDOR] Servidor iniciado en puerto {} (modo {})", puertoControl, modo);
+        if (emparejador instanceof EmparejadorPorLotes) {
+            Registro.info("[SERVIDOR] Emparejamiento por lotes cada {} ms: grupos de {} a {}, llenado {} ms",
+                    EmparejadorPorLotes.PERIODO_MS.valor(), GRUPO_MIN.valor(), GRUPO_MAX.valor(), ESPERA_LLENADO_MS.valor());
+        } else {
+            Registro.info("[SERVIDOR] Emparejamiento por orden de llegada: grupos de {}", GRUPO_MAX.valor());
+        }
+        Registro.info("[SERVIDOR] META = {}", META);
+        Registro.info("[SERVIDOR] Posiciones por multicast: {}", (multicast && !autoritativa ? "sí" : "no"));
+        Registro.info("[SERVIDOR] Carrera autoritativa: {}", (autoritativa ? "sí (" + TICK_HZ.valor() + " Hz)" : "no"));
+        Registro.info("[SERVIDOR] Cuenta atrás: {} ms", CUENTA_ATRAS_MS.valor());
+        if (enrutador != null) {
+            Registro.info("[SERVIDOR] Tras el enrutador {} (capacidad {})", enrutador, CAPACIDAD > 0 ? CAPACIDAD : "sin límite");
         }
+        Registro.info("[SERVIDOR] Clasificación en vivo: {}",
+                (CLASIFICACION_HZ.valor() > 0 ? "top " + CLASIFICACION_K + " a " + CLASIFICACION_HZ.valor() + " Hz" : "no"));
+        Registro.info("[SERVIDOR] Reenvío de PASO/CAIDA por cliente: {}",
+                (EVENTOS_HZ.valor() > 0 ? EVENTOS_HZ.valor() + "/s, ráfagas de " + EVENTOS_RAFAGA.valor() : "sin límite"));
+        Registro.info("[SERVIDOR] ========================================");
     }
 
-    public ServidorEmparejamiento() throws IOException {
-        serverSocket = new ServerSocket(puertoControl);
-        System.out.println("[SERVIDOR] ========================================");
-        System.out.println("[SERVIDOR] Servidor iniciado en puerto " + puertoControl);
-        System.out.println("[SERVIDOR] TAM_GRUPO = " + TAM_GRUPO);
-        System.out.println("[SERVIDOR] META = " + META);
-        System.out.println("[SERVIDOR] ========================================");
+    private MotorEmparejamiento crearMotor() {
+        switch (EMPAREJAMIENTO) {
+            case "fifo":
+                return new Emparejador(this, reservaGrupos, GRUPO_MAX.valor());
+            case "lotes":
+                return new EmparejadorPorLotes(this, reservaGrupos, Math.min(GRUPO_MIN.valor(), GRUPO_MAX.valor()),
+                        GRUPO_MAX.valor(), TimeUnit.MILLISECONDS.toNanos(ESPERA_LLENADO_MS.valor()));
+            default:
+                throw new IllegalArgumentException("camellos.emparejamiento desconocido: " + EMPAREJAMIENTO);
+        }
     }
 
     public void start() throws IOException {
-        new Thread(this::monitorHeartbeat).start();
-        System.out.println("[SERVIDOR] Esperando clientes...");
+        Registro.info("[SERVIDOR] Hilos: {}", Hilos.MODO);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::apagar, "apagado"));
+
+        Hilos.lanzarPlataforma("monitor", "monitor-heartbeat", rueda);
+
+        Metricas.medidor("camellos_conexiones_activas", "Clientes conectados", clientesActivos::get);
+        Metricas.medidor("camellos_grupos_activos", "Grupos con carrera en curso o por liberar", grupos::size);
+        Metricas.exportar(Configuracion.entero("camellos.metricas.puerto", 9464));
+        String dirDiario = Configuracion.texto("camellos.diario", null);
+        if (dirDiario != null) {
+            diario = new DiarioCarreras(Paths.get(dirDiario), Configuracion.largo("camellos.diario.segmento.mb", 64) * 1024 * 1024);
+            Hilos.lanzarPlataforma("diario", "diario-carreras", diario);
+        }
+        relojCarreras = Hilos.planificador("reloj-carreras", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        emparejador.iniciar();
+        Runnable redimensionar = () -> emparejador.redimensionar(Math.min(GRUPO_MIN.valor(), GRUPO_MAX.valor()),
+                GRUPO_MAX.valor(), TimeUnit.MILLISECONDS.toNanos(ESPERA_LLENADO_MS.valor()));
+        GRUPO_MAX.alCambiar(redimensionar);
+        GRUPO_MIN.alCambiar(redimensionar);
+        ESPERA_LLENADO_MS.alCambiar(redimensionar);
+        if (enrutador != null) {
+            iniciarInformes();
+        }
+        if (multicast && !autoritativa) {
+            oyenteMulticast = new OyenteMulticast(this);
+            Hilos.lanzarPlataforma("multicast-oyente", "multicast-oyente", oyenteMulticast);
+        }
 
-        while (true) {
+        if (modo == Modo.NIO) {
+            int bucles = Configuracion.entero("camellos.nio.bucles", Runtime.getRuntime().availableProcessors());
+            new ServidorNio(this, puertoControl, bucles).iniciar();
+            return;
+        }
+
+        Registro.info("[SERVIDOR] Esperando clientes...");
+
+        while (!serverSocket.isClosed()) {
             try {
                 Socket cliente = serverSocket.accept();
-                System.out.println("[SERVIDOR] >>> NUEVA CONEXIÓN desde " + cliente.getInetAddress());
-                new Thread(() -> manejarCliente(cliente)).start();
+                Registro.depuracion("[SERVIDOR] >>> NUEVA CONEXIÓN desde {}", cliente.getInetAddress());
+                try {
+                    Hilos.lanzar("lector", "lector-" + cliente.getRemoteSocketAddress(), () -> manejarCliente(cliente));
+                } catch (RejectedExecutionException e) {
+                    rechazarPorHilos(cliente);
+                }
             } catch (Exception e) {
-                System.err.println("[SERVIDOR ERROR] Al aceptar cliente: " + e.getMessage());
+                if (serverSocket.isClosed()) break;  // Apagado
+                Registro.error("[SERVIDOR ERROR] Al aceptar cliente: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void iniciarInformes() throws IOException {
+        int dosPuntos = enrutador.lastIndexOf(':');
+        InetSocketAddress destino = new InetSocketAddress(enrutador.substring(0, dosPuntos),
+                Integer.parseInt(enrutador.substring(dosPuntos + 1)));
+        canalInformes = new DatagramSocket();
+        CodecMensajes codec = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        // Solo lo usa esta tarea; si se pierde un datagrama ya llegará el siguiente
+        relojCarreras.scheduleAtFixedRate(() -> {
+            try {
+                buffer.clear();
+                codec.codificar(new InformeCarga(hostAnunciado, puertoControl, clientesActivos.get(), grupos.size(),
+                        CAPACIDAD), buffer);
+                canalInformes.send(new DatagramPacket(buffer.array(), buffer.position(), destino));
+            } catch (IOException e) {
+                Registro.depuracion("[SERVIDOR] Informe de carga no enviado: {}", e.getMessage());
             }
+        }, 0, Enrutador.intervaloInformeMs(), TimeUnit.MILLISECONDS);
+    }
+
+    private void apagar() {
+        Registro.info("[SERVIDOR] Apagando - tareas activas: {}", Hilos.activos());
+        Metricas.detener();
+        if (canalInformes != null) canalInformes.close();
+        if (diario != null) diario.cerrar();
+        try {
+            if (serverSocket != null) serverSocket.close();
+        } catch (IOException ignored) {
         }
+        rueda.detener();
+        Hilos.apagar(2000);
     }
 
     private void manejarCliente(Socket cliente) {
-        ObjectOutputStream oos = null;
-        ObjectInputStream ois = null;
-        String idCliente = null;
+        ClienteInfo info = null;
+        ConexionBloqueante conexion = null;
 
         try {
-            System.out.println("[SERVIDOR] Inicializando streams...");
-            oos = new ObjectOutputStream(cliente.getOutputStream());
-            oos.flush();
-            ois = new ObjectInputStream(cliente.getInputStream());
-            System.out.println("[SERVIDOR] Streams inicializados!");
+            Registro.depuracion("[SERVIDOR] Inicializando streams...");
+            conexion = new ConexionBloqueante(cliente);
+            Registro.depuracion("[SERVIDOR] Streams inicializados!");
 
-            Object obj = ois.readObject();
+            Object obj = conexion.leer();
             if (!(obj instanceof SolicitudConexion)) {
-                System.err.println("[SERVIDOR ERROR] Objeto no es SolicitudConexion");
+                Registro.error("[SERVIDOR ERROR] Objeto no es SolicitudConexion");
                 cliente.close();
                 return;
             }
 
-            SolicitudConexion solicitud = (SolicitudConexion) obj;
-            idCliente = solicitud.idCliente;
-            System.out.println("[SERVIDOR] Cliente conectado: '" + idCliente + "'");
-
-            int idGrupo = agregarClienteAEspera(idCliente, cliente, oos, ois);
+            info = registrarCliente(conexion, (SolicitudConexion) obj);
 
             // Mantener conexión abierta y escuchar eventos del cliente
-            escucharEventosCliente(idCliente, idGrupo, ois);
+            escucharEventosCliente(info, conexion);
 
+        } catch (StreamCorruptedException e) {
+            Registro.error("[SERVIDOR ERROR] Trama mal formada de {}: {}", cliente.getRemoteSocketAddress(), e.getMessage());
+            conexion.rechazar(e.getMessage());
         } catch (Exception e) {
-            System.err.println("[SERVIDOR ERROR] En manejarCliente '" + idCliente + "': " + e.getMessage());
+            Registro.error("[SERVIDOR ERROR] En manejarCliente '{}': {}", (info != null ? info.id : null), e.getMessage());
         } finally {
-            if (idCliente != null) {
-                clienteUltimoHeartbeat.remove(idCliente);
-                System.out.println("[SERVIDOR] Cliente desconectado: " + idCliente);
+            if (info != null) {
+                info.conexion.cerrar();
+                clienteDesconectado(info);
+            } else {
+                // No llegó a registrarse (p. ej. sin hilo escritor libre): nadie más cerrará el socket
+                try {
+                    cliente.close();
+                } catch (IOException ignored) {
+                }
             }
         }
     }
 
-    private int agregarClienteAEspera(String idCliente, Socket socket, ObjectOutputStream oos, ObjectInputStream ois) throws IOException {
-        synchronized (this) {
-            int idGrupo = siguienteIdGrupo;
-
-            ClienteInfo info = new ClienteInfo(idCliente, socket, oos, ois);
-            clientesPorGrupo.computeIfAbsent(idGrupo, k -> new ArrayList<>()).add(info);
-            grupoPosiciones.computeIfAbsent(idGrupo, k -> new ConcurrentHashMap<>()).put(idCliente, 0);
-            grupoFinalizado.putIfAbsent(idGrupo, false);
-            grupoRanking.putIfAbsent(idGrupo, new ArrayList<>());
-            clienteUltimoHeartbeat.put(idCliente, System.currentTimeMillis());
+    // Modo pool sin hilos libres: mejor cerrar en el acto que dejar al cliente colgado sin respuesta
+    private static void rechazarPorHilos(Socket cliente) {
+        HILOS_AGOTADOS.incrementar();
+        Registro.aviso("[SERVIDOR] Sin hilos libres en el pool (camellos.hilos.pool): cerrando {}", cliente.getRemoteSocketAddress());
+        try {
+            cliente.close();
+        } catch (IOException ignored) {
+        }
+    }
 
-            int clientesActuales = clientesPorGrupo.get(idGrupo).size();
-            System.out.println("[SERVIDOR] Clientes en grupo " + idGrupo + ": " + clientesActuales + "/" + TAM_GRUPO);
+    ClienteInfo registrarCliente(Conexion conexion, SolicitudConexion solicitud) throws IOException {
+        String id = solicitud.idCliente;
+        if (id == null || id.isEmpty() || id.getBytes(StandardCharsets.UTF_8).length > MAX_ID_CLIENTE) {
+            throw new StreamCorruptedException("Id de cliente vacío o de más de " + MAX_ID_CLIENTE + " bytes");
+        }
+        ClienteInfo info = new ClienteInfo(solicitud.idCliente, conexion);
+        CONEXIONES.incrementar();
+        clientesActivos.incrementAndGet();
+        byte formato = solicitud.formato == CodecMensajes.FORMATO_BINARIO ? CodecMensajes.FORMATO_BINARIO : CodecMensajes.FORMATO_JAVA;
+        conexion.usarFormato(formato);
+        Registro.info("[SERVIDOR] Cliente conectado: '{}' (formato {})", info.id, (formato == CodecMensajes.FORMATO_BINARIO ? "binario" : "java"));
+        info.temporizador = new RuedaTemporizadores.Temporizador(() -> comprobarLatido(info));
+        rueda.programar(info.temporizador, TimeUnit.MILLISECONDS.toNanos(TIMEOUT_HEARTBEAT_MS.valor()));
+        int eventosHz = EVENTOS_HZ.valor();
+        if (eventosHz > 0) {
+            info.cubo = new CuboFichas(eventosHz, EVENTOS_RAFAGA.valor(), System.nanoTime());
+            info.vaciado = new RuedaTemporizadores.Temporizador(() -> vaciarPendiente(info));
+        }
+        if (solicitud.token == 0) {
+            emparejador.unirse(info);
+        } else if (!reanudar(info, solicitud)) {
+            REANUDACIONES_FALLIDAS.incrementar();
+            Registro.aviso("[SERVIDOR] '{}' no puede reanudar en el grupo {}", info.id, solicitud.idGrupo);
+            // Lo cierra el cliente al leerlo; fuera de todo grupo, su desconexión no afecta a nadie
+            info.conexion.enviar(new ErrorProtocolo(410, "Sesión no reanudable"));
+        }
+        return info;
+    }
 
-            if (clientesActuales == TAM_GRUPO) {
-                System.out.println("[SERVIDOR] GRUPO " + idGrupo + " completo - asignando...");
-                asignarGrupo(idGrupo);
-                siguienteIdGrupo = (siguienteIdGrupo + 1) % MAX_GRUPOS;
+    /**
+     * Vuelve a poner al cliente en su grupo y carril tras un corte. Si la
+     * conexión vieja aún no se había dado por muerta se sustituye y se cierra.
+     * Se le reenvía su AsignacionGrupo y, ya en el carril para no perderse lo
+     * que llegue entretanto, una InstantaneaCarrera completa con las posiciones
+     * del grupo; el resto recibe EstadoJugador listo. Si la carrera ha
+     * acabado entretanto solo se le envía el FinCarrera.
+     */
+    private boolean reanudar(ClienteInfo info, SolicitudConexion solicitud) throws IOException {
+        Grupo g = grupos.get(solicitud.idGrupo);
+        if (g == null || g.id() != solicitud.idGrupo) return false;
+        int carril = g.carril(info.id);
+        if (carril < 0 || g.tokens[carril] != solicitud.token) return false;
+        Grupo.Estado estado = g.estado.get();
+        if (estado == Grupo.Estado.FINALIZADO) {
+            // Acabó durante el corte: solo le falta el resultado
+            info.conexion.usarTabla(g.tabla);
+            info.conexion.enviar(new FinCarrera(g.id(), g.ranking()));
+            return true;
+        }
+        if (estado != Grupo.Estado.CUENTA_ATRAS && estado != Grupo.Estado.EN_CARRERA) return false;
+
+        info.idGrupo = g.id();
+        info.carril = carril;
+        info.conexion.usarTabla(g.tabla);
+        // Antes de entrar en el carril, para que si se corta enseguida quitarDeGrupo lo encuentre
+        info.grupo = g;
+
+        ClienteInfo anterior = g.miembros.get(carril);
+        if (anterior != null) {
+            if (!g.miembros.compareAndSet(carril, anterior, info)) {
+                info.grupo = null;
+                return false;
+            }
+            // Ya no está en el carril: su desconexión no toca el grupo
+            anterior.conexion.cerrar();
+            clienteDesconectado(anterior);
+        } else {
+            // Con 0 el grupo ya se está liberando
+            if (g.conectados.getAndUpdate(n -> n == 0 ? 0 : n + 1) == 0) {
+                info.grupo = null;
+                return false;
+            }
+            if (!g.miembros.compareAndSet(carril, null, info)) {
+                info.grupo = null;
+                if (g.conectados.decrementAndGet() == 0) liberarGrupo(g);
+                return false;
             }
+        }
+        // Lo que le llegue del grupo antes que esto el cliente lo ignora; la instantánea lo cubre
+        info.conexion.enviar(asignacionPara(g, carril));
+        REANUDACIONES.incrementar();
+        Registro.info("[SERVIDOR] '{}' reanuda en el grupo {} (carril {})", info.id, g.id(), carril);
+
+        int[] posiciones = g.clasificacion.posiciones();
+        List<String> ids = new ArrayList<>(g.tamGrupo);
+        int[] presentes = new int[g.tamGrupo];
+        int n = 0;
+        for (int i = 0; i < g.tamGrupo; i++) {
+            if (g.ids[i] == null) continue;
+            ids.add(g.ids[i]);
+            presentes[n++] = posiciones[i];
+        }
+        entregar(info, new TramaCompartida(new InstantaneaCarrera(g.id(), 0, true, ids,
+                Arrays.copyOf(presentes, n)), g.tabla), false);
 
-            return idGrupo;
+        TramaCompartida trama = new TramaCompartida(new EstadoJugador(info.id, true), g.tabla);
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo otro = g.miembros.get(i);
+            if (otro != null && otro != info && !otro.desconectado.get()) entregar(otro, trama, false);
         }
+        return true;
     }
 
-    private void asignarGrupo(int idGrupo) throws IOException {
-        List<ClienteInfo> listaClientes = clientesPorGrupo.get(idGrupo);
-        String ipMulticast = ipsMulticast.get(idGrupo % ipsMulticast.size());
-        int puertoMulticast = puertoMulticastBase + idGrupo;
+    // La AsignacionGrupo del grupo con el token del carril
+    private static AsignacionGrupo asignacionPara(Grupo g, int carril) {
+        AsignacionGrupo comun = g.asignacion;
+        AsignacionGrupo a = new AsignacionGrupo(comun.idGrupo, comun.ipMulticast, comun.puerto, comun.tamGrupo,
+                comun.semillaCarrera, comun.multicast, comun.autoritativa);
+        a.inicioCarrera = comun.inicioCarrera;
+        a.token = g.tokens[carril];
+        return a;
+    }
 
-        AsignacionGrupo asignacion = new AsignacionGrupo(idGrupo, ipMulticast, puertoMulticast, TAM_GRUPO, System.currentTimeMillis());
+    /**
+     * Vence el temporizador de un cliente. Los heartbeats solo anotan la hora,
+     * así que aquí se comprueba si de verdad lleva TIMEOUT_HEARTBEAT_MS callado o
+     * si hay que volver a programarlo para lo que le queda.
+     */
+    private void comprobarLatido(ClienteInfo info) {
+        long restante = info.ultimoLatido + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_HEARTBEAT_MS.valor()) - System.nanoTime();
+        if (restante > 0) {
+            rueda.programar(info.temporizador, restante);
+            return;
+        }
+        TIMEOUTS.incrementar();
+        Registro.aviso("[SERVIDOR MONITOR] Cliente timeout: {}", info.id);
+        // Cerrar la conexión acaba llamando a clienteDesconectado desde su lector
+        info.conexion.cerrar();
+        clienteDesconectado(info);
+    }
 
-        for (ClienteInfo info : listaClientes) {
-            try {
-                info.oos.writeObject(asignacion);
-                info.oos.flush();
-                System.out.println("[SERVIDOR] AsignacionGrupo enviado a " + info.id);
-            } catch (IOException e) {
-                System.err.println("[SERVIDOR ERROR] Al enviar asignación a " + info.id + ": " + e.getMessage());
-            }
+    void clienteDesconectado(ClienteInfo info) {
+        if (!info.desconectado.compareAndSet(false, true)) return;
+        clientesActivos.decrementAndGet();
+        if (info.temporizador != null) {
+            rueda.cancelar(info.temporizador);
+        }
+        if (info.vaciado != null) {
+            rueda.cancelar(info.vaciado);
         }
+        Registro.info("[SERVIDOR] Cliente desconectado: {}", info.id);
+        quitarDeGrupo(info);
+    }
 
-        System.out.println("[SERVIDOR] Grupo " + idGrupo + " iniciado con " + listaClientes.size() + " clientes");
+    /**
+     * Saca al cliente de su grupo y avisa al resto; su carril conserva la
+     * última posición para el ranking final. Si estaba aún en la sala de
+     * espera no hay nada que hacer: el motor de emparejamiento lo salta al
+     * formar el grupo.
+     */
+    private void quitarDeGrupo(ClienteInfo info) {
+        Grupo g = info.grupo;
+        if (g == null || !g.perteneceA(info)) return;
+        Grupo.Estado estado = g.estado.get();
+        if (estado == Grupo.Estado.ESPERANDO || estado == Grupo.Estado.LIBERADO) return;
+        if (!g.miembros.compareAndSet(info.carril, info, null)) return;
+        if (diario != null) diario.desconexion(g.id(), info.id);
+
+        if (g.conectados.decrementAndGet() == 0) {
+            liberarGrupo(g);
+            return;
+        }
+        if (estado != Grupo.Estado.CUENTA_ATRAS && estado != Grupo.Estado.EN_CARRERA) return;
+        TramaCompartida trama = new TramaCompartida(new EstadoJugador(info.id, false), g.tabla);
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo otro = g.miembros.get(i);
+            if (otro != null && !otro.desconectado.get()) entregar(otro, trama, false);
+        }
     }
 
-    private void escucharEventosCliente(String idCliente, int idGrupo, ObjectInputStream ois) {
-        System.out.println("[SERVIDOR] Escuchando eventos de '" + idCliente + "' en grupo " + idGrupo);
+    /**
+     * El motor de emparejamiento ha formado el grupo (CUENTA_ATRAS). Se prepara la
+     * carrera y se envía AsignacionGrupo con la hora de salida; hasta
+     * entonces el grupo sigue en CUENTA_ATRAS y los eventos que lleguen se
+     * ignoran. Los clientes traducen esa hora a su reloj con el desfase que
+     * estiman por los ecos de heartbeat, así que todos arrancan a la vez con
+     * un error de media ida y vuelta.
+     */
+    void asignarGrupo(Grupo g, int slot) {
+        int idGrupo = g.id();
+        String ipMulticast = ipsMulticast.get(slot % ipsMulticast.size());
+        int puertoMulticast = puertoMulticastBase + slot;
+
+        g.slot = slot;
+        g.semilla = System.currentTimeMillis();
+        g.conectados.set(g.tamGrupo);
+        grupos.put(idGrupo, g);
+
+        // Las entradas tienen que llegar al servidor, así que autoritativa excluye multicast
+        boolean usaMulticast = multicast && !autoritativa;
+
+        AsignacionGrupo asignacion = new AsignacionGrupo(idGrupo, ipMulticast, puertoMulticast, g.tamGrupo, g.semilla,
+                usaMulticast, autoritativa);
+        int cuentaAtrasMs = CUENTA_ATRAS_MS.valor();
+        asignacion.inicioCarrera = cuentaAtrasMs > 0 ? System.currentTimeMillis() + cuentaAtrasMs : 0;
+        g.asignacion = asignacion;
+        if (usaMulticast) {
+            oyenteMulticast.escuchar(idGrupo, ipMulticast, puertoMulticast);
+        }
+        List<String> jugadores = Arrays.asList(g.ids.clone());
+        if (diario != null) diario.asignacion(idGrupo, g.semilla, autoritativa, usaMulticast, jugadores);
+        if (autoritativa) {
+            g.simulacion = new SimulacionCarrera(this, idGrupo, jugadores, g.semilla, META, TICK_HZ.valor());
+        }
 
-        while (true) {
-            try {
-                Object obj = ois.readObject();
+        long asignado = System.nanoTime();
+        for (int i = 0; i < g.tamGrupo; i++) {
+            long token;
+            do {
+                token = AZAR_TOKENS.nextLong();
+            } while (token == 0);
+            g.tokens[i] = token;
+        }
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo info = g.miembros.get(i);
+            // Se fue al recibir otro la suya (y con él el aviso de su desconexión)
+            if (info == null) continue;
+            ESPERA.registrar(asignado - info.llegada);
+            // Cada uno con su token: no se comparte la trama
+            if (entregar(info, new TramaCompartida(asignacionPara(g, i), g.tabla), false)) {
+                Registro.depuracion("[SERVIDOR] AsignacionGrupo enviado a {}", info.id);
+            }
+        }
 
-                if (obj instanceof EventoCarrera) {
-                    EventoCarrera evento = (EventoCarrera) obj;
-                    System.out.println("[SERVIDOR] Evento " + evento.tipo + " de '" + evento.idCliente + "' pos=" + evento.pos);
+        if (cuentaAtrasMs > 0) {
+            g.tareaSalida = relojCarreras.schedule(() -> darSalida(g, idGrupo), cuentaAtrasMs, TimeUnit.MILLISECONDS);
+        } else {
+            darSalida(g, idGrupo);
+        }
+        Registro.info("[SERVIDOR] Grupo {} asignado a {} clientes (slot {}), salida en {} ms",
+                idGrupo, g.tamGrupo, slot, cuentaAtrasMs);
 
-                    // Actualizar posición
-                    grupoPosiciones.get(idGrupo).put(evento.idCliente, evento.pos);
+        // Quien se desconectó entre el emparejamiento y ahora no encontró el grupo publicado
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo info = g.miembros.get(i);
+            if (info != null && info.desconectado.get()) quitarDeGrupo(info);
+        }
+    }
 
-                    // Verificar si alcanzó la meta
-                    if (evento.tipo == EventoCarrera.TipoEvento.META && evento.pos >= META) {
-                        procesarLlegadaMeta(idGrupo, evento.idCliente);
-                    }
+    // Fin de la cuenta atrás: se abre la carrera y arrancan la simulación y la clasificación
+    private void darSalida(Grupo g, int idGrupo) {
+        if (g.id() != idGrupo) return;
+        g.inicio = System.nanoTime();
+        if (!g.pasar(Grupo.Estado.CUENTA_ATRAS, Grupo.Estado.EN_CARRERA)) return;
+        if (g.simulacion != null) {
+            // Al ritmo con el que se creó la simulación, aunque TICK_HZ haya cambiado después
+            long periodo = 1_000_000_000L / g.simulacion.ticksPorSegundo();
+            g.simulacion.tarea = relojCarreras.scheduleAtFixedRate(g.simulacion, periodo, periodo, TimeUnit.NANOSECONDS);
+        }
+        int clasificacionHz = CLASIFICACION_HZ.valor();
+        if (clasificacionHz > 0) {
+            long periodo = 1_000_000_000L / clasificacionHz;
+            g.tareaClasificacion = relojCarreras.scheduleAtFixedRate(() -> difundirClasificacion(g, idGrupo),
+                    periodo, periodo, TimeUnit.NANOSECONDS);
+        }
+        Registro.info("[SERVIDOR] Grupo {} en carrera", idGrupo);
+    }
 
-                    // Redistribuir a TODOS los clientes del grupo EXCEPTO el emisor
-                    redistribuirEvento(idGrupo, evento, idCliente);
+    private void detenerTareas(Grupo g) {
+        if (g.tareaSalida != null) {
+            g.tareaSalida.cancel(false);
+        }
+        if (g.simulacion != null) {
+            g.simulacion.detener();
+        }
+        if (g.tareaClasificacion != null) {
+            g.tareaClasificacion.cancel(false);
+        }
+    }
 
-                } else if (obj instanceof Heartbeat) {
-                    Heartbeat hb = (Heartbeat) obj;
-                    clienteUltimoHeartbeat.put(hb.idCliente, System.currentTimeMillis());
-                }
+    /** El grupo se ha quedado sin clientes: se recicla junto con su slot. */
+    private void liberarGrupo(Grupo g) {
+        Grupo.Estado estado = g.estado.get();
+        if (estado == Grupo.Estado.LIBERADO || !g.pasar(estado, Grupo.Estado.LIBERADO)) return;
+        int idGrupo = g.id();
+        if (oyenteMulticast != null) {
+            oyenteMulticast.dejar(idGrupo);
+        }
+        detenerTareas(g);
+        grupos.remove(idGrupo);
+        reservaGrupos.liberarSlot(g.slot);
+        reservaGrupos.reciclar(g);
+        Registro.info("[SERVIDOR] Grupo {} liberado", idGrupo);
+    }
 
+    private void escucharEventosCliente(ClienteInfo info, ConexionBloqueante conexion) {
+        Registro.depuracion("[SERVIDOR] Escuchando eventos de '{}' en grupo {}", info.id, info.idGrupo);
+
+        while (true) {
+            try {
+                procesarMensaje(info, conexion.leer());
             } catch (EOFException e) {
-                System.out.println("[SERVIDOR] Cliente '" + idCliente + "' cerró conexión");
+                Registro.info("[SERVIDOR] Cliente '{}' cerró conexión", info.id);
+                break;
+            } catch (StreamCorruptedException e) {
+                Registro.error("[SERVIDOR ERROR] Trama mal formada de '{}': {}", info.id, e.getMessage());
+                conexion.rechazar(e.getMessage());
                 break;
             } catch (Exception e) {
-                System.err.println("[SERVIDOR ERROR] Leyendo evento de '" + idCliente + "': " + e.getMessage());
+                Registro.error("[SERVIDOR ERROR] Leyendo evento de '{}': {}", info.id, e.getMessage());
                 break;
             }
         }
     }
 
-    private synchronized void procesarLlegadaMeta(int idGrupo, String idCliente) {
-        // Si ya finalizó, ignorar
-        if (grupoFinalizado.get(idGrupo)) {
-            return;
-        }
+    void procesarMensaje(ClienteInfo info, Object obj) {
+        if (obj instanceof EventoCarrera) {
+            EventoCarrera evento = (EventoCarrera) obj;
+            Grupo g = info.grupo;
+            // Sin grupo asignado todavía, o ya reciclado para otra carrera
+            if (g == null || !g.perteneceA(info)) return;
+            // Solo cuenta con la carrera abierta: ni en la cuenta atrás ni una vez cerrada
+            if (!g.enCarrera()) return;
+
+            SimulacionCarrera simulacion = g.simulacion;
+            if (simulacion != null) {
+                // La posición que diga el cliente no cuenta: cada PASO/META es un clic para la simulación
+                if (evento.tipo == EventoCarrera.TipoEvento.PASO || evento.tipo == EventoCarrera.TipoEvento.META) {
+                    simulacion.entrada(info.id);
+                }
+                return;
+            }
+
+            EVENTOS.incrementar();
+            if (Registro.activo(Registro.Nivel.DEPURACION)) {
+                Registro.depuracion("[SERVIDOR] Evento {} de '{}' pos={}", evento.tipo, evento.idCliente, evento.pos);
+            }
+            if (!admitir(g, info, evento)) {
+                RECHAZADOS.incrementar();
+                Registro.depuracion("[SERVIDOR] Evento {} de '{}' rechazado", evento.tipo, info.id);
+                return;
+            }
 
-        System.out.println("[SERVIDOR] *** CLIENTE '" + idCliente + "' LLEGÓ A LA META ***");
+            g.clasificacion.fijar(info.carril, evento.pos);
+            if (diario != null) diario.evento(g.id(), info.id, evento.tipo, evento.tMarca, evento.pos);
 
-        // Agregar al ranking
-        List<String> ranking = grupoRanking.get(idGrupo);
-        if (!ranking.contains(idCliente)) {
-            ranking.add(idCliente);
-        }
+            // Verificar si alcanzó la meta
+            if (evento.tipo == EventoCarrera.TipoEvento.META && evento.pos >= META) {
+                procesarLlegadaMeta(g, info.id);
+            }
 
-        // Si todos llegaron a la meta O el primero llegó, finalizar
-        Map<String, Integer> posiciones = grupoPosiciones.get(idGrupo);
-        long llegados = posiciones.values().stream().filter(p -> p >= META).count();
+            // Redistribuir a TODOS los clientes del grupo EXCEPTO el emisor
+            if (info.cubo != null && descartable(evento)) {
+                reenviarLimitado(g, info, evento);
+            } else {
+                // SALIDA y META no esperan (ya gastaron su ficha): lo agrupado ya no aporta nada
+                info.pendiente.set(null);
+                redistribuirEvento(g, evento, info);
+            }
+
+        } else if (obj instanceof Heartbeat) {
+            // Sin tocar la rueda: el temporizador lo reprograma al vencer si hace falta
+            info.ultimoLatido = System.nanoTime();
+            Heartbeat hb = (Heartbeat) obj;
+            if (hb.idaVuelta > 0) {
+                info.idaVuelta = hb.idaVuelta;
+                info.desfase = hb.desfase;
+                IDA_VUELTA.registrar(hb.idaVuelta);
+            }
 
-        // Finalizar cuando el primero llegue o todos lleguen
-        if (ranking.size() == 1 || llegados == posiciones.size()) {
-            finalizarCarrera(idGrupo);
+            // Eco con la hora del servidor para que el cliente estime el desfase de su reloj
+            Heartbeat eco = new Heartbeat(info.id, System.currentTimeMillis());
+            eco.tEco = hb.tMarca;
+            try {
+                info.conexion.enviar(eco);
+            } catch (IOException e) {
+                Registro.depuracion("[SERVIDOR] Eco de heartbeat a '{}' no enviado: {}", info.id, e.getMessage());
+            }
         }
     }
 
-    private void finalizarCarrera(int idGrupo) {
-        grupoFinalizado.put(idGrupo, true);
+    // La carrera acaba en cuanto alguien llega: solo el primero consigue cerrarla
+    private void procesarLlegadaMeta(Grupo g, String idCliente) {
+        if (!g.pasar(Grupo.Estado.EN_CARRERA, Grupo.Estado.FINALIZADO)) return;
+        Registro.info("[SERVIDOR] *** CLIENTE '{}' LLEGÓ A LA META ***", idCliente);
+        finalizarCarrera(g);
+    }
 
-        // Calcular ranking final completo ordenado por posición
-        Map<String, Integer> posiciones = grupoPosiciones.get(idGrupo);
-        List<String> rankingFinal = posiciones.entrySet().stream()
-                .sorted((a, b) -> Integer.compare(b.getValue(), a.getValue())) // Ordenar de mayor a menor posición
-                .map(Map.Entry::getKey)
-                .collect(Collectors.toList());
+    private void finalizarCarrera(Grupo g) {
+        int idGrupo = g.id();
+        DURACION.registrar(System.nanoTime() - g.inicio);
+        if (oyenteMulticast != null) {
+            oyenteMulticast.dejar(idGrupo);
+        }
+        detenerTareas(g);
 
-        System.out.println("[SERVIDOR] ========================================");
-        System.out.println("[SERVIDOR] CARRERA FINALIZADA - Grupo " + idGrupo);
-        System.out.println("[SERVIDOR] Ranking final:");
+        // La clasificación ya está en orden: el ranking final es leerla
+        List<String> rankingFinal = g.ranking();
+        if (diario != null) diario.fin(idGrupo, rankingFinal);
+        emparejador.resultado(rankingFinal);
+
+        Registro.info("[SERVIDOR] ========================================");
+        Registro.info("[SERVIDOR] CARRERA FINALIZADA - Grupo {}", idGrupo);
+        Registro.info("[SERVIDOR] Ranking final:");
         for (int i = 0; i < rankingFinal.size(); i++) {
-            System.out.println("[SERVIDOR]   " + (i + 1) + ". " + rankingFinal.get(i) + " (" + posiciones.get(rankingFinal.get(i)) + ")");
+            Registro.info("[SERVIDOR]   {}. {} ({})", i + 1, rankingFinal.get(i),
+                    g.clasificacion.posicion(g.clasificacion.carrilEnPuesto(i + 1)));
         }
-        System.out.println("[SERVIDOR] ========================================");
+        Registro.info("[SERVIDOR] ========================================");
 
         // Crear mensaje de finalización con tu estructura
         FinCarrera finCarrera = new FinCarrera(idGrupo, rankingFinal);
 
+        TramaCompartida trama = new TramaCompartida(finCarrera, g.tabla);
+
         // Enviar a TODOS los clientes del grupo
-        List<ClienteInfo> clientes = clientesPorGrupo.get(idGrupo);
-        if (clientes != null) {
-            for (ClienteInfo info : clientes) {
-                try {
-                    info.oos.writeObject(finCarrera);
-                    info.oos.flush();
-                    System.out.println("[SERVIDOR] FinCarrera enviado a " + info.id);
-                } catch (IOException e) {
-                    System.err.println("[SERVIDOR ERROR] Al enviar FinCarrera a " + info.id + ": " + e.getMessage());
-                }
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo info = g.miembros.get(i);
+            if (info != null && entregar(info, trama, false)) {
+                Registro.depuracion("[SERVIDOR] FinCarrera enviado a {}", info.id);
             }
         }
     }
 
+    /**
+     * Ids por carril ordenados de mayor a menor posición; a igual posición
+     * queda antes el carril menor, como en Clasificacion. Ordena desde cero:
+     * el servidor lee la Clasificacion del grupo y esto queda para recalcular
+     * rankings fuera de él (ReproductorDiario).
+     */
+    static List<String> calcularRanking(String[] ids, int[] posiciones) {
+        int n = ids.length;
+        int[] orden = new int[n];
+        for (int i = 0; i < n; i++) {
+            int carril = i;
+            int j = i - 1;
+            while (j >= 0 && posiciones[orden[j]] < posiciones[carril]) {
+                orden[j + 1] = orden[j];
+                j--;
+            }
+            orden[j + 1] = carril;
+        }
+        List<String> ranking = new ArrayList<>(n);
+        for (int carril : orden) ranking.add(ids[carril]);
+        return ranking;
+    }
 
-    private void redistribuirEvento(int idGrupo, EventoCarrera evento, String emisor) {
-        // No redistribuir si la carrera ya terminó
-        if (grupoFinalizado.get(idGrupo)) {
+    // Posición calculada por la SimulacionCarrera del grupo en su tick
+    void posicionAutoritativa(int idGrupo, int carril, int pos) {
+        Grupo g = grupos.get(idGrupo);
+        if (g == null || !g.enCarrera()) return;
+        g.clasificacion.fijar(carril, pos);
+        if (diario != null) {
+            diario.evento(idGrupo, g.ids[carril], pos >= META ? EventoCarrera.TipoEvento.META : EventoCarrera.TipoEvento.PASO,
+                    System.currentTimeMillis(), pos);
+        }
+        if (pos >= META) {
+            procesarLlegadaMeta(g, g.ids[carril]);
+        }
+    }
+
+    // Una instantánea por tick para todo el grupo, codificada una vez
+    void difundirInstantanea(int idGrupo, InstantaneaCarrera instantanea, boolean descartable) {
+        Grupo g = grupos.get(idGrupo);
+        if (g == null || !g.enCarrera()) return;
+
+        long inicio = System.nanoTime();
+        TramaCompartida trama = new TramaCompartida(instantanea, g.tabla);
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo info = g.miembros.get(i);
+            if (info != null) entregar(info, trama, descartable);
+        }
+        REENVIO.registrar(System.nanoTime() - inicio);
+    }
+
+    /**
+     * Tarea periódica del grupo: si la clasificación ha cambiado desde la
+     * última vez, cada miembro recibe los K primeros y su propio puesto. Es
+     * descartable: la siguiente la sustituye.
+     */
+    void difundirClasificacion(Grupo g, int idGrupo) {
+        // Una ejecución tardía tras reciclar el grupo no debe tocar la carrera nueva
+        if (g.id() != idGrupo || !g.enCarrera()) return;
+        int cambios = g.clasificacion.cambios();
+        if (cambios == g.cambiosDifundidos) return;
+        g.cambiosDifundidos = cambios;
+
+        int[] orden = g.copiaOrden;
+        int[] posiciones = g.copiaPosiciones;
+        g.clasificacion.copiar(orden, posiciones);
+        int k = Math.min(CLASIFICACION_K, g.tamGrupo);
+        List<String> primeros = new ArrayList<>(k);
+        int[] posicionesPrimeros = new int[k];
+        for (int i = 0; i < k; i++) {
+            primeros.add(g.ids[orden[i]]);
+            posicionesPrimeros[i] = posiciones[orden[i]];
+        }
+        for (int i = 0; i < g.tamGrupo; i++) {
+            int carril = orden[i];
+            ClienteInfo info = g.miembros.get(carril);
+            if (info == null) continue;
+            ClasificacionParcial parcial = new ClasificacionParcial(idGrupo, g.tamGrupo, i + 1, posiciones[carril],
+                    primeros, posicionesPrimeros);
+            entregar(info, new TramaCompartida(parcial, g.tabla), true);
+        }
+        CLASIFICACIONES.incrementar();
+    }
+
+    // Posición recibida por el grupo multicast; solo se actualiza el estado, no hay nada que reenviar
+    void posicionMulticast(int idGrupo, String idCliente, int pos) {
+        Grupo g = grupos.get(idGrupo);
+        if (g == null || !g.enCarrera()) return;
+        int carril = g.carril(idCliente);
+        if (carril < 0) return;
+        int nueva = g.clasificacion.avanzar(carril, pos);
+        if (diario != null) {
+            diario.evento(idGrupo, idCliente, EventoCarrera.TipoEvento.PASO, System.currentTimeMillis(), nueva);
+        }
+    }
+
+    /**
+     * SALIDA y META no se agrupan, así que gastan su ficha al llegar y sin
+     * ella se descartan enteros: ni clasificación ni diario. De SALIDA vale
+     * una por carril y carrera. La META que cruza la meta entra aunque deje el
+     * cubo en deuda: solo hay una por carrera, que se cierra con ella, y
+     * perderla dejaría la carrera sin acabar. Los PASO/CAIDA pasan siempre y
+     * los limita reenviarLimitado.
+     */
+    private boolean admitir(Grupo g, ClienteInfo info, EventoCarrera evento) {
+        if (descartable(evento)) return true;
+        if (info.cubo == null) {
+            return evento.tipo != EventoCarrera.TipoEvento.SALIDA || g.salidas.compareAndSet(info.carril, 0, 1);
+        }
+        if (evento.tipo == EventoCarrera.TipoEvento.META && evento.pos >= META) {
+            info.cubo.forzar(System.nanoTime());
+            return true;
+        }
+        if (evento.tipo == EventoCarrera.TipoEvento.SALIDA) {
+            // La repetida no gasta ficha; el carril se marca solo con la SALIDA aceptada, no con una sin ficha
+            if (g.salidas.get(info.carril) != 0 || !info.cubo.tomar(System.nanoTime())) return false;
+            return g.salidas.compareAndSet(info.carril, 0, 1);
+        }
+        return info.cubo.tomar(System.nanoTime());
+    }
+
+    // Un PASO/CAIDA sustituido lo corrige el siguiente; SALIDA y META no se pueden agrupar
+    private static boolean descartable(EventoCarrera evento) {
+        return evento.tipo == EventoCarrera.TipoEvento.PASO || evento.tipo == EventoCarrera.TipoEvento.CAIDA;
+    }
+
+    /**
+     * Reenvía un PASO/CAIDA si el emisor tiene ficha. Si no, se queda como
+     * pendiente, sustituyendo al que hubiera (cada uno lleva la posición
+     * entera, así que basta con el último), y sale cuando el cubo tenga ficha.
+     * Mientras haya un vaciado programado tampoco se adelanta ninguno, para
+     * no reenviar fuera de orden.
+     */
+    private void reenviarLimitado(Grupo g, ClienteInfo info, EventoCarrera evento) {
+        long ahora = System.nanoTime();
+        if (!info.vaciadoProgramado.get() && info.cubo.tomar(ahora)) {
+            redistribuirEvento(g, evento, info);
             return;
         }
+        if (info.pendiente.getAndSet(evento) != null) {
+            AGRUPADOS.incrementar();
+        }
+        if (info.vaciadoProgramado.compareAndSet(false, true)) {
+            rueda.programar(info.vaciado, info.cubo.espera(ahora));
+        }
+    }
+
+    // En el hilo de la rueda, cuando el emisor vuelve a tener ficha
+    private void vaciarPendiente(ClienteInfo info) {
+        EventoCarrera evento = info.pendiente.getAndSet(null);
+        Grupo g = info.grupo;
+        if (evento != null && g != null && g.perteneceA(info) && g.enCarrera()) {
+            info.cubo.forzar(System.nanoTime());
+            redistribuirEvento(g, evento, info);
+        }
+        info.vaciadoProgramado.set(false);
+        // Si llegó otro mientras se reenviaba, que no se quede esperando al siguiente clic
+        if (info.pendiente.get() != null && info.vaciadoProgramado.compareAndSet(false, true)) {
+            rueda.programar(info.vaciado, info.cubo.espera(System.nanoTime()));
+        }
+    }
 
-        List<ClienteInfo> clientes = clientesPorGrupo.get(idGrupo);
-        if (clientes == null) return;
+    private void redistribuirEvento(Grupo g, EventoCarrera evento, ClienteInfo emisor) {
+        long inicio = System.nanoTime();
+        // Se codifica una sola vez para todo el grupo; cada cola solo copia los bytes
+        TramaCompartida trama = new TramaCompartida(evento, g.tabla);
+        boolean descartable = descartable(evento);
+        boolean saturado = false;
 
-        for (ClienteInfo info : clientes) {
+        for (int i = 0; i < g.tamGrupo; i++) {
+            ClienteInfo info = g.miembros.get(i);
             // NO enviar al cliente que envió el evento originalmente
-            if (info.id.equals(emisor)) {
+            if (info == null || i == emisor.carril) {
                 continue;
             }
 
-            try {
-                info.oos.writeObject(evento);
-                info.oos.flush();
-            } catch (IOException e) {
-                System.err.println("[SERVIDOR ERROR] Al reenviar evento a '" + info.id + "': " + e.getMessage());
-            }
+            entregar(info, trama, descartable);
+            saturado |= info.conexion.saturada();
+        }
+        // Contrapresión: antes de descartar o desconectar a nadie, se deja de leer un rato al que inunda
+        if (saturado && emisor.conexion.pausarLectura(TimeUnit.MILLISECONDS.toNanos(PAUSA_LECTURA_MS.valor()))) {
+            PAUSAS.incrementar();
         }
+        REENVIO.registrar(System.nanoTime() - inicio);
     }
 
-    private void monitorHeartbeat() {
-        while (true) {
-            try {
-                Thread.sleep(5000);
-                long now = System.currentTimeMillis();
-                List<String> desconectados = new ArrayList<>();
-
-                for (Map.Entry<String, Long> entry : clienteUltimoHeartbeat.entrySet()) {
-                    if (now - entry.getValue() > TIMEOUT_HEARTBEAT) {
-                        desconectados.add(entry.getKey());
-                    }
-                }
-
-                for (String idCliente : desconectados) {
-                    clienteUltimoHeartbeat.remove(idCliente);
-                    System.out.println("[SERVIDOR MONITOR] Cliente timeout: " + idCliente);
-                }
-            } catch (Exception e) {
-                System.err.println("[SERVIDOR MONITOR ERROR] " + e.getMessage());
+    /**
+     * Encola la trama para un cliente. Si su cola está llena se descarta (si el
+     * mensaje lo permite y la política es DESCARTAR) o se desconecta al cliente.
+     */
+    private boolean entregar(ClienteInfo info, TramaCompartida trama, boolean descartable) {
+        try {
+            if (info.conexion.enviar(trama)) {
+                info.descartesSeguidos.set(0);
+                return true;
             }
+        } catch (IOException e) {
+            Registro.error("[SERVIDOR ERROR] Al enviar a '{}': {}", info.id, e.getMessage());
+            return false;
         }
+
+        if (descartable && politicaLentos == PoliticaLentos.DESCARTAR
+                && info.descartesSeguidos.incrementAndGet() < MAX_DESCARTES_SEGUIDOS) {
+            DESCARTES.incrementar();
+            return false;
+        }
+
+        Registro.aviso("[SERVIDOR] Cliente lento '{}' desconectado: cola de salida llena", info.id);
+        info.conexion.cerrar();
+        return false;
+    }
+
+    void programar(RuedaTemporizadores.Temporizador t, long retrasoNanos) {
+        rueda.programar(t, retrasoNanos);
+    }
+
+    void cancelar(RuedaTemporizadores.Temporizador t) {
+        rueda.cancelar(t);
     }
 
     public static void main(String[] args) throws IOException {
-        ServidorEmparejamiento servidor = new ServidorEmparejamiento();
+        args = Configuracion.cargar(args);
+        // Modo por argumento ("nio" / "bloqueante") o por -Dcamellos.modo; bloqueante por defecto
+        String modo = args.length > 0 ? args[0] : Configuracion.texto("camellos.modo", "bloqueante");
+        ServidorEmparejamiento servidor = new ServidorEmparejamiento(Modo.valueOf(modo.toUpperCase()));
         servidor.start();
     }
 }
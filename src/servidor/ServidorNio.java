@@ -0,0 +1,57 @@
+package servidor;
+
+import comun.Hilos;
+import comun.Registro;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Modo no bloqueante: un hilo acepta conexiones y las reparte entre un número
+ * fijo de bucles de selector, que se encargan de la lectura, el despacho y la
+ * escritura de todos los clientes sin dedicar un hilo a cada uno.
+ */
+class ServidorNio {
+    private final ServidorEmparejamiento servidor;
+    private final int puerto;
+    private final BucleSelector[] bucles;
+    private int siguienteBucle = 0;
+
+    ServidorNio(ServidorEmparejamiento servidor, int puerto, int numBucles) throws IOException {
+        this.servidor = servidor;
+        this.puerto = puerto;
+        this.bucles = new BucleSelector[numBucles];
+        for (int i = 0; i < numBucles; i++) {
+            bucles[i] = new BucleSelector(servidor);
+        }
+    }
+
+    void iniciar() throws IOException {
+        for (int i = 0; i < bucles.length; i++) {
+            Hilos.lanzarPlataforma("nio-bucle", "nio-bucle-" + i, bucles[i]);
+        }
+
+        try (ServerSocketChannel aceptador = ServerSocketChannel.open()) {
+            aceptador.bind(new InetSocketAddress(puerto));
+            Registro.info("[SERVIDOR] Modo NIO con {} bucles de selector", bucles.length);
+            Registro.info("[SERVIDOR] Esperando clientes...");
+
+            while (true) {
+                try {
+                    SocketChannel canal = aceptador.accept();
+                    canal.configureBlocking(false);
+                    // Los lotes ya los forma la ColaSalida; Nagle solo añadiría retardo
+                    canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                    Registro.depuracion("[SERVIDOR] >>> NUEVA CONEXIÓN desde {}", canal.getRemoteAddress());
+                    bucles[siguienteBucle].registrar(canal);
+                    siguienteBucle = (siguienteBucle + 1) % bucles.length;
+                } catch (IOException e) {
+                    Registro.error("[SERVIDOR ERROR] Al aceptar cliente: {}", e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package servidor;
+
+import comun.Registro;
+import protocolos.DadoCarrera;
+import protocolos.InstantaneaCarrera;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Carrera autoritativa de un grupo. Los clics de los clientes solo suman
+ * entradas pendientes; en cada tick se aplican con el DadoCarrera de cada
+ * jugador (sembrado con semillaCarrera) y se envía una única InstantaneaCarrera
+ * con los camellos que se han movido. Así el tráfico por grupo depende de la
+ * frecuencia de tick y no de lo rápido que haga clic cada jugador.
+ */
+class SimulacionCarrera implements Runnable {
+    private static final int MAX_PASOS_POR_TICK = 4;
+    private static final int MAX_PENDIENTES = 64;
+
+    private final ServidorEmparejamiento servidor;
+    private final int idGrupo;
+    private final int meta;
+    private final int ticksPorCompleta;
+
+    private final String[] ids;                      // Índice = carril
+    private final Map<String, Integer> carriles = new HashMap<>();
+    private final DadoCarrera[] dados;
+    private final int[] posiciones;
+    private final int[] movidos;
+    private final AtomicIntegerArray pendientes;     // Clics aún no aplicados, escritos por los lectores
+    private int tick = 0;
+    private volatile boolean terminada = false;
+
+    ScheduledFuture<?> tarea;
+
+    SimulacionCarrera(ServidorEmparejamiento servidor, int idGrupo, List<String> jugadores, long semilla,
+                      int meta, int ticksPorCompleta) {
+        this.servidor = servidor;
+        this.idGrupo = idGrupo;
+        this.meta = meta;
+        this.ticksPorCompleta = ticksPorCompleta;
+
+        int n = jugadores.size();
+        this.ids = jugadores.toArray(new String[0]);
+        this.dados = new DadoCarrera[n];
+        this.posiciones = new int[n];
+        this.movidos = new int[n];
+        this.pendientes = new AtomicIntegerArray(n);
+        for (int i = 0; i < n; i++) {
+            carriles.put(ids[i], i);
+            dados[i] = new DadoCarrera(semilla, ids[i]);
+        }
+    }
+
+    /** Ticks por segundo: una instantánea completa cada segundo. */
+    int ticksPorSegundo() {
+        return ticksPorCompleta;
+    }
+
+    /** Un clic del jugador. Devuelve false si no es de esta carrera o acumula demasiados. */
+    boolean entrada(String idCliente) {
+        Integer carril = carriles.get(idCliente);
+        if (carril == null) return false;
+        if (pendientes.incrementAndGet(carril) > MAX_PENDIENTES) {
+            pendientes.decrementAndGet(carril);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void run() {
+        try {
+            if (terminada) return;
+            tick++;
+
+            int numMovidos = 0;
+            for (int carril = 0; carril < ids.length; carril++) {
+                // Los clics que no caben en este tick se quedan para el siguiente, no se pierden
+                int pasos = Math.min(pendientes.get(carril), MAX_PASOS_POR_TICK);
+                if (pasos == 0) continue;
+                pendientes.addAndGet(carril, -pasos);
+
+                int antes = posiciones[carril];
+                for (int i = 0; i < pasos && posiciones[carril] < meta; i++) {
+                    posiciones[carril] = Math.min(meta, posiciones[carril] + dados[carril].tirar());
+                }
+                if (posiciones[carril] != antes) {
+                    movidos[numMovidos++] = carril;
+                }
+            }
+
+            boolean completa = tick % ticksPorCompleta == 0;
+            if (numMovidos > 0 || completa) {
+                servidor.difundirInstantanea(idGrupo, instantanea(completa, numMovidos), !completa);
+            }
+
+            for (int i = 0; i < numMovidos; i++) {
+                int carril = movidos[i];
+                servidor.posicionAutoritativa(idGrupo, carril, posiciones[carril]);
+            }
+        } catch (Exception e) {
+            // Una excepción cancelaría el tick programado: se registra y se sigue
+            Registro.error("[SERVIDOR ERROR] En tick de grupo {}: {}", idGrupo, e.getMessage());
+        }
+    }
+
+    private InstantaneaCarrera instantanea(boolean completa, int numMovidos) {
+        int n = completa ? ids.length : numMovidos;
+        List<String> idsInstantanea = new ArrayList<>(n);
+        int[] pos = new int[n];
+        for (int i = 0; i < n; i++) {
+            int carril = completa ? i : movidos[i];
+            idsInstantanea.add(ids[carril]);
+            pos[i] = posiciones[carril];
+        }
+        return new InstantaneaCarrera(idGrupo, tick, completa, idsInstantanea, pos);
+    }
+
+    void detener() {
+        terminada = true;
+        if (tarea != null) {
+            tarea.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package comun;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ClasificacionTest {
+
+    @Test
+    void alEmpezarVanPorCarril() {
+        Clasificacion c = new Clasificacion(4);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, c.orden());
+        for (int carril = 0; carril < 4; carril++) assertEquals(carril + 1, c.puesto(carril));
+    }
+
+    @Test
+    void aIgualPosicionDelanteElCarrilMenor() {
+        Clasificacion c = new Clasificacion(4);
+        c.fijar(3, 100);
+        c.fijar(1, 100);
+        c.fijar(2, 100);
+        assertArrayEquals(new int[]{1, 2, 3, 0}, c.orden());
+
+        // Alcanzar a otro no basta para adelantarle si su carril es menor
+        c.fijar(0, 50);
+        c.fijar(0, 100);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, c.orden());
+
+        c.fijar(1, 120);
+        assertArrayEquals(new int[]{1, 0, 2, 3}, c.orden());
+        assertEquals(1, c.carrilEnPuesto(1));
+        assertEquals(2, c.puesto(0));
+    }
+
+    @Test
+    void alRetrocederQuedaDetrasDeLosEmpatadosDeCarrilMenor() {
+        Clasificacion c = new Clasificacion(4);
+        for (int carril = 0; carril < 4; carril++) c.fijar(carril, 200);
+        c.fijar(1, 300);
+        c.fijar(1, 200);
+        assertArrayEquals(new int[]{0, 1, 2, 3}, c.orden());
+        c.fijar(0, 100);
+        assertArrayEquals(new int[]{1, 2, 3, 0}, c.orden());
+        assertEquals(4, c.puesto(0));
+    }
+
+    @Test
+    void avanzarNoRetrocede() {
+        Clasificacion c = new Clasificacion(2);
+        assertEquals(60, c.avanzar(1, 60));
+        assertEquals(60, c.avanzar(1, 40));
+        assertEquals(60, c.posicion(1));
+        assertArrayEquals(new int[]{1, 0}, c.orden());
+    }
+
+    @Test
+    void cambiosSoloCuentaMovimientosReales() {
+        Clasificacion c = new Clasificacion(3);
+        c.fijar(0, 10);
+        c.fijar(0, 10);
+        c.avanzar(1, 0);
+        assertEquals(1, c.cambios());
+    }
+
+    @Test
+    void primerosYReiniciar() {
+        Clasificacion c = new Clasificacion(5);
+        c.fijar(4, 30);
+        c.fijar(2, 30);
+        int[] destino = new int[3];
+        assertEquals(3, c.primeros(destino));
+        assertArrayEquals(new int[]{2, 4, 0}, destino);
+        c.reiniciar();
+        assertArrayEquals(new int[]{0, 1, 2, 3, 4}, c.orden());
+        assertArrayEquals(new int[5], c.posiciones());
+    }
+
+    @Test
+    void coincideConOrdenarDesdeCero() {
+        // Posiciones en pocos valores para que haya empates a cada paso
+        Random r = new Random(11);
+        int n = 32;
+        Clasificacion c = new Clasificacion(n);
+        for (int paso = 0; paso < 5_000; paso++) {
+            c.fijar(r.nextInt(n), r.nextInt(8) * 20);
+
+            int[] posiciones = c.posiciones();
+            int[] esperado = IntStream.range(0, n).boxed()
+                    .sorted(Comparator.<Integer>comparingInt(i -> -posiciones[i]).thenComparingInt(i -> i))
+                    .mapToInt(Integer::intValue).toArray();
+            int[] orden = c.orden();
+            assertArrayEquals(esperado, orden, () -> "Posiciones " + Arrays.toString(posiciones));
+            for (int p = 0; p < n; p++) assertEquals(p + 1, c.puesto(orden[p]));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package comun;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HistogramaTest {
+
+    @Test
+    void vacioDevuelveCero() {
+        Histograma h = new Histograma();
+        assertEquals(0, h.percentil(50));
+        assertEquals(0, h.percentil(100));
+        assertEquals(0, h.total());
+    }
+
+    @Test
+    void valoresPequenosSonExactos() {
+        Histograma h = new Histograma();
+        for (int v = 0; v < 100; v++) h.registrar(v);
+        assertEquals(0, h.percentil(0));
+        assertEquals(0, h.percentil(1));
+        assertEquals(49, h.percentil(50));
+        assertEquals(98, h.percentil(99));
+        assertEquals(99, h.percentil(100));
+    }
+
+    @Test
+    void negativosCuentanComoCero() {
+        Histograma h = new Histograma();
+        h.registrar(-5);
+        assertEquals(0, h.percentil(100));
+        assertEquals(0, h.maximo());
+        assertEquals(1, h.total());
+    }
+
+    @Test
+    void percentilDentroDelErrorYNuncaPorEncimaDelMaximo() {
+        Random r = new Random(7);
+        long[] valores = new long[20_000];
+        Histograma h = new Histograma();
+        for (int i = 0; i < valores.length; i++) {
+            valores[i] = (long) Math.exp(r.nextDouble() * 40);  // De 1 a ~2^57
+            h.registrar(valores[i]);
+        }
+        Arrays.sort(valores);
+
+        for (double p : new double[]{1, 10, 50, 90, 99, 99.9, 100}) {
+            long exacto = valores[(int) Math.ceil(valores.length * p / 100.0) - 1];
+            long estimado = h.percentil(p);
+            // La cubeta devuelve su mayor valor: nunca por debajo, y como mucho 1/64 por encima
+            assertTrue(estimado >= exacto, () -> "p" + p + ": " + estimado + " < " + exacto);
+            assertTrue(estimado - exacto <= exacto / 64 + 1, () -> "p" + p + ": " + estimado + " frente a " + exacto);
+            assertTrue(estimado <= h.maximo());
+        }
+        assertEquals(valores[valores.length - 1], h.percentil(100));
+        assertEquals(valores[valores.length - 1], h.maximo());
+    }
+
+    @Test
+    void extremosDelRango() {
+        Histograma h = new Histograma();
+        h.registrar(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, h.percentil(100));
+        h.registrar(1);
+        assertEquals(1, h.percentil(50));
+        assertEquals(Long.MAX_VALUE, h.percentil(100));
+    }
+
+    @Test
+    void sumarJuntaMuestrasYMaximo() {
+        Histograma a = new Histograma();
+        Histograma b = new Histograma();
+        for (int i = 1; i <= 50; i++) a.registrar(i);
+        for (int i = 51; i <= 100; i++) b.registrar(i);
+        a.sumar(b);
+        assertEquals(100, a.total());
+        assertEquals(100, a.maximo());
+        assertEquals(50, a.percentil(50));
+        assertEquals(100, a.percentil(100));
+    }
+}
@@ -0,0 +1,301 @@
+package protocolos;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Ida y vuelta de cada mensaje de protocolos en los dos formatos, y tramas
+ * mal formadas o desmesuradas, que deben acabar en StreamCorruptedException
+ * sin reservar lo que diga el otro extremo.
+ */
+class CodecMensajesTest {
+
+    private static List<Object> mensajes() {
+        List<Object> lista = new ArrayList<>();
+
+        SolicitudConexion solicitud = new SolicitudConexion("Jugador1", CodecMensajes.FORMATO_BINARIO);
+        solicitud.token = 0x1234_5678_9ABC_DEF0L;
+        solicitud.idGrupo = 42;
+        lista.add(solicitud);
+        lista.add(new SolicitudConexion("ñandú", CodecMensajes.FORMATO_JAVA));
+
+        AsignacionGrupo asignacion = new AsignacionGrupo(7, "239.0.0.1", 6000, 4, -99L, true, true);
+        asignacion.inicioCarrera = System.currentTimeMillis();
+        asignacion.token = Long.MIN_VALUE;
+        lista.add(asignacion);
+        lista.add(new AsignacionGrupo(0, null, 0, 1, 0L, false, false));
+
+        for (EventoCarrera.TipoEvento tipo : EventoCarrera.TipoEvento.values()) {
+            lista.add(new EventoCarrera(tipo, "Jugador2", 1_700_000_000_000L, 650));
+        }
+
+        Heartbeat hb = new Heartbeat("Jugador3", -123_456_789L);
+        hb.tEco = Long.MAX_VALUE;
+        hb.idaVuelta = 250_000;
+        hb.desfase = -42;
+        lista.add(hb);
+
+        lista.add(new FinCarrera(9, Arrays.asList("B", "A", "C")));
+        lista.add(new FinCarrera(10, new ArrayList<>()));
+        lista.add(new ErrorProtocolo(-400, "Trama mal formada"));
+        lista.add(new ErrorProtocolo(503, null));
+        lista.add(new EstadoJugador("Jugador4", false));
+        lista.add(new InstantaneaCarrera(3, 120, true, Arrays.asList("A", "B"), new int[]{640, 20}));
+        lista.add(new ClasificacionParcial(3, 64, 12, 300, Arrays.asList("A", "B", "C"), new int[]{600, 580, 580}));
+        lista.add(new Redireccion("10.0.0.5", 5001));
+        lista.add(new InformeCarga(null, 5002, 150, 12, 0));
+        lista.add(new InformeCarga("carreras-2", 5002, 0, 0, 1000));
+        return lista;
+    }
+
+    @ParameterizedTest
+    @ValueSource(bytes = {CodecMensajes.FORMATO_BINARIO, CodecMensajes.FORMATO_JAVA})
+    void idaYVueltaDeTodosLosMensajes(byte formato) throws Exception {
+        CodecMensajes salida = new CodecMensajes(formato);
+        CodecMensajes entrada = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        for (Object mensaje : mensajes()) {
+            ByteBuffer b = ByteBuffer.allocate(Tramas.MAX_TRAMA);
+            salida.codificar(mensaje, b);
+            assertMismosCampos(mensaje, decodificarTodo(entrada, b));
+        }
+    }
+
+    @Test
+    void elMismoIdSoloSeDefineUnaVez() throws Exception {
+        CodecMensajes salida = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        ByteBuffer primera = ByteBuffer.allocate(256);
+        salida.codificar(new EventoCarrera(EventoCarrera.TipoEvento.PASO, "Jugador1", 1, 20), primera);
+        ByteBuffer segunda = ByteBuffer.allocate(256);
+        salida.codificar(new EventoCarrera(EventoCarrera.TipoEvento.PASO, "Jugador1", 2, 40), segunda);
+
+        assertEquals(2, contarTramas(primera), "DEF_ID y evento");
+        assertEquals(1, contarTramas(segunda), "Solo el evento");
+    }
+
+    @Test
+    void siNoCabeElDestinoQuedaComoEstabaYLosIdsSeVuelvenADefinir() throws Exception {
+        CodecMensajes salida = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        FinCarrera fin = new FinCarrera(1, Arrays.asList("Jugador1", "Jugador2"));
+        ByteBuffer pequeno = ByteBuffer.allocate(16);
+        pequeno.put((byte) 7);
+
+        assertThrows(BufferOverflowException.class, () -> salida.codificar(fin, pequeno));
+        assertEquals(1, pequeno.position());
+
+        // Los DEF_ID que no llegaron a salir se vuelven a escribir
+        ByteBuffer b = ByteBuffer.allocate(256);
+        salida.codificar(fin, b);
+        assertMismosCampos(fin, decodificarTodo(new CodecMensajes(CodecMensajes.FORMATO_BINARIO), b));
+    }
+
+    @Test
+    void tramaCompartidaConLosDefIdQueFaltan() throws Exception {
+        TablaIds tabla = new TablaIds();
+        CodecMensajes salida = new CodecMensajes(CodecMensajes.FORMATO_BINARIO, tabla);
+        EventoCarrera evento = new EventoCarrera(EventoCarrera.TipoEvento.CAIDA, "Jugador5", 77, 120);
+        ByteBuffer b = ByteBuffer.allocate(256);
+        salida.anexar(new TramaCompartida(evento, tabla), b);
+        assertMismosCampos(evento, decodificarTodo(new CodecMensajes(CodecMensajes.FORMATO_BINARIO), b));
+    }
+
+    @Test
+    void lectorConsumeLosDefIdYDevuelveLosMensajes() throws Exception {
+        CodecMensajes salida = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        ByteBuffer b = ByteBuffer.allocate(1024);
+        List<Object> enviados = mensajes();
+        for (Object mensaje : enviados) salida.codificar(mensaje, b);
+
+        LectorTramas lector = new LectorTramas(new ByteArrayInputStream(b.array(), 0, b.position()),
+                new CodecMensajes(CodecMensajes.FORMATO_BINARIO));
+        for (Object mensaje : enviados) assertMismosCampos(mensaje, lector.leer());
+    }
+
+    // ========== TRAMAS MAL FORMADAS ==========
+
+    @Test
+    void tramaVacia() {
+        assertCorrupta(new byte[0]);
+    }
+
+    @Test
+    void tipoDesconocido() {
+        assertCorrupta(new byte[]{99});
+    }
+
+    @Test
+    void handleFueraDeRango() {
+        assertCorrupta(trama(CodecMensajes.DEF_ID, b -> {
+            CodecMensajes.putVarInt(b, TablaIds.MAX_IDS);
+            CodecMensajes.putString(b, "X");
+        }));
+        assertCorrupta(trama(CodecMensajes.DEF_ID, b -> {
+            CodecMensajes.putVarInt(b, -1);
+            CodecMensajes.putString(b, "X");
+        }));
+    }
+
+    @Test
+    void handleSinDefinir() {
+        assertCorrupta(trama(CodecMensajes.EVENTO_CARRERA, b -> {
+            b.put((byte) 1);
+            CodecMensajes.putVarInt(b, 3);
+            CodecMensajes.putVarLong(b, 0);
+            CodecMensajes.putVarInt(b, 20);
+        }));
+    }
+
+    @Test
+    void tipoDeEventoInvalido() throws Exception {
+        CodecMensajes entrada = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        byte[] definicion = trama(CodecMensajes.DEF_ID, b -> {
+            CodecMensajes.putVarInt(b, 0);
+            CodecMensajes.putString(b, "A");
+        });
+        assertNull(entrada.decodificar(definicion, 0, definicion.length));
+        byte[] evento = trama(CodecMensajes.EVENTO_CARRERA, b -> {
+            b.put((byte) EventoCarrera.TipoEvento.values().length);
+            CodecMensajes.putVarInt(b, 0);
+            CodecMensajes.putVarLong(b, 0);
+            CodecMensajes.putVarInt(b, 20);
+        });
+        assertThrows(StreamCorruptedException.class, () -> entrada.decodificar(evento, 0, evento.length));
+    }
+
+    @Test
+    void cuentasMayoresQueLaTrama() {
+        // Dicen traer millones de elementos en unos pocos bytes: no se reserva nada
+        assertCorrupta(trama(CodecMensajes.FIN_CARRERA, b -> {
+            CodecMensajes.putVarInt(b, 1);
+            CodecMensajes.putVarInt(b, Integer.MAX_VALUE);
+        }));
+        assertCorrupta(trama(CodecMensajes.INSTANTANEA_CARRERA, b -> {
+            CodecMensajes.putVarInt(b, 1);
+            CodecMensajes.putVarInt(b, 1);
+            b.put((byte) 1);
+            CodecMensajes.putVarInt(b, -5);
+        }));
+        assertCorrupta(trama(CodecMensajes.CLASIFICACION_PARCIAL, b -> {
+            for (int i = 0; i < 4; i++) CodecMensajes.putVarInt(b, 1);
+            CodecMensajes.putVarInt(b, 50_000_000);
+        }));
+    }
+
+    @Test
+    void cadenaMasLargaQueLaTrama() {
+        assertCorrupta(trama(CodecMensajes.REDIRECCION, b -> {
+            CodecMensajes.putVarInt(b, 1_000_000);
+            b.put("corta".getBytes());
+        }));
+        assertCorrupta(trama(CodecMensajes.REDIRECCION, b -> CodecMensajes.putVarInt(b, -7)));
+    }
+
+    @Test
+    void varintDemasiadoLargo() {
+        assertCorrupta(new byte[]{CodecMensajes.ESTADO_JUGADOR, -1, -1, -1, -1, -1, -1, 0});
+    }
+
+    @Test
+    void tramaTruncada() throws Exception {
+        ByteBuffer b = ByteBuffer.allocate(256);
+        new CodecMensajes(CodecMensajes.FORMATO_BINARIO).codificar(new AsignacionGrupo(1, "239.0.0.1", 6000, 2, 5L), b);
+        byte[] datos = Arrays.copyOfRange(b.array(), 4, b.position());
+        for (int corte = 1; corte < datos.length; corte++) {
+            assertCorrupta(Arrays.copyOf(datos, corte));
+        }
+    }
+
+    @Test
+    void longitudDeTramaFueraDeLimites() {
+        for (int longitud : new int[]{0, -1, Tramas.MAX_TRAMA + 1, Integer.MAX_VALUE}) {
+            ByteBuffer b = ByteBuffer.allocate(8).putInt(longitud).putInt(0);
+            LectorTramas lector = new LectorTramas(new ByteArrayInputStream(b.array()),
+                    new CodecMensajes(CodecMensajes.FORMATO_BINARIO));
+            assertThrows(StreamCorruptedException.class, lector::leer, "longitud " + longitud);
+        }
+    }
+
+    @Test
+    void mensajeMasGrandeQueUnaTrama() {
+        ByteBuffer b = ByteBuffer.allocate(Tramas.MAX_TRAMA);
+        ErrorProtocolo enorme = new ErrorProtocolo(400, "x".repeat(Tramas.MAX_TRAMA));
+        assertThrows(BufferOverflowException.class,
+                () -> new CodecMensajes(CodecMensajes.FORMATO_BINARIO).codificar(enorme, b));
+        assertEquals(0, b.position());
+    }
+
+    // ========== AUXILIARES ==========
+
+    private interface Cuerpo {
+        void escribir(ByteBuffer b);
+    }
+
+    // Contenido de una trama (sin prefijo de longitud) de ese tipo
+    private static byte[] trama(byte tipo, Cuerpo cuerpo) {
+        ByteBuffer b = ByteBuffer.allocate(256);
+        b.put(tipo);
+        cuerpo.escribir(b);
+        return Arrays.copyOf(b.array(), b.position());
+    }
+
+    private static void assertCorrupta(byte[] datos) {
+        CodecMensajes entrada = new CodecMensajes(CodecMensajes.FORMATO_BINARIO);
+        assertThrows(StreamCorruptedException.class, () -> entrada.decodificar(datos, 0, datos.length),
+                () -> "Trama " + Arrays.toString(datos));
+    }
+
+    // Decodifica todas las tramas del buffer; debe quedar un único mensaje
+    private static Object decodificarTodo(CodecMensajes codec, ByteBuffer b) throws IOException, ClassNotFoundException {
+        ByteBuffer lectura = ByteBuffer.wrap(b.array(), 0, b.position());
+        Object mensaje = null;
+        while (lectura.hasRemaining()) {
+            int longitud = lectura.getInt();
+            Object m = codec.decodificar(lectura.array(), lectura.position(), longitud);
+            lectura.position(lectura.position() + longitud);
+            if (m != null) {
+                assertNull(mensaje, "Más de un mensaje en el buffer");
+                mensaje = m;
+            }
+        }
+        assertNotNull(mensaje, "Solo tramas de control");
+        return mensaje;
+    }
+
+    private static int contarTramas(ByteBuffer b) {
+        ByteBuffer lectura = ByteBuffer.wrap(b.array(), 0, b.position());
+        int n = 0;
+        while (lectura.hasRemaining()) {
+            int longitud = lectura.getInt();
+            lectura.position(lectura.position() + longitud);
+            n++;
+        }
+        return n;
+    }
+
+    // Los mensajes no tienen equals: se comparan sus campos públicos
+    private static void assertMismosCampos(Object esperado, Object real) throws IllegalAccessException {
+        assertNotNull(real);
+        assertEquals(esperado.getClass(), real.getClass());
+        for (Field campo : esperado.getClass().getFields()) {
+            if (Modifier.isStatic(campo.getModifiers())) continue;
+            Object a = campo.get(esperado);
+            Object b = campo.get(real);
+            assertTrue(Objects.deepEquals(a, b), () -> esperado.getClass().getSimpleName() + "." + campo.getName()
+                    + ": esperado " + a + ", leído " + b);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package servidor;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import protocolos.EventoCarrera;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DiarioCarrerasTest {
+    private static final long SEGMENTO = 1 << 20;
+
+    @TempDir
+    Path directorio;
+
+    @Test
+    void codificarYDecodificarCadaTipo() {
+        for (DiarioCarreras.Apunte a : Arrays.asList(
+                asignacion(1, -77L, Arrays.asList("A", "ñandú")),
+                evento(1, "ñandú", EventoCarrera.TipoEvento.CAIDA, 640),
+                desconexion(1, "A"),
+                fin(1, Arrays.asList("ñandú", "A")),
+                hueco(1, 12))) {
+            ByteBuffer b = ByteBuffer.allocate(256);
+            DiarioCarreras.codificar(a, b);
+            b.flip();
+            DiarioCarreras.Apunte leido = DiarioCarreras.decodificar(b);
+            assertFalse(b.hasRemaining(), "Sobran bytes de " + a);
+            assertIguales(a, leido);
+        }
+    }
+
+    @Test
+    void tipoDesconocido() {
+        DiarioCarreras.Apunte a = new DiarioCarreras.Apunte();
+        a.tipo = 42;
+        assertThrows(IllegalArgumentException.class, () -> DiarioCarreras.codificar(a, ByteBuffer.allocate(64)));
+        ByteBuffer b = ByteBuffer.allocate(13).put((byte) 42).putLong(0).putInt(1);
+        b.flip();
+        assertThrows(IllegalArgumentException.class, () -> DiarioCarreras.decodificar(b));
+    }
+
+    @Test
+    void idaYVueltaPorFichero() throws IOException {
+        // Segmentos pequeños para que se pase de uno a otro
+        DiarioCarreras diario = new DiarioCarreras(directorio, 4096);
+        arrancar(diario);
+        diario.asignacion(7, 99L, true, false, Arrays.asList("A", "B"));
+        for (int i = 1; i <= 200; i++) {
+            diario.evento(7, i % 2 == 0 ? "A" : "B", EventoCarrera.TipoEvento.PASO, i, i * 20);
+        }
+        diario.desconexion(7, "B");
+        diario.fin(7, Arrays.asList("A", "B"));
+        diario.cerrar();
+
+        List<DiarioCarreras.Apunte> leidos = leer();
+        assertTrue(DiarioCarreras.segmentos(directorio).size() > 1);
+        assertEquals(203, leidos.size());
+        assertEquals(DiarioCarreras.ASIGNACION, leidos.get(0).tipo);
+        assertTrue(leidos.get(0).autoritativa);
+        assertFalse(leidos.get(0).multicast);
+        for (int i = 1; i <= 200; i++) {
+            assertEquals(DiarioCarreras.EVENTO, leidos.get(i).tipo);
+            assertEquals(i * 20, leidos.get(i).pos);
+        }
+        assertEquals(DiarioCarreras.DESCONEXION, leidos.get(201).tipo);
+        assertEquals(Arrays.asList("A", "B"), leidos.get(202).ids);
+    }
+
+    @Test
+    void noReescribeSegmentosAnteriores() throws IOException {
+        DiarioCarreras primero = new DiarioCarreras(directorio, SEGMENTO);
+        arrancar(primero);
+        primero.fin(1, Collections.singletonList("A"));
+        primero.cerrar();
+        DiarioCarreras segundo = new DiarioCarreras(directorio, SEGMENTO);
+        arrancar(segundo);
+        segundo.fin(2, Collections.singletonList("B"));
+        segundo.cerrar();
+
+        assertEquals(2, DiarioCarreras.segmentos(directorio).size());
+        List<DiarioCarreras.Apunte> leidos = leer();
+        assertEquals(2, leidos.size());
+        assertEquals(1, leidos.get(0).idGrupo);
+        assertEquals(2, leidos.get(1).idGrupo);
+    }
+
+    @Test
+    void anilloLlenoDejaUnHuecoDelGrupo() throws IOException {
+        DiarioCarreras diario = new DiarioCarreras(directorio, 4 * SEGMENTO);
+        // Sin el hilo del diario nadie vacía el anillo: lo que no quepa se pierde
+        int capacidad = 1 << 14;
+        for (int i = 0; i < capacidad; i++) {
+            diario.evento(1, "A", EventoCarrera.TipoEvento.PASO, i, 20);
+        }
+        diario.evento(3, "C", EventoCarrera.TipoEvento.PASO, 0, 20);
+        diario.evento(3, "C", EventoCarrera.TipoEvento.PASO, 1, 40);
+        diario.desconexion(3, "C");
+        arrancar(diario);
+        diario.cerrar();
+
+        List<DiarioCarreras.Apunte> leidos = leer();
+        List<DiarioCarreras.Apunte> huecos = new ArrayList<>();
+        for (DiarioCarreras.Apunte a : leidos) {
+            if (a.tipo == DiarioCarreras.HUECO) huecos.add(a);
+        }
+        assertEquals(capacidad + 1, leidos.size());
+        assertEquals(1, huecos.size());
+        assertEquals(3, huecos.get(0).idGrupo);
+        assertEquals(3, huecos.get(0).pos);
+    }
+
+    @Test
+    void apunteDemasiadoGrandeDejaUnHuecoYElHiloSigue() throws IOException {
+        DiarioCarreras diario = new DiarioCarreras(directorio, SEGMENTO);
+        arrancar(diario);
+        List<String> ids = new ArrayList<>();
+        String largo = "x".repeat(250);
+        for (int i = 0; i < 300; i++) ids.add(largo + i);  // ~75 KB, más que un apunte
+        diario.asignacion(5, 1L, false, false, ids);
+        diario.fin(6, Collections.singletonList("A"));
+        diario.cerrar();
+
+        List<DiarioCarreras.Apunte> leidos = leer();
+        assertEquals(2, leidos.size());
+        assertEquals(DiarioCarreras.HUECO, leidos.get(0).tipo);
+        assertEquals(5, leidos.get(0).idGrupo);
+        assertEquals(1, leidos.get(0).pos);
+        assertEquals(DiarioCarreras.FIN, leidos.get(1).tipo);
+        assertEquals(6, leidos.get(1).idGrupo);
+    }
+
+    // ========== AUXILIARES ==========
+
+    private static void arrancar(DiarioCarreras diario) {
+        Thread t = new Thread(diario, "diario-prueba");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private List<DiarioCarreras.Apunte> leer() throws IOException {
+        List<DiarioCarreras.Apunte> leidos = new ArrayList<>();
+        DiarioCarreras.leer(directorio, leidos::add);
+        return leidos;
+    }
+
+    private static DiarioCarreras.Apunte base(byte tipo, int idGrupo) {
+        DiarioCarreras.Apunte a = new DiarioCarreras.Apunte();
+        a.tipo = tipo;
+        a.instante = 1_700_000_000_123_456_789L;
+        a.idGrupo = idGrupo;
+        return a;
+    }
+
+    private static DiarioCarreras.Apunte asignacion(int idGrupo, long semilla, List<String> ids) {
+        DiarioCarreras.Apunte a = base(DiarioCarreras.ASIGNACION, idGrupo);
+        a.semilla = semilla;
+        a.autoritativa = true;
+        a.multicast = true;
+        a.ids = ids;
+        return a;
+    }
+
+    private static DiarioCarreras.Apunte evento(int idGrupo, String id, EventoCarrera.TipoEvento tipo, int pos) {
+        DiarioCarreras.Apunte a = base(DiarioCarreras.EVENTO, idGrupo);
+        a.idCliente = id;
+        a.tipoEvento = tipo;
+        a.tMarca = -5L;
+        a.pos = pos;
+        return a;
+    }
+
+    private static DiarioCarreras.Apunte desconexion(int idGrupo, String id) {
+        DiarioCarreras.Apunte a = base(DiarioCarreras.DESCONEXION, idGrupo);
+        a.idCliente = id;
+        return a;
+    }
+
+    private static DiarioCarreras.Apunte fin(int idGrupo, List<String> ranking) {
+        DiarioCarreras.Apunte a = base(DiarioCarreras.FIN, idGrupo);
+        a.ids = ranking;
+        return a;
+    }
+
+    private static DiarioCarreras.Apunte hueco(int idGrupo, int perdidos) {
+        DiarioCarreras.Apunte a = base(DiarioCarreras.HUECO, idGrupo);
+        a.pos = perdidos;
+        return a;
+    }
+
+    // toString solo muestra algunos campos: se comparan todos
+    private static void assertIguales(DiarioCarreras.Apunte a, DiarioCarreras.Apunte b) {
+        assertEquals(a.tipo, b.tipo);
+        assertEquals(a.instante, b.instante);
+        assertEquals(a.idGrupo, b.idGrupo);
+        assertEquals(a.idCliente, b.idCliente);
+        assertEquals(a.tipoEvento, b.tipoEvento);
+        assertEquals(a.tMarca, b.tMarca);
+        assertEquals(a.pos, b.pos);
+        assertEquals(a.semilla, b.semilla);
+        assertEquals(a.autoritativa, b.autoritativa);
+        assertEquals(a.multicast, b.multicast);
+        assertEquals(a.ids, b.ids);
+    }
+}
@@ -0,0 +1,132 @@
+package servidor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RuedaTemporizadoresTest {
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(5);
+
+    private RuedaTemporizadores rueda;
+    private Thread hilo;
+
+    @BeforeEach
+    void arrancar() {
+        // Pocas ranuras para que los plazos largos den varias vueltas
+        rueda = new RuedaTemporizadores(TICK, 8);
+        hilo = new Thread(rueda, "rueda-prueba");
+        hilo.setDaemon(true);
+        hilo.start();
+    }
+
+    @AfterEach
+    void parar() throws InterruptedException {
+        rueda.detener();
+        hilo.interrupt();
+        hilo.join(1000);
+    }
+
+    @Test
+    void ranurasQueNoSonPotenciaDeDos() {
+        assertThrows(IllegalArgumentException.class, () -> new RuedaTemporizadores(TICK, 12));
+    }
+
+    @Test
+    void venceNoAntesDelPlazo() throws InterruptedException {
+        AtomicLong vencido = new AtomicLong();
+        CountDownLatch hecho = new CountDownLatch(1);
+        RuedaTemporizadores.Temporizador t = new RuedaTemporizadores.Temporizador(() -> {
+            vencido.set(System.nanoTime());
+            hecho.countDown();
+        });
+        long inicio = System.nanoTime();
+        long retraso = TimeUnit.MILLISECONDS.toNanos(30);
+        rueda.programar(t, retraso);
+
+        assertTrue(hecho.await(2, TimeUnit.SECONDS));
+        assertTrue(vencido.get() - inicio >= retraso - TICK, "Venció antes de tiempo");
+    }
+
+    @Test
+    void plazoMayorQueUnaVuelta() throws InterruptedException {
+        // 8 ranuras de 5 ms: 100 ms son dos vueltas y media
+        AtomicLong vencido = new AtomicLong();
+        CountDownLatch hecho = new CountDownLatch(1);
+        RuedaTemporizadores.Temporizador t = new RuedaTemporizadores.Temporizador(() -> {
+            vencido.set(System.nanoTime());
+            hecho.countDown();
+        });
+        long inicio = System.nanoTime();
+        long retraso = TimeUnit.MILLISECONDS.toNanos(100);
+        rueda.programar(t, retraso);
+
+        assertTrue(hecho.await(2, TimeUnit.SECONDS));
+        assertTrue(vencido.get() - inicio >= retraso - TICK, "Venció en una vuelta anterior");
+    }
+
+    @Test
+    void reprogramarAplazaSinDuplicar() throws InterruptedException {
+        AtomicInteger veces = new AtomicInteger();
+        AtomicLong vencido = new AtomicLong();
+        RuedaTemporizadores.Temporizador t = new RuedaTemporizadores.Temporizador(() -> {
+            vencido.set(System.nanoTime());
+            veces.incrementAndGet();
+        });
+        rueda.programar(t, TimeUnit.MILLISECONDS.toNanos(20));
+        long inicio = System.nanoTime();
+        long retraso = TimeUnit.MILLISECONDS.toNanos(150);
+        rueda.programar(t, retraso);
+
+        Thread.sleep(300);
+        assertEquals(1, veces.get());
+        assertTrue(vencido.get() - inicio >= retraso - TICK, "Venció con el plazo antiguo");
+    }
+
+    @Test
+    void laAccionPuedeReprogramarse() throws InterruptedException {
+        CountDownLatch tres = new CountDownLatch(3);
+        RuedaTemporizadores.Temporizador[] t = new RuedaTemporizadores.Temporizador[1];
+        t[0] = new RuedaTemporizadores.Temporizador(() -> {
+            tres.countDown();
+            if (tres.getCount() > 0) rueda.programar(t[0], TICK);
+        });
+        rueda.programar(t[0], TICK);
+        assertTrue(tres.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void cancelarEvitaQueVenza() throws InterruptedException {
+        AtomicInteger veces = new AtomicInteger();
+        RuedaTemporizadores.Temporizador cancelado = new RuedaTemporizadores.Temporizador(veces::incrementAndGet);
+        CountDownLatch otro = new CountDownLatch(1);
+        RuedaTemporizadores.Temporizador vecino = new RuedaTemporizadores.Temporizador(otro::countDown);
+        // En la misma ranura: cancelar uno no debe soltar al otro de la lista
+        rueda.programar(cancelado, TimeUnit.MILLISECONDS.toNanos(40));
+        rueda.programar(vecino, TimeUnit.MILLISECONDS.toNanos(40));
+        rueda.cancelar(cancelado);
+        rueda.cancelar(cancelado);
+
+        assertTrue(otro.await(2, TimeUnit.SECONDS));
+        Thread.sleep(50);
+        assertEquals(0, veces.get());
+    }
+
+    @Test
+    void unaAccionQueFallaNoParaLaRueda() throws InterruptedException {
+        RuedaTemporizadores.Temporizador falla = new RuedaTemporizadores.Temporizador(() -> {
+            throw new IllegalStateException("prueba");
+        });
+        CountDownLatch hecho = new CountDownLatch(1);
+        RuedaTemporizadores.Temporizador despues = new RuedaTemporizadores.Temporizador(hecho::countDown);
+        rueda.programar(falla, TICK);
+        rueda.programar(despues, 4 * TICK);
+        assertTrue(hecho.await(2, TimeUnit.SECONDS));
+    }
+}